@@ -0,0 +1,118 @@
+package DWR.DMS.PTM;
+
+import java.util.Arrays;
+
+// Keeps the indices of the particles that have to be updated, so each PTM time step only visits
+// the fish that are in the system instead of the whole particle array. Particles waiting to be
+// inserted are queued in order of insertion time and join the active list on the step they are
+// inserted. Particles that die, which includes export at CVP and SWP and leaving the grid through
+// a boundary, are dropped from the list after the step they died in.
+//
+// The active list is kept in increasing index order, so the particles are updated in the same
+// order as a sweep over the whole array.
+public class ActiveParticleSet {
+
+	private final Particle[] particles;
+
+	// Particles waiting to be inserted, sorted by insertion time and then index. Each entry holds
+	// the insertion time in the upper 32 bits and the particle index in the lower 32 bits.
+	private final long[] pending;
+	private final int numberOfPending;
+	private int nextPending = 0;
+
+	// Indices of the active particles, in increasing order
+	private int[] active;
+	private int numberOfActive = 0;
+
+	// Scratch arrays for adding newly inserted particles to the active list
+	private int[] inserted, merged;
+
+	// Constructor; the insertion times must have been set
+	public ActiveParticleSet(Particle[] particleArray, int numberOfParticles) {
+		int n = 0;
+
+		particles = particleArray;
+		pending = new long[numberOfParticles];
+		active = new int[numberOfParticles];
+		inserted = new int[numberOfParticles];
+		merged = new int[numberOfParticles];
+
+		for (int i = 0; i < numberOfParticles; i++) {
+			if (particleArray[i].isDead()) {
+				continue;
+			}
+			if (particleArray[i].isInserted()) {
+				// Restart particles that are already in the system
+				active[numberOfActive++] = i;
+			} else {
+				pending[n++] = ((long) particleArray[i].getInsertionTime() << 32) | i;
+			}
+		}
+		Arrays.sort(pending, 0, n);
+		numberOfPending = n;
+	}
+
+	// Add the particles that are inserted at currentModelTime to the active list
+	public void activate(int currentModelTime) {
+		int numberOfInserted = 0, a = 0, b = 0, n = 0;
+		int[] swap;
+
+		while (nextPending < numberOfPending && (int) (pending[nextPending] >> 32) <= currentModelTime) {
+			inserted[numberOfInserted++] = (int) pending[nextPending];
+			nextPending++;
+		}
+		if (numberOfInserted == 0) {
+			return;
+		}
+
+		// Merge them into the active list in index order
+		Arrays.sort(inserted, 0, numberOfInserted);
+		while (a < numberOfActive && b < numberOfInserted) {
+			merged[n++] = active[a] < inserted[b] ? active[a++] : inserted[b++];
+		}
+		while (a < numberOfActive) {
+			merged[n++] = active[a++];
+		}
+		while (b < numberOfInserted) {
+			merged[n++] = inserted[b++];
+		}
+		swap = active;
+		active = merged;
+		merged = swap;
+		numberOfActive = n;
+	}
+
+	// Drop the particles that died during the last step from the active list
+	public void removeDead() {
+		int n = 0;
+
+		for (int i = 0; i < numberOfActive; i++) {
+			if (!particles[active[i]].isDead()) {
+				active[n++] = active[i];
+			}
+		}
+		numberOfActive = n;
+	}
+
+	// Indices of the active particles; only the first getNumberOfActive() entries are used
+	public int[] getActive() {
+		return active;
+	}
+
+	public int getNumberOfActive() {
+		return numberOfActive;
+	}
+
+	// Insertion time of the next particle to be inserted, or Integer.MAX_VALUE if there is none
+	public int getNextInsertionTime() {
+		if (nextPending == numberOfPending) {
+			return Integer.MAX_VALUE;
+		}
+		return (int) (pending[nextPending] >> 32);
+	}
+
+	// True once no particles are waiting to be inserted or still in the system
+	public boolean isEmpty() {
+		return numberOfActive == 0 && nextPending == numberOfPending;
+	}
+}
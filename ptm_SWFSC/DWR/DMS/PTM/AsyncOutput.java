@@ -0,0 +1,210 @@
+package DWR.DMS.PTM;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+// Hands output records from the simulation threads to a writer thread, so a slow file system
+// doesn't stall the particle updates. Each output has its own writer thread that drains a
+// bounded lock-free ring of records into a Sink. The records must not be changed once they are
+// published.
+//
+// When the ring is full the publishing thread waits for the writer; the number of waits, the
+// time spent waiting and the highest ring occupancy are printed when the output is closed.
+// Outputs that are still open when the JVM exits are drained and closed by a shutdown hook.
+public class AsyncOutput<T> {
+
+	// Writes the records on the writer thread
+	public interface Sink<T> {
+		void write(T record) throws IOException;
+
+		// Called whenever the ring has been drained
+		void flush() throws IOException;
+
+		void close() throws IOException;
+	}
+
+	public static final int DEFAULT_CAPACITY = 8192;
+
+	// Time the writer sleeps when the ring is empty
+	private static final long IDLE_NANOS = 100000L;
+
+	private static final ArrayList<AsyncOutput<?>> openOutputs = new ArrayList<AsyncOutput<?>>();
+	private static boolean shutdownHookAdded = false;
+
+	private final String name;
+	private final Sink<T> sink;
+	private final Thread writer;
+
+	// Bounded multi-producer ring (D. Vyukov). A slot can be filled when its sequence equals the
+	// producer position and read when it equals the consumer position + 1.
+	private final int mask;
+	private final AtomicReferenceArray<T> slots;
+	private final AtomicLongArray sequences;
+	private final AtomicLong tail = new AtomicLong();
+	private long head = 0;
+
+	private volatile boolean closing = false, failed = false;
+	private boolean closed = false;
+
+	// Backpressure metrics
+	private final AtomicLong published = new AtomicLong(), waits = new AtomicLong(), waitNanos = new AtomicLong();
+	private volatile long highWaterMark = 0;
+
+	// Constructor; capacity is rounded up to a power of two
+	public AsyncOutput(String name, int capacity, Sink<T> sink) {
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+
+		this.name = name;
+		this.sink = sink;
+		mask = size - 1;
+		slots = new AtomicReferenceArray<T>(size);
+		sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}
+
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				drain();
+			}
+		}, name + "-writer");
+		writer.setDaemon(true);
+		writer.start();
+
+		synchronized (openOutputs) {
+			openOutputs.add(this);
+			if (!shutdownHookAdded) {
+				Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+					@Override
+					public void run() {
+						closeAll();
+					}
+				}, "output-shutdown"));
+				shutdownHookAdded = true;
+			}
+		}
+	}
+
+	// Queue a record for the writer, waiting while the ring is full
+	public void publish(T record) {
+		long position, sequence, waitStart = 0;
+
+		if (closing) {
+			throw new IllegalStateException(name + " output is closed");
+		}
+		while (true) {
+			position = tail.get();
+			sequence = sequences.get((int) position & mask);
+			if (sequence == position) {
+				if (tail.compareAndSet(position, position + 1)) {
+					break;
+				}
+			} else if (sequence < position) {
+				// Full
+				if (waitStart == 0) {
+					waitStart = System.nanoTime();
+					waits.incrementAndGet();
+				}
+				LockSupport.unpark(writer);
+				Thread.yield();
+			}
+		}
+		if (waitStart != 0) {
+			waitNanos.addAndGet(System.nanoTime() - waitStart);
+		}
+
+		// close may have started while the slot was being claimed, and the writer may already have
+		// stopped. Release the slot empty so a writer that is still draining skips it.
+		if (closing) {
+			sequences.set((int) position & mask, position + 1);
+			throw new IllegalStateException(name + " output is closed");
+		}
+		slots.set((int) position & mask, record);
+		sequences.set((int) position & mask, position + 1);
+		published.incrementAndGet();
+	}
+
+	// Write everything published so far, close the sink and stop the writer thread. Safe to call more than once.
+	public void close() {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+		}
+		closing = true;
+		LockSupport.unpark(writer);
+		// A writer that failed is exiting the JVM and can't be waited for
+		if (Thread.currentThread() != writer && !failed) {
+			try {
+				writer.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		synchronized (openOutputs) {
+			openOutputs.remove(this);
+		}
+		System.out.println(name + " output: " + published.get() + " records, writer fell behind " + waits.get() + " times ("
+				+ waitNanos.get() / 1000000L + " ms waiting), at most " + highWaterMark + " of " + (mask + 1) + " records queued");
+	}
+
+	// Close the outputs that are still open
+	private static void closeAll() {
+		ArrayList<AsyncOutput<?>> outputs;
+
+		synchronized (openOutputs) {
+			outputs = new ArrayList<AsyncOutput<?>>(openOutputs);
+		}
+		for (AsyncOutput<?> output : outputs) {
+			output.close();
+		}
+	}
+
+	// Writer thread
+	private void drain() {
+		T record;
+		boolean wrote = false;
+		int index;
+
+		try {
+			while (true) {
+				index = (int) head & mask;
+				if (sequences.get(index) == head + 1) {
+					if (tail.get() - head > highWaterMark) {
+						highWaterMark = tail.get() - head;
+					}
+					record = slots.get(index);
+					slots.set(index, null);
+					sequences.set(index, head + mask + 1);
+					head++;
+					// Empty slots were released by a publish that lost the race with close
+					if (record != null) {
+						sink.write(record);
+						wrote = true;
+					}
+				} else if (closing && tail.get() == head) {
+					// Nothing published and nothing left to write
+					break;
+				} else {
+					if (wrote) {
+						sink.flush();
+						wrote = false;
+					}
+					LockSupport.parkNanos(IDLE_NANOS);
+				}
+			}
+			sink.flush();
+			sink.close();
+		} catch (IOException | RuntimeException e) {
+			System.out.println("Could not write the " + name + " output: " + e);
+			failed = true;
+			System.exit(-1);
+		}
+	}
+}
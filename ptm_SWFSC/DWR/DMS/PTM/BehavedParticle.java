@@ -1,11 +1,7 @@
 package DWR.DMS.PTM;
 
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Map;
-import java.util.Random;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
@@ -17,7 +13,7 @@ import java.nio.file.Paths;
 import ncsa.hdf.hdf5lib.exceptions.HDF5SymbolTableException;
 import ch.systemsx.cisd.hdf5.HDF5Factory;
 import ch.systemsx.cisd.hdf5.IHDF5SimpleReader;
-import ch.systemsx.cisd.hdf5.IHDF5SimpleWriter;
+import ch.systemsx.cisd.hdf5.IHDF5Writer;
 
 /**
  * @author Doug Jackson doug.jackson@noaa.gov
@@ -43,34 +39,30 @@ public class BehavedParticle extends Particle {
 
 	// Channel-specific parameters
 	public static double[][] channelPars;
-	public static HashMap<Integer, Double> channelLambda = new HashMap<Integer, Double>();
-	public static HashMap<Integer, Double> channelOmega = new HashMap<Integer, Double>();
-	public static HashMap<Integer, Double> channelMeanMigrationRate = new HashMap<Integer, Double>();
-	public static HashMap<Integer, Double> channelHoldThr = new HashMap<Integer, Double>();
-	public static HashMap<Integer, Double> channelConstProbOrient = new HashMap<Integer, Double>();
-	public static HashMap<Integer, Double> channelSlopeProbOrient = new HashMap<Integer, Double>();
-	public static HashMap<Integer, Double> channelPPersistence = new HashMap<Integer, Double>(); // VKS: Creating new hashmap for pPersistence
-	public static HashMap<Integer, Double> channelDaytimeSwimProb = new HashMap<Integer, Double>();
-	public static HashMap<Integer, Double> channelStdMigrationRate = new HashMap<Integer, Double>();
-	public static HashMap<Integer, Double> channelPSystem = new HashMap<Integer, Double>(); // VKS: Creating new hashmap for pSystem
-	public static HashMap<Integer, Double> channelHoldProb = new HashMap<Integer, Double>(); // VKS: Creating new hashmap for holdProb
+	// Parameters of each channel, indexed by waterbody env index
+	public static ChannelBehaviorTable channelTable;
 
 	public static String outputFilename = MainPTM.getBehaviorOutputFilename();
-	public static IHDF5SimpleWriter writer = initializeWriter();
+	public static IHDF5Writer writer = initializeWriter();
+	public static BehaviorEventTable events = new BehaviorEventTable(writer, MainPTM.legacyBehaviorOutput);
 	public static IHDF5SimpleReader reader;
 	public static String behaviorParameterFile = MainPTM.getBehaviorInputFilename();
 
 	public static int numParticles;
 	public static HashMap<String, Integer> checkpointIndices = new HashMap<String, Integer>();
 
-	// Arrays to store insertions, deaths, and first arrival datetimes
-	public static String[] insertionArray;
-	public static String[] deathArray;
-	public static String[][] firstArrivalArray;
+	// Arrays to store insertions, deaths, and first arrival times (Julian minutes), indexed by particle number - 1.
+	// NA_TIME marks a particle that hasn't been inserted, died or arrived.
+	public static final int NA_TIME = Integer.MIN_VALUE;
+	public static int[] insertionTime, insertionNode;
+	public static int[] deathTime, deathWaterbody;
+	public static int[][] firstArrivalTime;
 
 	// Code indicating the type of testing output to write
 	public static int testOutType;
 	public static BufferedWriter testWriter;
+	// Lines of testing output waiting to be formatted and written
+	public static AsyncOutput<Object[]> testOutput;
 
 	// Maximum number of repeated routing attempts to allow before making the particle wait
 	public static final int MAX_MULTIPLE_ROUTE_ATTEMPTS = 20;
@@ -116,7 +108,7 @@ public class BehavedParticle extends Particle {
 			minProbOrient = 0.5;
 
 			// channelPars
-			// read in HDF5 file, store channel specific values in hashmaps
+			// read in HDF5 file, store channel specific values in channelTable
 			// 0: channel
 			// 1: lambda
 			// 2: omega
@@ -130,19 +122,7 @@ public class BehavedParticle extends Particle {
 			// 10: pSystem
 			// 11: holdProb
 			channelPars = reader.readDoubleMatrix("channelPars");
-			for (int i = 0; i < channelPars.length; i++) {
-				channelLambda.put((int) Math.floor(channelPars[i][0]), channelPars[i][1]);
-				channelOmega.put((int) Math.floor(channelPars[i][0]), channelPars[i][2]);
-				channelMeanMigrationRate.put((int) Math.floor(channelPars[i][0]), channelPars[i][3]);
-				channelHoldThr.put((int) Math.floor(channelPars[i][0]), channelPars[i][4]);
-				channelConstProbOrient.put((int) Math.floor(channelPars[i][0]), channelPars[i][5]);
-				channelSlopeProbOrient.put((int) Math.floor(channelPars[i][0]), channelPars[i][6]);
-				channelPPersistence.put((int) Math.floor(channelPars[i][0]), channelPars[i][7]); // VKS: Additional assignment
-				channelDaytimeSwimProb.put((int) Math.floor(channelPars[i][0]), channelPars[i][8]);
-				channelStdMigrationRate.put((int) Math.floor(channelPars[i][0]), channelPars[i][9]);
-				channelPSystem.put((int) Math.floor(channelPars[i][0]), channelPars[i][10]);
-				channelHoldProb.put((int) Math.floor(channelPars[i][0]), channelPars[i][11]);
-			}
+			channelTable = new ChannelBehaviorTable(channelPars);
 
 			System.out.println("swimCode = " + swimCode + 
 					"\nimmortal = " + immortal + 
@@ -191,122 +171,58 @@ public class BehavedParticle extends Particle {
 	}
 
 	// Behavior parameters - instance variables
-	// Channel-specific parameters
-	public double lambda;
-	public double omega;
-	public float meanMigrationRate;
-	public float holdThr;
-	public float constProbOrient;
-	public float slopeProbOrient;
-	public float pPersistence; // VKS: Adding new behavior element for memory persistence
-	public float daytimeSwimProb;
-	public float stdMigrationRate;
-	public float pSystem;
-	public float holdProb; // VKS: Holding threshold probability as proposed in July 23 2019 developer meeting
-
-	// Flag to indicate whether this particle has entered a channel yet
-	public boolean enteredChannel;
-
-	public boolean swimTime;
-	public float lastDecisionAttemptTime;
-	public float migrationRate;
-
-	public boolean madeDecision;
-	public ArrayList<Integer> optionsTried;
-
-	public double probOrient;
-	public float orientFactor;
-	public float channelDir;
-	public float flowVelocity;
-	public float baseParticleVel;
-	public float particleVelocity;
-	public float baseSwimVel;
-	public float swimVelocity;
-
-	public Waterbody previousWB;
-
-	// Reservoir residence time variables
-	public boolean inReservoir;
-	public int reservoirID;
-	public float reservoirResTime;
-
-	// mortality parameters
-	Random generator = new Random();
-	public double realizedSurvProb;
-
-	// Checkpoint parameters
-	public int ChippsPassCount;
-	public int ExitPassCount;
-	public int SWPpassCount;
-	public int CVPpassCount;
-	public int[] checkpointsPassCount;
+	// The channel-specific parameters, orientation, migration rate, reservoir residence and checkpoint
+	// pass counts are kept in the columns of a BehavedParticleStore at index slot
+	protected final BehavedParticleStore bStore;
 
 	////////////////////////////////////////////////////////////////////
 	// Instance methods
 	////////////////////////////////////////////////////////////////////
 
-	public BehavedParticle(ParticleFixedInfo pFI) // Constructor called when a particle is created
+	public BehavedParticle(ParticleFixedInfo pFI) // Constructor called when a particle is created on its own
 	{
-		super(pFI);
+		this(pFI, new BehavedParticleStore(1));
+	}
+
+	public BehavedParticle(ParticleFixedInfo pFI, BehavedParticleStore store) // Constructor called when a particle is created
+	{
+		super(pFI, store);
+		bStore = store;
 
 		// lastDecisionTime == -999.0f indicates that makeNodeDecision has never been run
-		lastDecisionAttemptTime = -999.0f;
-
-		madeDecision = true;
-		optionsTried = new ArrayList<Integer>();
-		inReservoir = false;
-		reservoirID = -999;
-		reservoirResTime = 0.0f;
-
-		channelDir = 1.0f;
-
-		// Initialize checkpoint pass counts
-		ChippsPassCount = 0;
-		ExitPassCount = 0;
-		CVPpassCount = 0;
-		SWPpassCount = 0;
-		checkpointsPassCount = new int[checkpoints.length];
-
-		// Initialize channel-specific parameters
-		lambda = 0.0;
-		omega = 0.0;
-		meanMigrationRate = 0.0f;
-		stdMigrationRate = 0.0f;
-		holdThr = 0.0f;
-		constProbOrient = 0.0f;
-		slopeProbOrient = 0.0f;
-		pPersistence = 0.0f;
-		daytimeSwimProb = 0.0f;
-		pSystem = 0.0f;
-		holdProb = 0.0f;
-
-		enteredChannel = false;
-		swimTime = true;
-
-		// Initialize the migrationRate to 0.0 just to be safe
-		migrationRate = 0.0f;
+		bStore.lastDecisionAttemptTime[slot] = -999.0f;
+
+		bStore.setFlag(slot, BehavedParticleStore.MADE_DECISION, true);
+		bStore.reservoirID[slot] = -999;
+
+		bStore.channelDir[slot] = 1.0f;
+
+		// The checkpoint pass counts, the channel-specific parameters, enteredChannel, inReservoir,
+		// reservoirResTime and migrationRate of a new slot are all zero or false
 
 		// Write the realized migrationRate for each particle to the output file, but
 		// only do this if variableMigrationRate==0
 		if (variableMigrationRate == 0) {
-			writer.writeFloat("migrationRate/particleNum/" + Integer.toString(this.getId()), migrationRate);
+			events.addValue(BehaviorEventTable.MIGRATION_RATE, this.getId(), Globals.currentModelTime, bStore.migrationRate[slot]);
 		}
 
 		// VKS: Check to see if memory persists
-		if (generator.nextDouble() < (double) pPersistence) {
-			orientFactor = 1.0f; // Fish is oriented with the flow in this case
+		bindWorkspace();
+		if (ws.random.nextDouble() < (double) channelTable.pPersistence[bStore.channel[slot]]) {
+			bStore.orientFactor[slot] = 1.0f; // Fish is oriented with the flow in this case
 		} else {
 			// VKS: Initialize orientFactor (-1 is oriented opposite to the flow)
-			if (generator.nextDouble() < initProbOrient) {
-				orientFactor = 1.0f;
+			if (ws.random.nextDouble() < initProbOrient) {
+				bStore.orientFactor[slot] = 1.0f;
 			} else {
-				orientFactor = -1.0f;
+				bStore.orientFactor[slot] = -1.0f;
 			}
 		}
+		unbindWorkspace();
 
 		// Initializations
-		probOrient = initProbOrient;
-		realizedSurvProb = 1.0;
+		bStore.probOrient[slot] = initProbOrient;
+		bStore.realizedSurvProb[slot] = 1.0;
 	}
 
 	// Main swim behavior stuff here
@@ -335,40 +251,41 @@ public class BehavedParticle extends Particle {
 	 */
 	@Override
 	protected float calcXVelocityExtDeterministic() {
-		flowVelocity = getFlowVelocity();
+		ParticleWorkspace ws = this.ws;
+		ws.flowVelocity = getFlowVelocity();
 
-		particleVelocity = 0.0f;
+		ws.particleVelocity = 0.0f;
 
 		switch (swimCode) {
 		case 0:
-			particleVelocity = 0.0f;
+			ws.particleVelocity = 0.0f;
 			break;
 
 		case 1: case 11:
-			particleVelocity = flowVelocity;
+			ws.particleVelocity = ws.flowVelocity;
 			break;
 
 		default:
 			throw new IllegalArgumentException("Unrecognized swimCode");
 		}
-		baseParticleVel = particleVelocity;
+		ws.baseParticleVel = ws.particleVelocity;
 
 		// STST and daytimeSwimProb adjustments for swimCode 11
 		if(swimCode==11) {
 
 			// If flow is more negative than the STST hold threshold, reduce velocity by holdProb to implicitly
 			// account for STST holding
-			if (flowVelocity*channelDir <= -holdThr) {
-				particleVelocity*=(1-holdProb);
+			if (ws.flowVelocity*bStore.channelDir[slot] <= -channelTable.holdThr[bStore.channel[slot]]) {
+				ws.particleVelocity*=(1-channelTable.holdProb[bStore.channel[slot]]);
 			}
 
 			// If daytime, multiply velocity by daytimeSwimProb to implicitly account for reduced activity (holding)
 			if (MainPTM.isDaytime) {
-				particleVelocity*=daytimeSwimProb;
+				ws.particleVelocity*=channelTable.daytimeSwimProb[bStore.channel[slot]];
 			}
 		}
 
-		return particleVelocity;
+		return ws.particleVelocity;
 	}
 
 	/**
@@ -376,40 +293,41 @@ public class BehavedParticle extends Particle {
 	 */
 	@Override
 	protected float calcXVelocityIntDeterministic() {
-		flowVelocity = getFlowVelocity();
-		swimVelocity = 0.0f;
+		ParticleWorkspace ws = this.ws;
+		ws.flowVelocity = getFlowVelocity();
+		ws.swimVelocity = 0.0f;
 
 		switch (swimCode) {
 		case 0: case 1:
-			swimVelocity = 0.0f;
+			ws.swimVelocity = 0.0f;
 			break;
 
 		case 11:
-			swimVelocity = migrationRate * channelDir * orientFactor;
+			ws.swimVelocity = bStore.migrationRate[slot] * bStore.channelDir[slot] * bStore.orientFactor[slot];
 			break;
 
 		default:
 			throw new IllegalArgumentException("Unrecognized swimCode");
 
 		}
-		baseSwimVel = swimVelocity;
+		ws.baseSwimVel = ws.swimVelocity;
 
 		// STST and daytimeSwimProb adjustments for swimCode 11
 		if(swimCode==11) {
 
 			// If flow is more negative than the STST hold threshold, reduce velocity by holdProb to implicitly
 			// account for STST holding
-			if (flowVelocity*channelDir <= -holdThr) {
-				swimVelocity*=(1-holdProb);
+			if (ws.flowVelocity*bStore.channelDir[slot] <= -channelTable.holdThr[bStore.channel[slot]]) {
+				ws.swimVelocity*=(1-channelTable.holdProb[bStore.channel[slot]]);
 			}
 
 			// If daytime, multiply velocity by daytimeSwimProb to implicitly account for reduced activity (holding)
 			if (MainPTM.isDaytime) {
-				swimVelocity*=daytimeSwimProb;
+				ws.swimVelocity*=channelTable.daytimeSwimProb[bStore.channel[slot]];
 			}
 		}
 
-		return swimVelocity;
+		return ws.swimVelocity;
 	}
 
 	@Override
@@ -417,46 +335,44 @@ public class BehavedParticle extends Particle {
 	 * Decide which WaterBody to enter into next
 	 */
 	protected void makeNodeDecision() {
+		Node nd = getRecentNode();
+		ParticleWorkspace ws = this.ws;
 		int choiceIndex = 0;
 		int numWaterBodies = nd.getNumberOfWaterbodies();
 		double[] weightVector;
 		double sumWeightVector;
-		int tempWBnum;
 		int[] indexVector;
 
 		// VKS: Additions for new junction model
 		Waterbody tempWB;
-		int flag = 1;
 		float[] currentQ;
-		int[] chansCurrent;
-		int[] cFlag, cQFlag;
 		int[] currentWBNum;
 
-		ArrayList<Integer> options;
-		int numOptions;
-
-		int prevPos, currPos1, currPos2, cNum, ind, ind1;
-
-		float yND, zND, scratch;
-		int currWB, cc, cf;
+		// All of the channels at this node; the per-option arrays are scratch of the workspace
+		int[] options = nd.getDecisionOptions();
+		int numOptions = options.length;
 
-		ArrayList<int[]> junctionBlowUp = new ArrayList<int[]>();
+		JunctionTree junctionTree;
+		float yND;
+		int currWB;
 
-		madeDecision = false;
+		boolean madeDecision = false;
+		bStore.setFlag(slot, BehavedParticleStore.MADE_DECISION, false);
 
-		previousWB = wb; // VKS: The water body that the particle currently is in
+		Waterbody previousWB = getCurrentWaterbody(); // VKS: The water body that the particle currently is in
+		ws.previousWB = previousWB;
 
 		// Send message to observer about change
-		if (observer != null) {
-			observer.observeChange(ParticleObserver.NODE_CHANGE, this);
+		if (store.observer != null) {
+			store.observer.observeChange(ParticleObserver.NODE_CHANGE, this);
 		}
 
 		// Loop until a decision is made
 		do {
 			//  Clear optionsTried unless this is a retry of an unsuccessful choice and possibly check to see
 			// if the fish becomes confused unless this is a retry of an unsuccessful choice
-			if (((float) Globals.currentModelTime + tmLeft) != lastDecisionAttemptTime) {
-				optionsTried = new ArrayList<Integer>();
+			if (((float) Globals.currentModelTime + ws.tmLeft) != bStore.lastDecisionAttemptTime[slot]) {
+				bStore.clearOptionsTried(slot);
 
 				// If this is a junction, check to see if the fish is going with or against the flow
 				if (nd.getNumChannels() > 2) {
@@ -465,58 +381,48 @@ public class BehavedParticle extends Particle {
 				}
 			}
 
-			// Remember the last currentModelTime && tmLeft combination when we attempted to make a decision
-			lastDecisionAttemptTime = ((float) Globals.currentModelTime + tmLeft);
-
-			// Create a list of all the channels at this node
-			options = new ArrayList<Integer>();
-			for (int i=0; i<numWaterBodies; i++ ) {
-
-				if ((!(nd.getWaterbody(i) instanceof Boundary) || nd.getWaterbodyEnvIndex(i) == 901 || nd.getWaterbodyEnvIndex(i) == 915)) {
-					options.add(i);
-				}
-			}
-			numOptions = options.size();
+			// Remember the last currentModelTime && ws.tmLeft combination when we attempted to make a decision
+			bStore.lastDecisionAttemptTime[slot] = ((float) Globals.currentModelTime + ws.tmLeft);
 
 			// If there are no choices, either move out into the channel a small amount if it's a
 			// dead end, or wait
 			if (numOptions<2) {
 				if (numWaterBodies == 1) {
-					x = getPerturbedXLocation();
+					store.x[slot] = getPerturbedXLocation();
 				} else {
-					particleWait = true;
+					ws.particleWait = true;
 				}
 				return;
 			}
 
 			/* Determine if the same channel has been tried multiple times within the same time step.
-				We already have some logic in DecisionTree.java that attempts to resolve these conditions by
+				We already have some logic in JunctionTree.java that attempts to resolve these conditions by
 				placing the particle in a random channel. However, a truly pathological case could be stuck in an 
 				infinite loop, so we'll want to make the particle wait if the particle has been stuck for a long time.
 			 */
-			HashSet<Integer> tempSet = new HashSet<Integer>(optionsTried);
-			if((optionsTried.size()-tempSet.size())>MAX_MULTIPLE_ROUTE_ATTEMPTS) {
-				particleWait = true;
+			if(bStore.getNumRepeatedOptions(slot)>MAX_MULTIPLE_ROUTE_ATTEMPTS) {
+				ws.particleWait = true;
 				return;
 			}
 
-			weightVector = new double[options.size()];
+			ws.ensureDecisionCapacity(numOptions);
+			weightVector = ws.decisionWeights;
 			sumWeightVector = 0.0;
-			indexVector = new int[options.size()];
+			indexVector = ws.decisionIndices;
 
-			currentQ = new float[options.size()]; // VKS: Array initialization
-			cFlag = new int[options.size()];
-			cQFlag = new int[options.size()];
-			currentWBNum = new int[options.size()];
+			currentQ = ws.decisionFlows; // VKS: Array initialization
+			currentWBNum = ws.decisionWbNums;
+			Arrays.fill(weightVector, 0, numOptions, 0.0);
+			Arrays.fill(indexVector, 0, numOptions, 0);
 
 			switch (nodeDecision) {
 
 			// Outflow-based decision
 			case 0:
-				for (int i = 0; i < options.size(); i++) {
-					weightVector[i] = nd.getFilterOp(options.get(i)) * nd.getOutflow(options.get(i), tmLeft);
+				for (int i = 0; i < numOptions; i++) {
+					weightVector[i] = nd.getFilterOp(options[i]) * nd.getOutflow(options[i], ws.tmLeft);
 					sumWeightVector += weightVector[i];
-					indexVector[i] = options.get(i);
+					indexVector[i] = options[i];
 				}
 				break;
 
@@ -525,286 +431,54 @@ public class BehavedParticle extends Particle {
 			case 4:
 				// First get flow in current water body at the node connected to the junction
 				for (int i = 0; i < numOptions; i++) {
-					tempWB = nd.getWaterbody(options.get(i));
+					tempWB = nd.getWaterbody(options[i]);
 					currentWBNum[i] = tempWB.getEnvIndex();
-					// Current waterbody in list
-					// Details for all the waterbodies
-					if (tempWB instanceof SmartChannel) {
-						if (((SmartChannel) tempWB).getUpNodeId() == nd.getEnvIndex())
-							cFlag[i] = -1;
-						else
-							cFlag[i] = 1;
-					} else // For reservoirs
-						cFlag[i] = 1;
-
-					currentQ[i] = nd.getSignedOutflow(options.get(i), tmLeft);
-					cQFlag[i] = (int) Math.signum(currentQ[i]);
+					currentQ[i] = nd.getSignedOutflow(options[i], ws.tmLeft);
 				}
 
-				// Assign flags based on what the flow and fish are doing relative to the orientation of the
-				// channel
+				// The channel orientation flags are part of the compiled junction trees
 				if (previousWB instanceof SmartChannel) {
 					// For channels
-					if (((SmartChannel) previousWB).getUpNodeId() == nd.getEnvIndex()) { 
-						flag = -1; // Particle is at upstream end of the channel
-					}
-
-					if (((SmartChannel) previousWB).getDownNodeId() == nd.getEnvIndex()) {
-						flag = 1; // Particle is at downstream end of the channel
-					}
 
 					// 2-channel junction
 					if (numOptions == 2) {
 
 						// If the exit channel is a gate, wait. Otherwise, choose it.
 						for (int i = 0; i < numOptions; i++) {
-							if (nd.getWaterbody(options.get(i)) == previousWB) {
+							if (nd.getWaterbody(options[i]) == previousWB) {
 								weightVector[i] = 0.0f;
-							} else if (nd.getSignedOutflow(options.get(i), tmLeft) == 0.0f) {
+							} else if (nd.getSignedOutflow(options[i], ws.tmLeft) == 0.0f) {
 								// Gate
-								particleWait = true;
+								ws.particleWait = true;
 								return;						
 							} else {
 								weightVector[i] = 1.0f;
 								choiceIndex = i;
 							}
-							indexVector[i] = options.get(i);
+							indexVector[i] = options[i];
 						}
 					} else {
 						// More than 2 channels at the junction
-						// Start from the entry channel and build the list
-						// All channels in the row containing the entry channel
-						chansCurrent = JunctionsInput.getRow(previousWB.getEnvIndex(), flag == 1 ? true : false);
-
-						prevPos = findIndex(chansCurrent, flag * previousWB.getEnvIndex());
-						// Position on this row of the entry channel
-						currPos1 = ((prevPos % 3) + 1) % 3; // Positions of the other two channels clockwise from
-						currPos2 = ((prevPos % 3) + 2) % 3; // the entry channel
-
-						// Creating an ordered matrix containing all the artificial sub-junctions
-						junctionBlowUp.add(new int[] {chansCurrent[prevPos], chansCurrent[currPos1], chansCurrent[currPos2]});
-
-						// 4-channel junction
-						if (numOptions == 4) {
-							if (Math.abs(chansCurrent[currPos1])>=1000) {
-								// Right channel is dummy
-								junctionBlowUp.add(populateJBU(junctionBlowUp.get(0)[1]));
-							} else if (Math.abs(chansCurrent[currPos2])>=1000) {
-								// Left channel is dummy
-								junctionBlowUp.add(populateJBU(junctionBlowUp.get(0)[2]));
-							} 
-						} else if (numOptions == 5) {
-							if (Math.abs(chansCurrent[currPos1])>=1000 && Math.abs(chansCurrent[currPos2])<1000) {
-								// Only right channel of first entry is dummy
-								junctionBlowUp.add(populateJBU(junctionBlowUp.get(0)[1]));
-
-								// Add next entry
-								cNum = Math.abs(junctionBlowUp.get(1)[1]);
-
-								if (cNum>=1000) {
-									// Right channel of second entry is dummy
-									junctionBlowUp.add(populateJBU(junctionBlowUp.get(1)[1]));
-								} else {
-									// Left channel of second entry is dummy
-									junctionBlowUp.add(populateJBU(junctionBlowUp.get(1)[2]));
-								}
-							} else if (Math.abs(chansCurrent[currPos1])<1000 && Math.abs(chansCurrent[currPos2])>=1000) {
-								// Only left channel of first entry is dummy
-								junctionBlowUp.add(populateJBU(junctionBlowUp.get(0)[2]));
-
-								// Add next entry
-								cNum = Math.abs(junctionBlowUp.get(1)[1]);
-
-								if (cNum>=1000) {
-									// Right channel of second entry is dummy
-									junctionBlowUp.add(populateJBU(junctionBlowUp.get(1)[1]));
-								} else {
-									// Left channel of second entry is dummy
-									junctionBlowUp.add(populateJBU(junctionBlowUp.get(1)[2]));
-								}	
-							} else {
-								// Both channels of the first entry are dummies
-								junctionBlowUp.add(populateJBU(junctionBlowUp.get(0)[1]));
-								junctionBlowUp.add(populateJBU(junctionBlowUp.get(0)[2]));
-							}	
-						} else if (numOptions==6) {
-							if (Math.abs(chansCurrent[currPos1])>=1000 && Math.abs(chansCurrent[currPos2])<1000) {
-								// Only right channel of first entry is a dummy
-								junctionBlowUp.add(populateJBU(junctionBlowUp.get(0)[1]));
-
-								if (Math.abs(junctionBlowUp.get(1)[1])>=1000 && Math.abs(junctionBlowUp.get(1)[2])<1000) {
-									// Only right channel of second entry is a dummy
-									junctionBlowUp.add(populateJBU(junctionBlowUp.get(1)[1]));
-
-									// Add next entry
-									cNum = Math.abs(junctionBlowUp.get(2)[1]);
-
-									if (cNum>=1000) {
-										// Right channel of third entry is a dummy
-										junctionBlowUp.add(populateJBU(junctionBlowUp.get(2)[1]));
-									} else {
-										// Left channel of third entry is a dummy
-										junctionBlowUp.add(populateJBU(junctionBlowUp.get(2)[2]));
-									}
-								} else if (Math.abs(junctionBlowUp.get(1)[1])<1000 && Math.abs(junctionBlowUp.get(1)[2])>=1000) {
-									// Only left channel of second entry is dummy
-									junctionBlowUp.add(populateJBU(junctionBlowUp.get(1)[2]));
-
-									// Add next entry
-									cNum = Math.abs(junctionBlowUp.get(2)[1]);
-
-									if (cNum>=1000) {
-										// Right channel of third entry is a dummy
-										junctionBlowUp.add(populateJBU(junctionBlowUp.get(2)[1]));
-									} else {
-										// Left channel of third entry is a dummy
-										junctionBlowUp.add(populateJBU(junctionBlowUp.get(2)[2]));
-									}									
-								} else if (Math.abs(junctionBlowUp.get(1)[1])>=1000 && Math.abs(junctionBlowUp.get(1)[2])>=1000) {
-									// Both channels of second entry are dummies
-									junctionBlowUp.add(populateJBU(junctionBlowUp.get(1)[1]));
-									junctionBlowUp.add(populateJBU(junctionBlowUp.get(1)[2]));
-								}
-							} else if (Math.abs(chansCurrent[currPos1])<1000 && Math.abs(chansCurrent[currPos2])>=1000) {
-								// Only left channel of first entry is a dummy
-								junctionBlowUp.add(populateJBU(junctionBlowUp.get(0)[2]));
-
-								if (Math.abs(junctionBlowUp.get(1)[1])>=1000 && Math.abs(junctionBlowUp.get(1)[2])<1000) {
-									// Only right channel of second entry is a dummy
-									junctionBlowUp.add(populateJBU(junctionBlowUp.get(1)[1]));
-
-									// Add next entry
-									cNum = Math.abs(junctionBlowUp.get(2)[1]);
-
-									if (cNum>=1000) {
-										// Right channel of third entry is a dummy
-										junctionBlowUp.add(populateJBU(junctionBlowUp.get(2)[1]));
-									} else {
-										// Left channel of third entry is a dummy
-										junctionBlowUp.add(populateJBU(junctionBlowUp.get(2)[2]));
-									}
-								} else if (Math.abs(junctionBlowUp.get(1)[1])<1000 && Math.abs(junctionBlowUp.get(1)[2])>=1000) {
-									// Only left channel of second entry is dummy
-									junctionBlowUp.add(populateJBU(junctionBlowUp.get(1)[2]));
-
-									// Add next entry
-									cNum = Math.abs(junctionBlowUp.get(2)[1]);
-
-									if (cNum>=1000) {
-										// Right channel of third entry is a dummy
-										junctionBlowUp.add(populateJBU(junctionBlowUp.get(2)[1]));
-									} else {
-										// Left channel of third entry is a dummy
-										junctionBlowUp.add(populateJBU(junctionBlowUp.get(2)[2]));
-									}									
-								} else if (Math.abs(junctionBlowUp.get(1)[1])>=1000 && Math.abs(junctionBlowUp.get(1)[2])>=1000) {
-									// Both channels of second entry are dummies
-									junctionBlowUp.add(populateJBU(junctionBlowUp.get(1)[1]));
-									junctionBlowUp.add(populateJBU(junctionBlowUp.get(1)[2]));
-								}
-							} else if (Math.abs(chansCurrent[currPos1])>=1000 && Math.abs(chansCurrent[currPos2])>=1000) {
-								// Both channels in the first entry are dummies
-								junctionBlowUp.add(populateJBU(junctionBlowUp.get(0)[1]));
-								junctionBlowUp.add(populateJBU(junctionBlowUp.get(0)[2]));
-
-								// Add next entry
-								if (Math.abs(junctionBlowUp.get(1)[1])>=1000) {
-									// Right channel of second entry is dummy
-									junctionBlowUp.add(populateJBU(junctionBlowUp.get(1)[1]));
-								} else if (Math.abs(junctionBlowUp.get(1)[2])>=1000) {
-									// Left channel of second entry is dummy
-									junctionBlowUp.add(populateJBU(junctionBlowUp.get(1)[2]));
-								}
-
-								// Add next entry
-								if (Math.abs(junctionBlowUp.get(2)[1])>=1000) {
-									// Right channel of second entry is dummy
-									junctionBlowUp.add(populateJBU(junctionBlowUp.get(2)[1]));
-								} else if (Math.abs(junctionBlowUp.get(2)[2])>=1000) {
-									// Left channel of second entry is dummy
-									junctionBlowUp.add(populateJBU(junctionBlowUp.get(2)[2]));
-								}
-							}
-
-						} else if (numOptions>6){
-							System.out.println("Error: junctions should have six or fewer valid exits. numOptions = " + numOptions);
+						// Walk the junction tree compiled for this node and entry channel
+						junctionTree = JunctionTree.get(nd.getEnvIndex(), findIndex(currentWBNum, numOptions, previousWB.getEnvIndex()));
+						if (junctionTree == null) {
+							System.out.println("Error: no junction decision tree for channel " + previousWB.getEnvIndex() + " at node " + nd.getEnvIndex());
+							System.exit(1);
 						}
-
-						// Constructing the junction tree
-						DecisionTree dT = new DecisionTree(this.getId());
-
-						for (int i=0; i < junctionBlowUp.size(); i++) {
-
-							if (i == 0) {
-								// Root
-								ind = findIndex(currentWBNum, Math.abs(junctionBlowUp.get(i)[0]));
-								dT.add(0, currentWBNum[ind], 0, cFlag[ind], currentQ[ind]);
-
-								// Right node
-								cc = Math.abs(junctionBlowUp.get(i)[1]);
-								cf = (int) Math.signum(junctionBlowUp.get(i)[1]);
-
-								if (cc > 1000) {
-									dT.add(currentWBNum[ind], cc, 1, cf, -999999999.9f);
-								} else {
-									ind1 = findIndex(currentWBNum, Math.abs(junctionBlowUp.get(i)[1]));
-									dT.add(currentWBNum[ind], currentWBNum[ind1], 1, cFlag[ind1], currentQ[ind1]);
-								}
-
-								// Left node
-								cc = Math.abs(junctionBlowUp.get(i)[2]);
-								cf = (int) Math.signum(junctionBlowUp.get(i)[2]);
-
-								if (cc > 1000) {
-									dT.add(currentWBNum[ind], cc, 2, cf, -999999999.9f);
-								} else {
-									ind1 = findIndex(currentWBNum, Math.abs(junctionBlowUp.get(i)[2]));
-									dT.add(currentWBNum[ind], currentWBNum[ind1], 2, cFlag[ind1], currentQ[ind1]);
-								}
-							} else {
-								// Subsequent nodes
-								tempWBnum = Math.abs(junctionBlowUp.get(i)[0]);
-
-								// Right node
-								cc = Math.abs(junctionBlowUp.get(i)[1]);
-								cf = (int) Math.signum(junctionBlowUp.get(i)[1]);
-
-								if (cc > 1000) {
-									dT.add(tempWBnum, cc, 1, cf, -999999999.9f);
-								} else {
-									ind1 = findIndex(currentWBNum, Math.abs(junctionBlowUp.get(i)[1]));
-									dT.add(tempWBnum, currentWBNum[ind1], 1, cFlag[ind1], currentQ[ind1]);
-								}
-
-								// Left node
-								cc = Math.abs(junctionBlowUp.get(i)[2]);
-								cf = (int) Math.signum(junctionBlowUp.get(i)[2]);
-
-								if (cc > 1000) {
-									dT.add(tempWBnum, cc, 2, cf, -999999999.9f);
-								} else {
-									ind1 = findIndex(currentWBNum, Math.abs(junctionBlowUp.get(i)[2]));
-									dT.add(tempWBnum, currentWBNum[ind1], 2, cFlag[ind1], currentQ[ind1]);
-								}
-							}
+						if (ws.junctionFlows.length < junctionTree.getSize()) {
+							ws.junctionFlows = new float[JunctionTree.getMaxTreeSize()];
 						}
 
-						// Assigning flows
-						scratch = dT.recursivelySumFlows(dT.root);
-
 						// Moving the particle through the tree
-						yND = 0.5f + y / channelWidth; // Dimensionless lateral position
-						zND = z / channelDepth;
-						currWB = dT.pushIntoChannel(yND, optionsTried);
-
-						// Destroying the tree
-						dT.delete();
+						yND = 0.5f + store.y[slot] / store.channelWidth[slot]; // Dimensionless lateral position
+						currWB = junctionTree.pushIntoChannel(currentQ, ws.junctionFlows, yND, bStore.getOptionsTried(slot),
+								bStore.getNumOptionsTried(slot), ws.random);
 
 						// Hook into subsequent methods to move the particle along
 						for (int i = 0; i < numOptions; i++) {
-							weightVector[i] = nd.getFilterOp(options.get(i)) * nd.getOutflow(options.get(i), tmLeft);
+							weightVector[i] = nd.getFilterOp(options[i]) * nd.getOutflow(options[i], ws.tmLeft);
 							if (currentWBNum[i] == currWB) {
-								if (Math.abs(nd.getFilterOp(options.get(i))) == 0.0f)	//If there is a filter in place
+								if (Math.abs(nd.getFilterOp(options[i])) == 0.0f)	//If there is a filter in place
 								{
 									weightVector[i] = 1.0f;
 									for (int j = 0; j < numOptions; j++) {
@@ -814,12 +488,12 @@ public class BehavedParticle extends Particle {
 									break;
 								}
 							}
-							indexVector[i] = options.get(i);							
+							indexVector[i] = options[i];							
 						}
 
 						//VKS: Make the entry water body decision here itself to simplify the downstream workflow
 						sumWeightVector = 0.0;
-						for (int i=0; i<weightVector.length; i++) {
+						for (int i=0; i<numOptions; i++) {
 							sumWeightVector+=weightVector[i];
 						}
 
@@ -827,30 +501,30 @@ public class BehavedParticle extends Particle {
 						if (sumWeightVector > 0) {
 
 							// Normalize the weight vector
-							for (int i = 0; i < weightVector.length; i++) {
+							for (int i = 0; i < numOptions; i++) {
 								weightVector[i] /= sumWeightVector;
 							}
 
 							// Make the choice and remove it from the list of possible future choices for this node
-							choiceIndex = weightedChoice(weightVector);
+							choiceIndex = weightedChoice(weightVector, numOptions);
 						}						
 					}
 				} else { 
 					// For reservoirs, just randomize the position but with a time delay
 					for (int i = 0; i < numOptions; i++) {
-						if (nd.getWaterbody(options.get(i)) == previousWB) {
+						if (nd.getWaterbody(options[i]) == previousWB) {
 							weightVector[i] = 0.0f;
-						} else if (nd.getSignedOutflow(options.get(i), tmLeft) == 0.0f) {
+						} else if (nd.getSignedOutflow(options[i], ws.tmLeft) == 0.0f) {
 							weightVector[i] = 0.0f;							
 						} else {
-							weightVector[i] = nd.getFilterOp(options.get(i)) * nd.getOutflow(options.get(i), tmLeft);
+							weightVector[i] = nd.getFilterOp(options[i]) * nd.getOutflow(options[i], ws.tmLeft);
 						}
-						indexVector[i] = options.get(i);
+						indexVector[i] = options[i];
 					}
 
 					//VKS: Make the entry water body decision here itself to simplify the downstream workflow
 					sumWeightVector = 0.0;
-					for (int i=0; i<weightVector.length; i++) {
+					for (int i=0; i<numOptions; i++) {
 						sumWeightVector+=weightVector[i];
 					}
 
@@ -858,12 +532,12 @@ public class BehavedParticle extends Particle {
 					if (sumWeightVector > 0) {
 
 						// Normalize the weight vector
-						for (int i = 0; i < weightVector.length; i++) {
+						for (int i = 0; i < numOptions; i++) {
 							weightVector[i] /= sumWeightVector;
 						}
 
 						// Make the choice and remove it from the list of possible future choices for this node
-						choiceIndex = weightedChoice(weightVector);
+						choiceIndex = weightedChoice(weightVector, numOptions);
 					}
 				}
 				break;
@@ -877,7 +551,7 @@ public class BehavedParticle extends Particle {
 
 			case 0:
 				sumWeightVector = 0.0;
-				for (int i=0; i<weightVector.length; i++) {
+				for (int i=0; i<numOptions; i++) {
 					sumWeightVector+=weightVector[i];
 				}
 
@@ -885,12 +559,12 @@ public class BehavedParticle extends Particle {
 				if (sumWeightVector > 0) {
 
 					// Normalize the weight vector
-					for (int i = 0; i < weightVector.length; i++) {
+					for (int i = 0; i < numOptions; i++) {
 						weightVector[i] /= sumWeightVector;
 					}
 
 					// Make the choice and remove it from the list of possible future choices for this node
-					choiceIndex = weightedChoice(weightVector);
+					choiceIndex = weightedChoice(weightVector, numOptions);
 					madeDecision = true;
 				}	
 
@@ -900,11 +574,12 @@ public class BehavedParticle extends Particle {
 
 
 		} while (!madeDecision);
+		bStore.setFlag(slot, BehavedParticleStore.MADE_DECISION, true);
 
 		// Get a pointer to the water body that the particle entered
-		wb = nd.getWaterbody(indexVector[choiceIndex]);
+		store.setWaterbody(slot, nd.getWaterbody(indexVector[choiceIndex]));
 
-		optionsTried.add(wb.getEnvIndex());
+		bStore.addOptionTried(slot, store.wbIndex[slot]);
 
 		// Update parameters, etc., when entering a new channel
 		enterChannel();
@@ -913,40 +588,23 @@ public class BehavedParticle extends Particle {
 		checkCheckpoints();
 
 		// Send message to observer about change
-		if (observer != null)
-			observer.observeChange(ParticleObserver.WATERBODY_CHANGE, this);
+		if (store.observer != null)
+			store.observer.observeChange(ParticleObserver.WATERBODY_CHANGE, this);
 
 		// Set x as beginning of Channel...
-		x = getXLocationInChannel();
+		store.x[slot] = getXLocationInChannel();
 
 	}
 
-	// Create a new entry for junctionBlowUp
-	public int[] populateJBU(int jSignedNum) {
-		int[] chansCurrent;
-		int[] newRow = new int[3];
-		int currPos1, currPos2, cNum, ind, cF;
-
-		cNum = Math.abs(jSignedNum);
-		cF = -(int) Math.signum(jSignedNum);
-		chansCurrent = JunctionsInput.getRow(cNum, cF == 1 ? true : false);
-		ind = findIndex(chansCurrent, cNum*cF);
-		currPos1 = ((ind % 3) + 1) % 3;
-		currPos2 = ((ind % 3) + 2) % 3;
-
-		newRow[0] = chansCurrent[ind];
-		newRow[1] = chansCurrent[currPos1];
-		newRow[2] = chansCurrent[currPos2];
-		return(newRow);
-	}
-
 	public float getFlowVelocity() { // VKS: To get the instantaneous water velocity at the location of the particle
 
 		float flowVelocity;
+		Waterbody wb = getCurrentWaterbody();
+		float x = store.x[slot], y = store.y[slot], z = store.z[slot];
 
 		if (wb instanceof SmartChannel) {
 			// Getting the curvature and bend direction
-			flowVelocity = ((SmartChannel) wb).getVel(x, y, z, channelVave, channelWidth, channelDepth);
+			flowVelocity = ((SmartChannel) wb).getVel(x, y, z, store.channelVave[slot], store.channelWidth[slot], store.channelDepth[slot]);
 		} else
 			flowVelocity = 0.0f;
 
@@ -959,47 +617,45 @@ public class BehavedParticle extends Particle {
 
 	public void checkCheckpoints() {
 		int checkpointIndex;
+		Waterbody wb = getCurrentWaterbody();
+		Waterbody previousWB = ws.previousWB;
+		int ndIndex = store.nodeIndex[slot];
 
 		// Check to see if the particle has reached Chipps Island yet
 		if (previousWB != null) {
 			if (wb instanceof Channel && ((wb.getEnvIndex() == 422 || wb.getEnvIndex() == 417)
 					&& (previousWB.getEnvIndex() == 275 || previousWB.getEnvIndex() == 281 || previousWB.getEnvIndex() == 278))) {
-				ChippsPassCount++;
-				recordCheckpoint(this, "Chipps", ChippsPassCount);
+				recordCheckpoint(this, "Chipps", ++bStore.ChippsPassCount[slot]);
 
 				// Write the realized survival to the output file
-				writer.writeDouble("realizedSurvProb/" + this.getId(), realizedSurvProb);
+				recordRealizedSurvProb(this);
 			}
 		}
 
 		// Check to see if the particle has exited the system
-		if (nd.getEnvIndex() == 412) {
-			ExitPassCount++;
-			recordCheckpoint(this, "Exit", ExitPassCount);
+		if (ndIndex == 412) {
+			recordCheckpoint(this, "Exit", ++bStore.ExitPassCount[slot]);
 		}
 
 		// Check to see if the particle was exported via SWP
 		if (wb instanceof Reservoir) {
 			if (((Reservoir) wb).getName().equals("clifton_court")) {
-				SWPpassCount++;
-				recordCheckpoint(this, "SWP", SWPpassCount);
-				isDead = true;
+				recordCheckpoint(this, "SWP", ++bStore.SWPpassCount[slot]);
+				setDead();
 				recordDeath(this);
 			}
 		}
 
 		if (wb.getEnvIndex() == 204) {
-			CVPpassCount++;
-			recordCheckpoint(this, "CVP", CVPpassCount);
-			isDead = true;
+			recordCheckpoint(this, "CVP", ++bStore.CVPpassCount[slot]);
+			setDead();
 			recordDeath(this);
 		}
 
 		// Check to see if the particle passed one of the other checkpoints
-		checkpointIndex = Arrays.binarySearch(checkpoints, nd.getEnvIndex());
+		checkpointIndex = Arrays.binarySearch(checkpoints, ndIndex);
 		if (checkpointIndex >= 0) {
-			checkpointsPassCount[checkpointIndex]++;
-			recordCheckpoint(this, Integer.toString(nd.getEnvIndex()), checkpointsPassCount[checkpointIndex]);
+			recordCheckpoint(this, Integer.toString(ndIndex), bStore.incrementCheckpointPassCount(slot, checkpointIndex));
 		}
 	}
 
@@ -1010,7 +666,7 @@ public class BehavedParticle extends Particle {
 		if(sgnFlow==0) {sgnFlow=1.0f;}
 
 		// VKS: Check to see if memory persists; only update orientFactor if not persisting.
-		boolean persist = generator.nextDouble() < (double) pPersistence;
+		boolean persist = ws.random.nextDouble() < (double) channelTable.pPersistence[bStore.channel[slot]];
 		if (!persist) {
 
 			// VKS: Fish becomes oriented with the flow with probability=probOrient
@@ -1018,39 +674,39 @@ public class BehavedParticle extends Particle {
 			//VKS: update at each timestep
 			updateProbOrient();
 
-			if (generator.nextDouble() < probOrient) {
-				orientFactor = sgnFlow*channelDir;
+			if (ws.random.nextDouble() < bStore.probOrient[slot]) {
+				bStore.orientFactor[slot] = sgnFlow*bStore.channelDir[slot];
 			} else {
-				orientFactor = -sgnFlow*channelDir;
+				bStore.orientFactor[slot] = -sgnFlow*bStore.channelDir[slot];
 			}
 		}
 	}
 
 	// Update parameters, etc., when a fish enters a new channel
 	public void enterChannel() {
+		Waterbody wb = getCurrentWaterbody();
 
 		if (wb instanceof SmartChannel) {
-			meanMigrationRate = channelMeanMigrationRate.get(wb.getEnvIndex()).floatValue();
-			stdMigrationRate = channelStdMigrationRate.get(wb.getEnvIndex()).floatValue();
-			holdThr = channelHoldThr.get(wb.getEnvIndex()).floatValue();
-			constProbOrient = channelConstProbOrient.get(wb.getEnvIndex()).floatValue();
-			slopeProbOrient = channelSlopeProbOrient.get(wb.getEnvIndex()).floatValue();
-			pPersistence = channelPPersistence.get(wb.getEnvIndex()).floatValue(); // VKS: Update value
-			daytimeSwimProb = channelDaytimeSwimProb.get(wb.getEnvIndex()).floatValue();
-			pSystem = channelPSystem.get(wb.getEnvIndex()).floatValue(); // VKS: Update value
-			holdProb = channelHoldProb.get(wb.getEnvIndex()).floatValue();
-
-			channelDir = (float) RiverBendsInput.getChannelOrientBend(wb.getEnvIndex(), "OceanOrient");
+			int wbNum = wb.getEnvIndex();
+			if (!channelTable.isListed(wbNum)) {
+				System.out.println("Could not find the behavior parameters for channel " + wbNum);
+				System.exit(-1);
+			}
+			// The channel-specific parameters are read from channelTable at this index
+			bStore.channel[slot] = wbNum;
+
+			bStore.channelDir[slot] = channelTable.getChannelDir(wbNum);
 		} else {
-			channelDir = 1.0f;
+			bStore.channelDir[slot] = 1.0f;
 		}
-		enteredChannel = true;
+		bStore.setFlag(slot, BehavedParticleStore.ENTERED_CHANNEL, true);
 	}
 
 	// Update the probability of orientation based on the dimensionless instantaneous velocity of the current channel
 	public void updateProbOrient() {
 		double lnVel, term;
 		float flowVelocity;
+		Waterbody wb = getCurrentWaterbody();
 
 		int julianMin = Globals.currentModelTime; // <--- VKS: Get the current model time
 		int startTime = Globals.Environment.getStartTime();
@@ -1060,7 +716,7 @@ public class BehavedParticle extends Particle {
 			// Need a different rule for the first time a particle is released because we don't have its flow info yet
 			// System.out.println("A");
 			if (wb instanceof SmartChannel) { // System.out.println("Yes");
-				probOrient = initProbOrient; // <--- We begin with fully confused particles
+				bStore.probOrient[slot] = initProbOrient; // <--- We begin with fully confused particles
 			}
 		} else {
 			if (wb instanceof SmartChannel) { // <---The first timestep must be different: subsequent timesteps can have this routine: [Seek DJ's
@@ -1070,8 +726,8 @@ public class BehavedParticle extends Particle {
 				// VKS: New method based on absolute value of local velocity divided by grand mean velocity in the Delta between 1962 and 2016
 				lnVel = Math.log((double) (Math.abs((double) (flowVelocity / 0.957f + 0.000001f))));
 				// Note: slopeProbOrient should be positive.
-				term = Math.exp(constProbOrient + slopeProbOrient * lnVel);
-				probOrient = minProbOrient + (pSystem - minProbOrient) * term / (1 + term + 0.000001f);
+				term = Math.exp(channelTable.constProbOrient[bStore.channel[slot]] + channelTable.slopeProbOrient[bStore.channel[slot]] * lnVel);
+				bStore.probOrient[slot] = minProbOrient + (channelTable.pSystem[bStore.channel[slot]] - minProbOrient) * term / (1 + term + 0.000001f);
 			}
 		}
 	}
@@ -1085,17 +741,19 @@ public class BehavedParticle extends Particle {
 	}
 
 	@Override
-	// Override updatePosition to implement BehavedParticle actions that occur every 15 minutes
-	public void updatePosition(float delT) {
+	// Override stepPosition to implement BehavedParticle actions that occur every 15 minutes
+	protected void stepPosition(float delT) {
 		float logEpsMigrationRate; // VKS: Variables required in the estimation of log-normal draws of velocity
 		float truncPoint;
 		float M, S2;
 		double A, B;
+		float meanMigrationRate = channelTable.meanMigrationRate[bStore.channel[slot]];
+		float stdMigrationRate = channelTable.stdMigrationRate[bStore.channel[slot]];
 
 		// Update probOrient whenever a new SmartChannel is entered
-		if (madeDecision) {
+		if (bStore.isSet(slot, BehavedParticleStore.MADE_DECISION)) {
 			// VKS: Set with flow direction for one timestep after new channel entry
-			probOrient = 1.0f;
+			bStore.probOrient[slot] = 1.0f;
 		}
 		checkOrientation();
 
@@ -1121,23 +779,19 @@ public class BehavedParticle extends Particle {
 			// At this truncation value, the untruncated and truncated distributions differ only by 5%
 			// (see attached figure)
 			truncPoint = Math.max((float) ((double) (M + (1.64048f * Math.sqrt((double) S2)) + 0.000001)), 2.7f);
-			logEpsMigrationRate = (float) (generator.nextGaussian() * Math.sqrt((double) S2) + M);
-
-			while (logEpsMigrationRate > truncPoint) {
-				// Empirically truncate
-				logEpsMigrationRate = (float) (generator.nextGaussian() * Math.sqrt((double) S2) + M);
-			}
+			// Draw from the normal truncated at truncPoint directly rather than redrawing until below it
+			logEpsMigrationRate = (float) (ws.random.truncatedGaussian((truncPoint - M) / Math.sqrt((double) S2))
+					* Math.sqrt((double) S2) + M);
 
-			migrationRate = (float) (Math.exp((double) logEpsMigrationRate)); // VKS: Convert epsMigrationRate
-			//System.out.println("A," + A + ",B," + B + ",M," + M + ",S2," + S2 + 
+			bStore.migrationRate[slot] = (float) (Math.exp((double) logEpsMigrationRate)); // VKS: Convert epsMigrationRate
+			//System.out.println("A," + A + ",B," + B + ",M," + M + ",S2," + S2 +
 			//		", meanMigrationRate" + meanMigrationRate + ", stdMigrationRate," + stdMigrationRate + ", truncPoint," + truncPoint);
 			//System.out.println("mean,"+meanMigrationRate+",std,"+stdMigrationRate+",LogEps,"+logEpsMigrationRate+",Eps,"+epsMigrationRate);
 		}
 
-		// Clear the memory of time spent and movement in the previous time step
-		movementTimeDistance.clear();
+		// The memory of time spent and movement in the previous time step was cleared when the workspace was bound
 
-		super.updatePosition(delT);
+		super.stepPosition(delT);
 
 		// Write testing output
 		if (testOutType==1 || testOutType==2) {
@@ -1152,28 +806,23 @@ public class BehavedParticle extends Particle {
 		double survivalProb = 1.0;
 		int channelNum;
 		double time, distance;
-		double[] timeDistance;
+		double lambda = 0.0, omega = 0.0;
 
-		// Loop through all of the movementTimeDistance entries
-		for (Map.Entry<Integer, double[]> entry : movementTimeDistance.entrySet()) {
+		// Loop through all of the movements recorded in the workspace during this time step
+		for (int i = 0; i < ws.numberOfMovements; i++) {
 
-			channelNum = entry.getKey();
-			if (channelLambda.containsKey(channelNum)) {
-				lambda = channelLambda.get(channelNum);
+			channelNum = ws.movementWaterbody[i];
+			if (channelTable.isListed(channelNum)) {
+				lambda = channelTable.lambda[channelNum];
+				omega = channelTable.omega[channelNum];
 			} else {
 				System.out.println("Could not find lambda for channel " + Integer.toString(channelNum));
-			}
-
-			if (channelOmega.containsKey(channelNum)) {
-				omega = channelOmega.get(channelNum);
-			} else {
 				System.out.println("Could not find omega for channel " + Integer.toString(channelNum));
 			}
 
 			// Retrieve the amount of time and distance traveled in this channel
-			timeDistance = entry.getValue();
-			time = timeDistance[0];
-			distance = timeDistance[1];
+			time = ws.movementTime[i];
+			distance = ws.movementDistance[i];
 
 			// From Anderson, J. J., Gurarie, E., & Zabel, R. W. (2005). Mean free-path length theory of
 			// predatorñprey interactions: Application to juvenile salmon migration. Ecological Modelling,
@@ -1183,11 +832,11 @@ public class BehavedParticle extends Particle {
 
 		}
 
-		realizedSurvProb *= survivalProb;
+		bStore.realizedSurvProb[slot] *= survivalProb;
 
 		// Particle dies with P(1-survivalProb)
-		if (generator.nextDouble() > survivalProb && immortal == 0) {
-			isDead = true;
+		if (ws.random.nextDouble() > survivalProb && immortal == 0) {
+			setDead();
 			//			observer.observeChange(ParticleObserver.DEATH,this);
 			recordDeath(this);
 		}
@@ -1200,15 +849,15 @@ public class BehavedParticle extends Particle {
 		Node nd;
 
 		// Detect first entry into reservoir
-		if (!inReservoir) {
-			inReservoir = true;
-			reservoirID = wb.getEnvIndex();
-			reservoirResTime = 0.0f;
+		if (!bStore.isSet(slot, BehavedParticleStore.IN_RESERVOIR)) {
+			bStore.setFlag(slot, BehavedParticleStore.IN_RESERVOIR, true);
+			bStore.reservoirID[slot] = store.wbIndex[slot];
+			bStore.reservoirResTime[slot] = 0.0f;
 
 		}
 
 		// Add this time step to the cumulative reservoir residence time
-		reservoirResTime+=timeStep;
+		bStore.reservoirResTime[slot]+=timeStep;
 
 		// Call Particle.makeReservoirDecision()
 		nd = super.makeReservoirDecision(timeStep);
@@ -1216,8 +865,8 @@ public class BehavedParticle extends Particle {
 		// Detect exit from reservoir and reset in preparation for next reservoir
 		if (nd != null) {
 			writeTestOut(this);
-			inReservoir = false;
-			reservoirResTime = 0.0f;
+			bStore.setFlag(slot, BehavedParticleStore.IN_RESERVOIR, false);
+			bStore.reservoirResTime[slot] = 0.0f;
 		}
 
 		return nd;
@@ -1244,55 +893,71 @@ public class BehavedParticle extends Particle {
 			System.out.println("Could not create the testing output file.");
 			System.exit(1);
 		}
+
+		// Each record is a format followed by its arguments
+		testOutput = new AsyncOutput<Object[]>("testing", AsyncOutput.DEFAULT_CAPACITY, new AsyncOutput.Sink<Object[]>() {
+			@Override
+			public void write(Object[] line) throws IOException {
+				testWriter.write(String.format((String) line[0], Arrays.copyOfRange(line, 1, line.length)));
+				testWriter.newLine();
+			}
+
+			@Override
+			public void flush() throws IOException {
+				testWriter.flush();
+			}
+
+			@Override
+			public void close() throws IOException {
+				testWriter.close();
+			}
+		});
 	}
 
-	public static void writeTestOut(BehavedParticle particle) {
+	// Particles are updated concurrently, so all of the class methods that write output are synchronized on the class.
+	// The velocities are taken from the workspace of the thread updating the particle. The lines are formatted and
+	// written on the writer thread of testOutput.
+	public static synchronized void writeTestOut(BehavedParticle particle) {
 
 		String modelTime = Globals.getModelTime(Globals.currentModelTime);
+		BehavedParticleStore store = particle.bStore;
+		int slot = particle.slot;
+		ParticleWorkspace ws = particle.ws;
 
-		if (particle.isDead) {
+		if (particle.isDead()) {
 			return;
 		}
 
-		try {
-			if (testOutType==1 && particle.enteredChannel) {
-				testWriter.write(String.format("%s,%d,%g,%g,%g,%g,%g,%g,%g,%s,%d",
-						modelTime,
-						particle.getId(),
-						particle.holdThr,
-						particle.flowVelocity,
-						particle.channelDir,
-						particle.baseParticleVel,
-						particle.particleVelocity,
-						particle.baseSwimVel,
-						particle.swimVelocity,
-						Boolean.toString(MainPTM.isDaytime),
-						particle.wb.getEnvIndex()));
-				testWriter.newLine();
-			}
-			else if (testOutType==2 && particle.wb!=null) {
-				testWriter.write(String.format("%s,%d,%d,%d",
-						modelTime,
-						particle.getCurrentParticleTime(),
-						particle.getId(),
-						particle.wb.getEnvIndex()));
-				testWriter.newLine();
-			}
-			else if (testOutType==3) {
-				testWriter.write(String.format("%d,%d,%g", 
-						particle.getId(),
-						particle.reservoirID,
-						particle.reservoirResTime));
-				testWriter.newLine();
-			}
-
-		} catch (IOException e) {
-			System.out.println("Could not write to testing output file.");
-			System.exit(1);
+		if (testOutType==1 && store.isSet(slot, BehavedParticleStore.ENTERED_CHANNEL)) {
+			testOutput.publish(new Object[] {"%s,%d,%g,%g,%g,%g,%g,%g,%g,%s,%d",
+					modelTime,
+					particle.getId(),
+					channelTable.holdThr[store.channel[slot]],
+					ws.flowVelocity,
+					store.channelDir[slot],
+					ws.baseParticleVel,
+					ws.particleVelocity,
+					ws.baseSwimVel,
+					ws.swimVelocity,
+					Boolean.toString(MainPTM.isDaytime),
+					store.wbIndex[slot]});
+		}
+		else if (testOutType==2 && store.wbIndex[slot]!=ParticleStore.NONE) {
+			testOutput.publish(new Object[] {"%s,%d,%d,%d",
+					modelTime,
+					particle.getCurrentParticleTime(),
+					particle.getId(),
+					store.wbIndex[slot]});
+		}
+		else if (testOutType==3) {
+			testOutput.publish(new Object[] {"%d,%d,%g", 
+					particle.getId(),
+					store.reservoirID[slot],
+					store.reservoirResTime[slot]});
 		}
 	}
 
-	public static IHDF5SimpleWriter initializeWriter() {
+	public static IHDF5Writer initializeWriter() {
 		// Delete outputFilename if it already exists
 		File testFile = new File(outputFilename);
 		try {
@@ -1305,64 +970,46 @@ public class BehavedParticle extends Particle {
 			System.out.println("Try deleting it manually and restarting. Aborting execution");
 			System.exit(1);
 		}
-		IHDF5SimpleWriter w = HDF5Factory.open(outputFilename);
+		IHDF5Writer w = HDF5Factory.open(outputFilename);
 		System.out.println("Opened " + outputFilename + " for writing.");
 		return w;
 	}
 
-	public static void recordDeath(BehavedParticle bP) {
+	public static synchronized void recordDeath(BehavedParticle bP) {
 		int julianMin = Globals.currentModelTime;
-		String modelDate, modelTime;
+		int waterbody = bP.getCurrentWaterbody().getEnvIndex();
 
-		modelDate = Globals.getModelDate(julianMin);
-		modelTime = Globals.getModelTime(julianMin);
-
-		// Write to the HDF5 file
-		writer.writeString("died/particleNum/" + Integer.toString(bP.getId()) + "/modelDate", modelDate);
-		writer.writeInt("died/particleNum/" + Integer.toString(bP.getId()) + "/modelTime", new Integer(modelTime).intValue());
-		writer.writeInt("died/particleNum/" + Integer.toString(bP.getId()) + "/waterBody", bP.getCurrentWaterbody().getEnvIndex());
-		
-		// Write to deathArray
-		deathArray[bP.getId() - 1] = Integer.toString(bP.getId()) + "_" + 
-									 bP.getCurrentWaterbody().getEnvIndex() + "_" +
-									 modelDate + "_" + 
-									 modelTime;
+		events.add(BehaviorEventTable.DIED, bP.getId(), -1, julianMin, waterbody, 0);
 
+		deathTime[bP.getId() - 1] = julianMin;
+		deathWaterbody[bP.getId() - 1] = waterbody;
 	}
 
-	public static void recordCheckpoint(BehavedParticle bP, String checkpoint, int passCount) {
+	public static synchronized void recordCheckpoint(BehavedParticle bP, String checkpoint, int passCount) {
 		int julianMin = Globals.currentModelTime;
-		String modelDate, modelTime;
+		int checkpointId = checkpointIndices.get(checkpoint);
 
-		modelDate = Globals.getModelDate(julianMin);
-		modelTime = Globals.getModelTime(julianMin);
-
-		// Write to the HDF5 file
-		writer.writeString(checkpoint + "/particleNum/" + Integer.toString(bP.getId()) + "/modelDate_" + passCount, modelDate);
-		writer.writeInt(checkpoint + "/particleNum/" + Integer.toString(bP.getId()) + "/modelTime_" + passCount, new Integer(modelTime).intValue());
+		events.add(BehaviorEventTable.CHECKPOINT, bP.getId(), checkpointId, julianMin, bP.getCurrentWaterbody().getEnvIndex(),
+				passCount);
 
 		if (passCount == 1) {
-			recordFirstArrival(bP.getId(), checkpoint, modelDate + "_" + modelTime);
+			recordFirstArrival(bP.getId(), checkpointId, julianMin);
 		}
 	}
 
-	public static void recordInsertion(BehavedParticle bP) {
+	public static synchronized void recordInsertion(BehavedParticle bP) {
 		int julianMin = Globals.currentModelTime;
-		String modelDate, modelTime;
+		int node = bP.getRecentNode().getEnvIndex();
 
-		modelDate = Globals.getModelDate(julianMin);
-		modelTime = Globals.getModelTime(julianMin);
+		events.add(BehaviorEventTable.INSERTED, bP.getId(), -1, julianMin, node, 0);
 
-		// Write to the HDF5 file
-		writer.writeString("inserted/particleNum/" + Integer.toString(bP.getId()) + "/modelDate", modelDate);
-		writer.writeInt("inserted/particleNum/" + Integer.toString(bP.getId()) + "/modelTime", new Integer(modelTime).intValue());
-		writer.writeInt("inserted/particleNum/" + Integer.toString(bP.getId()) + "/insertionNode", bP.nd.getEnvIndex());
-		
-		// Write to insertionArray
-		insertionArray[bP.getId() - 1] = Integer.toString(bP.getId()) + "_" + 
-										 Integer.toString(bP.nd.getEnvIndex()) + "_" +
-										 modelDate + "_" + 
-										 modelTime;		
+		insertionTime[bP.getId() - 1] = julianMin;
+		insertionNode[bP.getId() - 1] = node;
+	}
+
+	public static synchronized void recordRealizedSurvProb(BehavedParticle bP) {
+		events.addValue(BehaviorEventTable.REALIZED_SURV_PROB, bP.getId(), Globals.currentModelTime,
+				bP.bStore.realizedSurvProb[bP.slot]);
 	}
 
 	// VKS: Function to perform linear search for an element in an array (adapted from:
@@ -1372,8 +1019,11 @@ public class BehavedParticle extends Particle {
 		if (arr == null) {
 			return -1;
 		}
-		// find length of array
-		int len = arr.length;
+		return findIndex(arr, arr.length, item);
+	}
+
+	// Search the first len entries of arr
+	public static int findIndex(int[] arr, int len, int item) {
 		int i = 0;
 
 		// traverse in the array
@@ -1395,10 +1045,17 @@ public class BehavedParticle extends Particle {
 		numParticles = numberOfParticles;
 		
 		// Create arrays
-		insertionArray = new String[numParticles];
-		deathArray = new String[numParticles];
-		
-		firstArrivalArray = new String[checkpoints.length + 4][numParticles];
+		insertionTime = new int[numParticles];
+		insertionNode = new int[numParticles];
+		deathTime = new int[numParticles];
+		deathWaterbody = new int[numParticles];
+		Arrays.fill(insertionTime, NA_TIME);
+		Arrays.fill(deathTime, NA_TIME);
+
+		firstArrivalTime = new int[checkpoints.length + 4][numParticles];
+		for (int[] arrivals : firstArrivalTime) {
+			Arrays.fill(arrivals, NA_TIME);
+		}
 		int lastIndex = 0;
 		for (int i = 0; i < checkpoints.length; i++) {
 			checkpointIndices.put(Integer.toString(checkpoints[i]), i);
@@ -1408,31 +1065,54 @@ public class BehavedParticle extends Particle {
 		checkpointIndices.put("CVP", lastIndex + 2);
 		checkpointIndices.put("SWP", lastIndex + 3);
 		checkpointIndices.put("Exit", lastIndex + 4);
+
+		String[] checkpointNames = new String[checkpointIndices.size()];
+		for (HashMap.Entry<String, Integer> entry : checkpointIndices.entrySet()) {
+			checkpointNames[entry.getValue()] = entry.getKey();
+		}
+		events.setCheckpointNames(checkpointNames);
 	}
 
-	// Store a first arrival datetime
-	public static void recordFirstArrival(int particleNum, String checkpoint, String datetime) {
-		firstArrivalArray[checkpointIndices.get(checkpoint)][particleNum - 1] = datetime;
+	// Store a first arrival time
+	public static synchronized void recordFirstArrival(int particleNum, int checkpointId, int julianMin) {
+		firstArrivalTime[checkpointId][particleNum - 1] = julianMin;
+	}
+
+	// Format a time as modelDate_modelTime, or NA
+	private static String formatTime(int julianMin) {
+		if (julianMin == NA_TIME) {
+			return "NA";
+		}
+		return Globals.getModelDate(julianMin) + "_" + Globals.getModelTime(julianMin);
 	}
 
 	public static void destructor() {
 		
-		// Replace null values in insertionArray and deathArray with "NA"
+		String[] insertionArray = new String[numParticles];
+		String[] deathArray = new String[numParticles];
+		String[][] firstArrivalArray = new String[checkpoints.length + 4][numParticles];
+
+		// Write the remaining events
+		events.close();
+
+		// Format the insertions and deaths as particleNum_location_modelDate_modelTime, or NA
 		for (int i=0; i<numParticles; i++) {
-			if(insertionArray[i]==null) {
+			if (insertionTime[i] == NA_TIME) {
 				insertionArray[i] = "NA";
+			} else {
+				insertionArray[i] = Integer.toString(i + 1) + "_" + insertionNode[i] + "_" + formatTime(insertionTime[i]);
 			}
-			if(deathArray[i]==null) {
+			if (deathTime[i] == NA_TIME) {
 				deathArray[i] = "NA";
+			} else {
+				deathArray[i] = Integer.toString(i + 1) + "_" + deathWaterbody[i] + "_" + formatTime(deathTime[i]);
 			}
 		}
-		
-		// Replace null values in firstArrivalArray with "NA"
+
+		// Format the first arrivals as modelDate_modelTime, or NA
 		for (int i = 0; i < (checkpoints.length + 4); i++) {
 			for (int j = 0; j < numParticles; j++) {
-				if (firstArrivalArray[i][j] == null) {
-					firstArrivalArray[i][j] = "NA";
-				}
+				firstArrivalArray[i][j] = formatTime(firstArrivalTime[i][j]);
 			}
 		}
 
@@ -1451,11 +1131,7 @@ public class BehavedParticle extends Particle {
 		System.out.println("Closed " + outputFilename);
 
 		if (testOutType>0) {
-			try {
-				testWriter.close();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
+			testOutput.close();
 		}
 	}
 
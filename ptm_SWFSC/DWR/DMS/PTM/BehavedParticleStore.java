@@ -0,0 +1,113 @@
+package DWR.DMS.PTM;
+
+import java.util.Arrays;
+
+// Structure-of-arrays storage for the BehavedParticle state on top of the ParticleStore
+// columns: the channel whose behavior parameters are used, orientation and migration state,
+// reservoir residence and the checkpoint pass counts.
+public class BehavedParticleStore extends ParticleStore {
+
+	// Flag bits, in addition to the ParticleStore ones
+	public static final int ENTERED_CHANNEL = 8;
+	public static final int MADE_DECISION = 16;
+	public static final int IN_RESERVOIR = 32;
+
+	// Env index of the channel whose parameters in BehavedParticle.channelTable the particle
+	// uses; ChannelBehaviorTable.NO_CHANNEL (0) until the particle enters a channel
+	public final int[] channel;
+
+	public final float[] migrationRate, lastDecisionAttemptTime, orientFactor, channelDir;
+	public final double[] probOrient;
+
+	// Reservoir residence time variables
+	public final int[] reservoirID;
+	public final float[] reservoirResTime;
+
+	// mortality parameters
+	public final double[] realizedSurvProb;
+
+	// Checkpoint pass counts; checkpointsPassCount holds numCheckpoints entries per particle
+	public final int[] ChippsPassCount, ExitPassCount, SWPpassCount, CVPpassCount;
+	public final int numCheckpoints;
+	public final int[] checkpointsPassCount;
+
+	// Channels tried at the current node decision. The rows are only allocated for
+	// particles that reach a junction and grow as needed.
+	private final int[][] optionsTried;
+	private final int[] numOptionsTried;
+
+	// Constructor
+	public BehavedParticleStore(int capacity) {
+		super(capacity);
+
+		channel = new int[capacity];
+
+		migrationRate = new float[capacity];
+		lastDecisionAttemptTime = new float[capacity];
+		orientFactor = new float[capacity];
+		channelDir = new float[capacity];
+		probOrient = new double[capacity];
+
+		reservoirID = new int[capacity];
+		reservoirResTime = new float[capacity];
+
+		realizedSurvProb = new double[capacity];
+
+		ChippsPassCount = new int[capacity];
+		ExitPassCount = new int[capacity];
+		SWPpassCount = new int[capacity];
+		CVPpassCount = new int[capacity];
+		numCheckpoints = BehavedParticle.checkpoints.length;
+		checkpointsPassCount = new int[capacity * numCheckpoints];
+
+		optionsTried = new int[capacity][];
+		numOptionsTried = new int[capacity];
+	}
+
+	// Increment and return the pass count of checkpoint checkpointIndex
+	public final int incrementCheckpointPassCount(int slot, int checkpointIndex) {
+		return ++checkpointsPassCount[slot * numCheckpoints + checkpointIndex];
+	}
+
+	public final int[] getOptionsTried(int slot) {
+		return optionsTried[slot];
+	}
+
+	public final int getNumOptionsTried(int slot) {
+		return numOptionsTried[slot];
+	}
+
+	public final void clearOptionsTried(int slot) {
+		numOptionsTried[slot] = 0;
+	}
+
+	public final void addOptionTried(int slot, int wbIndex) {
+		int[] tried = optionsTried[slot];
+		int n = numOptionsTried[slot];
+		if (tried == null) {
+			tried = new int[4];
+			optionsTried[slot] = tried;
+		} else if (n == tried.length) {
+			tried = Arrays.copyOf(tried, 2 * n);
+			optionsTried[slot] = tried;
+		}
+		tried[n] = wbIndex;
+		numOptionsTried[slot] = n + 1;
+	}
+
+	// Number of entries in optionsTried that repeat an earlier entry
+	public final int getNumRepeatedOptions(int slot) {
+		int[] tried = optionsTried[slot];
+		int n = numOptionsTried[slot];
+		int repeats = 0;
+		for (int i = 1; i < n; i++) {
+			for (int j = 0; j < i; j++) {
+				if (tried[j] == tried[i]) {
+					repeats++;
+					break;
+				}
+			}
+		}
+		return repeats;
+	}
+}
@@ -0,0 +1,187 @@
+package DWR.DMS.PTM;
+
+import ch.systemsx.cisd.hdf5.HDF5FloatStorageFeatures;
+import ch.systemsx.cisd.hdf5.HDF5IntStorageFeatures;
+import ch.systemsx.cisd.hdf5.IHDF5Writer;
+
+// Insertion, death, checkpoint and per-particle value events of the BehavedParticles. Events are
+// buffered in columns of primitive arrays and appended BLOCK_SIZE rows at a time to chunked,
+// extendable datasets under GROUP. Before this, each event wrote its own group and scalar
+// datasets, e.g. died/particleNum/12345/modelDate.
+//
+// Columns (one row per event):
+//   particleId, eventType, checkpointId, julianMinute, waterbody, passCount    int32
+//   value                                                                      float64
+// checkpointId indexes GROUP/checkpointNames and is -1 for events other than CHECKPOINT. For
+// INSERTED the waterbody column holds the insertion node. value holds the migration rate or the
+// realized survival probability and is NaN for the other events.
+//
+// The blocks are written on a writer thread. With legacyLayout set every block is also written in
+// the old per-particle layout.
+public class BehaviorEventTable {
+
+	public static final String GROUP = "events";
+
+	// Rows buffered before they are written; also the chunk size of the datasets
+	public static final int BLOCK_SIZE = 65536;
+
+	// Event types
+	public static final int INSERTED = 0, DIED = 1, CHECKPOINT = 2, MIGRATION_RATE = 3, REALIZED_SURV_PROB = 4;
+
+	// Integer columns in the order they are stored in intColumns
+	private static final int PARTICLE_ID = 0, EVENT_TYPE = 1, CHECKPOINT_ID = 2, JULIAN_MINUTE = 3, WATERBODY = 4,
+			PASS_COUNT = 5, NUMBER_OF_INT_COLUMNS = 6;
+	private static final String[] INT_COLUMN_NAMES = { "particleId", "eventType", "checkpointId", "julianMinute", "waterbody",
+			"passCount" };
+	private static final String VALUE_COLUMN_NAME = "value";
+
+	private final IHDF5Writer writer;
+	private final boolean legacyLayout;
+
+	// Block being filled
+	private Block block = new Block(0);
+
+	// Blocks waiting to be written
+	private final AsyncOutput<Block> blocks;
+
+	// Checkpoint names, needed to write the old layout
+	private volatile String[] checkpointNames = new String[0];
+
+	// Constructor
+	public BehaviorEventTable(IHDF5Writer writer, boolean legacyLayout) {
+		this.writer = writer;
+		this.legacyLayout = legacyLayout;
+
+		for (int c = 0; c < NUMBER_OF_INT_COLUMNS; c++) {
+			writer.int32().createArray(GROUP + "/" + INT_COLUMN_NAMES[c], 0L, BLOCK_SIZE, HDF5IntStorageFeatures.INT_DEFLATE);
+		}
+		writer.float64().createArray(GROUP + "/" + VALUE_COLUMN_NAME, 0L, BLOCK_SIZE, HDF5FloatStorageFeatures.FLOAT_DEFLATE);
+
+		blocks = new AsyncOutput<Block>("behavior events", 4, new AsyncOutput.Sink<Block>() {
+			@Override
+			public void write(Block block) {
+				writeBlock(block);
+			}
+
+			@Override
+			public void flush() {
+			}
+
+			@Override
+			public void close() {
+				BehaviorEventTable.this.writer.writeStringArray(GROUP + "/checkpointNames", checkpointNames);
+			}
+		});
+	}
+
+	// Set the checkpoint names, indexed by checkpointId
+	public synchronized void setCheckpointNames(String[] checkpointNames) {
+		this.checkpointNames = checkpointNames;
+	}
+
+	// Add an insertion, death or checkpoint event
+	public synchronized void add(int eventType, int particleId, int checkpointId, int julianMinute, int waterbody, int passCount) {
+		add(eventType, particleId, checkpointId, julianMinute, waterbody, passCount, Double.NaN);
+	}
+
+	// Add a per-particle value event
+	public synchronized void addValue(int eventType, int particleId, int julianMinute, double eventValue) {
+		add(eventType, particleId, -1, julianMinute, -1, 0, eventValue);
+	}
+
+	// Write the buffered rows and the checkpoint names and wait for the writer to finish
+	public synchronized void close() {
+		publish();
+		blocks.close();
+	}
+
+	private void add(int eventType, int particleId, int checkpointId, int julianMinute, int waterbody, int passCount,
+			double eventValue) {
+		int[][] intColumns = block.intColumns;
+		int count = block.count;
+
+		intColumns[PARTICLE_ID][count] = particleId;
+		intColumns[EVENT_TYPE][count] = eventType;
+		intColumns[CHECKPOINT_ID][count] = checkpointId;
+		intColumns[JULIAN_MINUTE][count] = julianMinute;
+		intColumns[WATERBODY][count] = waterbody;
+		intColumns[PASS_COUNT][count] = passCount;
+		block.value[count] = eventValue;
+		block.count++;
+
+		if (block.count == BLOCK_SIZE) {
+			publish();
+		}
+	}
+
+	// Hand the block to the writer and start a new one
+	private void publish() {
+		if (block.count == 0) {
+			return;
+		}
+		blocks.publish(block);
+		block = new Block(block.offset + block.count);
+	}
+
+	// Writer thread
+	private void writeBlock(Block block) {
+		for (int c = 0; c < NUMBER_OF_INT_COLUMNS; c++) {
+			writer.int32().writeArrayBlockWithOffset(GROUP + "/" + INT_COLUMN_NAMES[c], block.intColumns[c], block.count, block.offset);
+		}
+		writer.float64().writeArrayBlockWithOffset(GROUP + "/" + VALUE_COLUMN_NAME, block.value, block.count, block.offset);
+		if (legacyLayout) {
+			writeLegacyLayout(block);
+		}
+	}
+
+	// Write the rows of a block as the old per-particle groups and scalar datasets
+	private void writeLegacyLayout(Block block) {
+		int[][] intColumns = block.intColumns;
+		double[] value = block.value;
+		String particle, modelDate;
+		int modelTime;
+
+		for (int i = 0; i < block.count; i++) {
+			particle = Integer.toString(intColumns[PARTICLE_ID][i]);
+			modelDate = Globals.getModelDate(intColumns[JULIAN_MINUTE][i]);
+			modelTime = Integer.parseInt(Globals.getModelTime(intColumns[JULIAN_MINUTE][i]));
+
+			switch (intColumns[EVENT_TYPE][i]) {
+			case INSERTED:
+				writer.writeString("inserted/particleNum/" + particle + "/modelDate", modelDate);
+				writer.writeInt("inserted/particleNum/" + particle + "/modelTime", modelTime);
+				writer.writeInt("inserted/particleNum/" + particle + "/insertionNode", intColumns[WATERBODY][i]);
+				break;
+			case DIED:
+				writer.writeString("died/particleNum/" + particle + "/modelDate", modelDate);
+				writer.writeInt("died/particleNum/" + particle + "/modelTime", modelTime);
+				writer.writeInt("died/particleNum/" + particle + "/waterBody", intColumns[WATERBODY][i]);
+				break;
+			case CHECKPOINT:
+				String checkpoint = checkpointNames[intColumns[CHECKPOINT_ID][i]];
+				int passCount = intColumns[PASS_COUNT][i];
+				writer.writeString(checkpoint + "/particleNum/" + particle + "/modelDate_" + passCount, modelDate);
+				writer.writeInt(checkpoint + "/particleNum/" + particle + "/modelTime_" + passCount, modelTime);
+				break;
+			case MIGRATION_RATE:
+				writer.writeFloat("migrationRate/particleNum/" + particle, (float) value[i]);
+				break;
+			case REALIZED_SURV_PROB:
+				writer.writeDouble("realizedSurvProb/" + particle, value[i]);
+				break;
+			}
+		}
+	}
+
+	// Rows of the table starting at row offset. A block isn't changed once it is published.
+	private static final class Block {
+		final long offset;
+		final int[][] intColumns = new int[NUMBER_OF_INT_COLUMNS][BLOCK_SIZE];
+		final double[] value = new double[BLOCK_SIZE];
+		int count = 0;
+
+		Block(long offset) {
+			this.offset = offset;
+		}
+	}
+}
@@ -18,6 +18,8 @@ C!    along with DSM2.  If not, see <http://www.gnu.org/!<licenses/>.
 </license>*/
 package DWR.DMS.PTM;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Channel is a Waterbody which has two nodes and a direction of flow between those nodes. In addition it has a length and other properties such as
  * cross-sections.
@@ -89,49 +91,33 @@ public class Channel extends Waterbody {
 	 * Gets the width of the Channel at that particular x position
 	 */
 	public final float getWidth(float xPos, float tmLeft) {
-		// Widths calculated at the flanking hydro time steps
-		float width0, width1;
-
 		float hydroInterpFac = calcHydroInterpFac(tmLeft);
 
 		float alfx = xPos / length;
 
-		width0 = (alfx * widthAt[1][0] + (1 - alfx) * widthAt[0][0]);
-		width1 = (alfx * widthAt[1][1] + (1 - alfx) * widthAt[0][1]);
-		return width0 + (width1 - width0) * hydroInterpFac;
+		return alfx * interpolate(WIDTH, DOWNNODE, hydroInterpFac) + (1 - alfx) * interpolate(WIDTH, UPNODE, hydroInterpFac);
 	}
 
 	/**
 	 * Gets the depth of the Channel at that particular x position
 	 */
 	public final float getDepth(float xPos, float tmLeft) {
-		// Depths calculated at the flanking hydro time steps
-		float depth0, depth1;
-
 		float hydroInterpFac = calcHydroInterpFac(tmLeft);
 
 		float alfx = xPos / length;
 
-		depth0 = alfx * depthAt[DOWNNODE][0] + (1 - alfx) * depthAt[UPNODE][0];
-		depth1 = alfx * depthAt[DOWNNODE][1] + (1 - alfx) * depthAt[UPNODE][1];
-
-		return depth0 + (depth1 - depth0) * hydroInterpFac;
+		return alfx * interpolate(DEPTH, DOWNNODE, hydroInterpFac) + (1 - alfx) * interpolate(DEPTH, UPNODE, hydroInterpFac);
 	}
 
 	/**
 	 * Gets the depth of the Channel at that particular x position
 	 */
 	public final float getStage(float xPos, float tmLeft) {
-		// Stages calculated at the flanking hydro time steps
-		float stage0, stage1;
-
 		float hydroInterpFac = calcHydroInterpFac(tmLeft);
 
 		float alfx = xPos / length;
 
-		stage0 = alfx * stageAt[DOWNNODE][0] + (1 - alfx) * stageAt[UPNODE][0];
-		stage1 = alfx * stageAt[DOWNNODE][1] + (1 - alfx) * stageAt[UPNODE][1];
-		return stage0 + (stage1 - stage0) * hydroInterpFac;
+		return alfx * interpolate(STAGE, DOWNNODE, hydroInterpFac) + (1 - alfx) * interpolate(STAGE, UPNODE, hydroInterpFac);
 	}
 
 	/**
@@ -176,16 +162,11 @@ public class Channel extends Waterbody {
 	 * the flow at that particular x position
 	 */
 	public final float getFlow(float xPos, float tmLeft) {
-		// Flows at the flanking hydro time steps
-		float flow0, flow1;
-
 		float hydroInterpFac = calcHydroInterpFac(tmLeft);
 
 		float alfx = xPos / length;
 
-		flow0 = alfx * flowAt[DOWNNODE][0] + (1 - alfx) * flowAt[UPNODE][0];
-		flow1 = alfx * flowAt[DOWNNODE][1] + (1 - alfx) * flowAt[UPNODE][1];
-		return flow0 + (flow1 - flow0) * hydroInterpFac;
+		return alfx * interpolate(FLOW, DOWNNODE, hydroInterpFac) + (1 - alfx) * interpolate(FLOW, UPNODE, hydroInterpFac);
 	}
 
 	/**
@@ -356,16 +337,104 @@ public class Channel extends Waterbody {
 		widthAt[DOWNNODE][timeStepIndex] = areaAt[DOWNNODE][timeStepIndex] / depthAt[DOWNNODE][timeStepIndex];
 	}
 
+	/**
+	 * Copies the hydro data of the two flanking hydro time steps into hydroState. Called after new hydro data are set.
+	 */
+	public final void updateHydroState() {
+		setHydroState(FLOW, flowAt);
+		setHydroState(DEPTH, depthAt);
+		setHydroState(WIDTH, widthAt);
+		setHydroState(STAGE, stageAt);
+	}
+
+	private final void setHydroState(int field, float[][] valueAt) {
+		for (int node = UPNODE; node <= DOWNNODE; node++) {
+			hydroState[field + 2 * node] = valueAt[node][0];
+			hydroState[field + 2 * node + 1] = valueAt[node][1] - valueAt[node][0];
+		}
+	}
+
+	/**
+	 * Value of a hydro field at a node, interpolated between the flanking hydro time steps
+	 */
+	private final float interpolate(int field, int node, float hydroInterpFac) {
+		int i = field + 2 * node;
+
+		return hydroState[i] + hydroState[i + 1] * hydroInterpFac;
+	}
+
+	/**
+	 * Bounds of the hydro over the whole Channel during the current PTM time step: the smallest depth, the largest depth, the smallest width
+	 * and the largest absolute flow at the two nodes at the start and end (tmLeft = 0) of the step. Depth, width and flow are linear between
+	 * the nodes and in time within the step, so the bounds hold anywhere in the Channel at any time in the step.
+	 */
+	public final void getHydroBounds(float[] bounds) {
+		float timeStep = (float) (PTMtimeStep * 60.0), hydroInterpFac;
+
+		bounds[0] = Float.MAX_VALUE;
+		bounds[1] = -Float.MAX_VALUE;
+		bounds[2] = Float.MAX_VALUE;
+		bounds[3] = 0.0f;
+		for (int end = 0; end < 2; end++) {
+			hydroInterpFac = calcHydroInterpFac(end == 0 ? timeStep : 0.0f);
+			for (int node = UPNODE; node <= DOWNNODE; node++) {
+				bounds[0] = Math.min(bounds[0], interpolate(DEPTH, node, hydroInterpFac));
+				bounds[1] = Math.max(bounds[1], interpolate(DEPTH, node, hydroInterpFac));
+				bounds[2] = Math.min(bounds[2], interpolate(WIDTH, node, hydroInterpFac));
+				bounds[3] = Math.max(bounds[3], Math.abs(interpolate(FLOW, node, hydroInterpFac)));
+			}
+		}
+	}
+
+	/**
+	 * Largest sub-time step of the particles in the Channel during the PTM time step it was last sized for
+	 */
+	public final float getMinTimeStep() {
+		return minTimeStep;
+	}
+
+	/**
+	 * Whether the sub-time step has been sized for the PTM time step starting at currentModelTime
+	 */
+	public final boolean isSizedFor(int currentModelTime) {
+		return sizedTime == currentModelTime;
+	}
+
+	/**
+	 * Sets the largest sub-time step for the PTM time step starting at currentModelTime. Threads that size the Channel at the same time
+	 * set the same value.
+	 */
+	public final void setMinTimeStep(float minTimeStep, int currentModelTime) {
+		this.minTimeStep = minTimeStep;
+		sizedTime = currentModelTime;
+	}
+
+	/**
+	 * Counts the PTM time step starting at currentModelTime as one in which a particle in the Channel needed more than the maximum number
+	 * of sub-time steps. Particles updated on several threads count the step once.
+	 */
+	public final void countCappedTimeStep(int currentModelTime) {
+		int last = lastCappedTime.get();
+
+		if (last != currentModelTime && lastCappedTime.compareAndSet(last, currentModelTime))
+			numberOfCappedTimeSteps.incrementAndGet();
+	}
+
+	/**
+	 * Number of PTM time steps in which the Channel needed more than the maximum number of sub-time steps
+	 */
+	public final int getNumberOfCappedTimeSteps() {
+		return numberOfCappedTimeSteps.get();
+	}
+
 	/**
 	 * Get average velocity
 	 */
 	public final float getAverageVelocity(float xPos, float tmLeft) {
-		float[] velocityAt = new float[2];
-
 		int upX = 0, downX = 1;
 		downX = getDownSectionId(xPos);
 		upX = downX - 1;
-		float v;
+		float v, velocityUp, velocityDown;
 		float alfx = xPos / length;
 
 		// Flows at the upNode and downNode
@@ -376,9 +445,9 @@ public class Channel extends Waterbody {
 		flowUpNode = flowAt[upX][0] + (flowAt[upX][1] - flowAt[upX][0]) * hydroInterpFac;
 		flowDownNode = flowAt[downX][0] + (flowAt[downX][1] - flowAt[downX][0]) * hydroInterpFac;
 
-		velocityAt[upX] = calcVelocity(flowUpNode, 0, tmLeft);
-		velocityAt[downX] = calcVelocity(flowDownNode, length, tmLeft);
-		v = alfx * velocityAt[downX] + (1 - alfx) * velocityAt[upX];
+		velocityUp = calcVelocity(flowUpNode, 0, tmLeft);
+		velocityDown = calcVelocity(flowDownNode, length, tmLeft);
+		v = alfx * velocityDown + (1 - alfx) * velocityUp;
 
 		// ? what if velocity is negative due to negative flows??
 		if (v != 0)
@@ -409,33 +478,52 @@ public class Channel extends Waterbody {
 
 		float hydroInterpFac = calcHydroInterpFac(tmLeft);
 
-		depthUpNode = depthAt[UPNODE][0] + (depthAt[UPNODE][1] - depthAt[UPNODE][0]) * hydroInterpFac;
-		depthDownNode = depthAt[DOWNNODE][0] + (depthAt[DOWNNODE][1] - depthAt[DOWNNODE][0]) * hydroInterpFac;
+		depthUpNode = interpolate(DEPTH, UPNODE, hydroInterpFac);
+		depthDownNode = interpolate(DEPTH, DOWNNODE, hydroInterpFac);
 		channelDepth[0] = alfx * depthDownNode + nalfx * depthUpNode;
 
-		widthUpNode = widthAt[UPNODE][0] + (widthAt[UPNODE][1] - widthAt[UPNODE][0]) * hydroInterpFac;
-		widthDownNode = widthAt[DOWNNODE][0] + (widthAt[DOWNNODE][1] - widthAt[DOWNNODE][0]) * hydroInterpFac;
+		widthUpNode = interpolate(WIDTH, UPNODE, hydroInterpFac);
+		widthDownNode = interpolate(WIDTH, DOWNNODE, hydroInterpFac);
 		channelWidth[0] = alfx * widthDownNode + nalfx * widthUpNode;
 
 		channelArea[0] = channelDepth[0] * channelWidth[0];
 
-		stageUpNode = stageAt[UPNODE][0] + (stageAt[UPNODE][1] - stageAt[UPNODE][0]) * hydroInterpFac;
-		stageDownNode = stageAt[DOWNNODE][0] + (stageAt[DOWNNODE][1] - stageAt[DOWNNODE][0]) * hydroInterpFac;
+		stageUpNode = interpolate(STAGE, UPNODE, hydroInterpFac);
+		stageDownNode = interpolate(STAGE, DOWNNODE, hydroInterpFac);
 		channelStage[0] = alfx * stageDownNode + nalfx * stageUpNode;
 
-		flowUpNode = flowAt[UPNODE][0] + (flowAt[UPNODE][1] - flowAt[UPNODE][0]) * hydroInterpFac;
-		flowDownNode = flowAt[DOWNNODE][0] + (flowAt[DOWNNODE][1] - flowAt[DOWNNODE][0]) * hydroInterpFac;
+		flowUpNode = interpolate(FLOW, UPNODE, hydroInterpFac);
+		flowDownNode = interpolate(FLOW, DOWNNODE, hydroInterpFac);
 
-		float Vave = (alfx * flowDownNode + nalfx * flowUpNode) / channelArea[0];
+		channelVave[0] = limitVelocity((alfx * flowDownNode + nalfx * flowUpNode) / channelArea[0]);
+	}
+
+	/**
+	 * Average velocity at xPos, as set by updateChannelParameters, without calculating the other parameters
+	 */
+	public final float getAverageVelocityAt(float xPos, float tmLeft) {
+		float alfx = xPos / this.length;
+		float nalfx = 1.0f - alfx;
+		float hydroInterpFac = calcHydroInterpFac(tmLeft);
 
+		float depth = alfx * interpolate(DEPTH, DOWNNODE, hydroInterpFac) + nalfx * interpolate(DEPTH, UPNODE, hydroInterpFac);
+		float width = alfx * interpolate(WIDTH, DOWNNODE, hydroInterpFac) + nalfx * interpolate(WIDTH, UPNODE, hydroInterpFac);
+		float flow = alfx * interpolate(FLOW, DOWNNODE, hydroInterpFac) + nalfx * interpolate(FLOW, UPNODE, hydroInterpFac);
+
+		return limitVelocity(flow / (depth * width));
+	}
+
+	/**
+	 * Keeps the magnitude of an average velocity at 0.001 or more
+	 */
+	private static final float limitVelocity(float Vave) {
 		if (Vave > -0.001 & Vave < 0.0) {
 			Vave = -0.001f;
 		}
 		if (Vave >= 0.0 & Vave < 0.001) {
 			Vave = 0.001f;
 		}
-
-		channelVave[0] = Vave;
+		return Vave;
 	}
 
 	/**
@@ -463,6 +551,10 @@ public class Channel extends Waterbody {
 	 * Array containing distance of cross sections from upstream end
 	 */
 	private float[] xSectionDistance;
+	/**
+	 * Distance of each XSection in xSArray, in ascending order; searched by getDownSectionId
+	 */
+	private float[] xSectionDistanceSorted = new float[0];
 	/**
 	 * Length of Channel
 	 */
@@ -477,6 +569,20 @@ public class Channel extends Waterbody {
 	private float[][] areaAt;
 	private float[][] depthAt;
 	private float[][] stageAt;
+	/**
+	 * Flow, depth, width and stage at the up and down nodes, each as the value at the earlier hydro time step followed by the change
+	 * to the later one. All of the particles in the Channel use these, so interpolating in time takes one multiply-add per value.
+	 */
+	private final float[] hydroState = new float[16];
+	private static final int FLOW = 0, DEPTH = 4, WIDTH = 8, STAGE = 12;
+	/**
+	 * Sub-time step sizing, set by the first Particle in the Channel in each PTM time step; sizedTime is written after minTimeStep so a
+	 * thread that sees the time sees the step size too
+	 */
+	private float minTimeStep = Float.MAX_VALUE;
+	private volatile int sizedTime = Integer.MIN_VALUE;
+	private final AtomicInteger lastCappedTime = new AtomicInteger(Integer.MIN_VALUE);
+	private final AtomicInteger numberOfCappedTimeSteps = new AtomicInteger(0);
 
 	/**
 	 * Bottom elevation of Channel or reservoir
@@ -490,29 +596,28 @@ public class Channel extends Waterbody {
 	}
 
 	/**
-	 *  
+	 * Index of the first XSection downstream of xPos; that XSection is downX and the previous one upX. Returns nXsects if xPos is past the last
+	 * XSection.
 	 */
 	private final int getDownSectionId(float xPos) {
-		// check distance vs x till distance of XSection > xPos
-		// that XSection mark it as downX and the previous one as upX
-		boolean notFound = true;
-		int sectionNumber = -1;
-
-		while ((sectionNumber < nXsects) && notFound) {
-			sectionNumber++;
-			if (Macro.APPROX_EQ(xPos, 0.0f)) {
-				sectionNumber = 1;
-				notFound = false;
-			}
-			if (Macro.APPROX_EQ(xPos, length)) {
-				sectionNumber = nXsects - 1;
-				notFound = false;
-			}
-			if (xPos < xSArray[sectionNumber].getDistance()) {
-				notFound = false;
-			}
-		} // end while
-		return (sectionNumber);
+		int lo, hi, mid;
+
+		if (Macro.APPROX_EQ(xPos, length))
+			return nXsects - 1;
+		if (Macro.APPROX_EQ(xPos, 0.0f))
+			return 1;
+
+		// first XSection with distance > xPos
+		lo = 0;
+		hi = nXsects;
+		while (lo < hi) {
+			mid = (lo + hi) >>> 1;
+			if (xPos < xSectionDistanceSorted[mid])
+				hi = mid;
+			else
+				lo = mid + 1;
+		}
+		return lo;
 	}
 
 	private final void sortXSections() {
@@ -544,5 +649,9 @@ public class Channel extends Waterbody {
 				xSArray[0] = xSPtr;
 			}
 		} // end for
+
+		xSectionDistanceSorted = new float[nXsects];
+		for (j = 0; j < nXsects; j++)
+			xSectionDistanceSorted[j] = xSArray[j].getDistance();
 	}
 }
@@ -0,0 +1,91 @@
+package DWR.DMS.PTM;
+
+import java.util.Arrays;
+
+// Channel-specific behavior parameters of the BehavedParticles, read from the channelPars matrix
+// of the behavior parameter file. Each parameter is a column indexed by the waterbody env index of
+// the channel, so a particle only has to keep the index of the channel it is in. Env index 0 is
+// not a channel; its row is all zeros and is used by particles that haven't entered a channel yet.
+//
+// channelPars columns:
+//   0: channel, 1: lambda, 2: omega, 3: meanMigrationRate, 4: holdThr, 5: constProbOrient,
+//   6: slopeProbOrient, 7: pPersistence, 8: daytimeSwimProb, 9: stdMigrationRate, 10: pSystem,
+//   11: holdProb
+public class ChannelBehaviorTable {
+
+	public static final int NO_CHANNEL = 0;
+
+	// Mortality parameters; lambda is in feet and omega in feet/sec
+	public final double[] lambda, omega;
+
+	// Parameters of the particle movement, kept in single precision as the particles use them
+	public final float[] meanMigrationRate, stdMigrationRate, holdThr, constProbOrient, slopeProbOrient;
+	public final float[] pPersistence, daytimeSwimProb, pSystem, holdProb;
+
+	// True for the channels listed in channelPars
+	private final boolean[] listed;
+
+	// OceanOrient of the channel from the ChannelOrientBend input, looked up on first entry; NaN until then
+	private final float[] channelDir;
+
+	// Constructor
+	public ChannelBehaviorTable(double[][] channelPars) {
+		int size = 1, channel;
+
+		for (int i = 0; i < channelPars.length; i++) {
+			size = Math.max(size, (int) Math.floor(channelPars[i][0]) + 1);
+		}
+
+		lambda = new double[size];
+		omega = new double[size];
+		meanMigrationRate = new float[size];
+		stdMigrationRate = new float[size];
+		holdThr = new float[size];
+		constProbOrient = new float[size];
+		slopeProbOrient = new float[size];
+		pPersistence = new float[size];
+		daytimeSwimProb = new float[size];
+		pSystem = new float[size];
+		holdProb = new float[size];
+		listed = new boolean[size];
+		channelDir = new float[size];
+		Arrays.fill(channelDir, Float.NaN);
+
+		for (int i = 0; i < channelPars.length; i++) {
+			channel = (int) Math.floor(channelPars[i][0]);
+			if (channel <= NO_CHANNEL) {
+				System.out.println("Channel " + channel + " in channelPars is not a channel");
+				System.exit(-1);
+			}
+			listed[channel] = true;
+			lambda[channel] = channelPars[i][1];
+			omega[channel] = channelPars[i][2];
+			meanMigrationRate[channel] = (float) channelPars[i][3];
+			holdThr[channel] = (float) channelPars[i][4];
+			constProbOrient[channel] = (float) channelPars[i][5];
+			slopeProbOrient[channel] = (float) channelPars[i][6];
+			pPersistence[channel] = (float) channelPars[i][7];
+			daytimeSwimProb[channel] = (float) channelPars[i][8];
+			stdMigrationRate[channel] = (float) channelPars[i][9];
+			pSystem[channel] = (float) channelPars[i][10];
+			holdProb[channel] = (float) channelPars[i][11];
+		}
+	}
+
+	// True if channelPars has parameters for the channel
+	public final boolean isListed(int channel) {
+		return channel >= 0 && channel < listed.length && listed[channel];
+	}
+
+	// OceanOrient of a listed channel. Threads that look up the same channel at the same time
+	// store the same value.
+	public final float getChannelDir(int channel) {
+		float dir = channelDir[channel];
+
+		if (Float.isNaN(dir)) {
+			dir = (float) RiverBendsInput.getChannelOrientBend(channel, "OceanOrient");
+			channelDir[channel] = dir;
+		}
+		return dir;
+	}
+}
@@ -0,0 +1,168 @@
+package DWR.DMS.PTM;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Tracks the tides in every SmartChannel to set its channelDir, the direction of the net flow over
+// the last tideCountThr tides, and its signal to noise ratio. MainPTM calls update once per hydro
+// time step. The velocity at each channel's midpoint is taken from its hydro state into velocity,
+// and the filter, tide count, integrator and running velocity statistics of each channel are kept
+// in primitive arrays indexed like channels. The channels don't depend on each other, so the pass
+// is split across the particle worker threads.
+//
+// The mean and variance of the velocities since the last direction update are kept with Welford's
+// method, so no velocity history is stored.
+public class ChannelDirectionTracker {
+
+	// Smallest range of channels worth handing to another worker
+	public static final int MIN_CHANNELS_PER_TASK = 64;
+
+	// A filter constant to avoid false detections of slack tides
+	public static final float VEL_FILTER_K = 0.1f;
+
+	// Marks a channel whose filter hasn't been started
+	private static final float NO_FILTERED_VEL = -999.0f;
+
+	private final SmartChannel[] channels;
+	private final int numberOfChannels;
+	private final ForkJoinPool pool;
+
+	// Midpoint velocity of each channel at the last update
+	private final float[] velocity;
+
+	// Velocity filter, tide count and velocity integrator
+	private final float[] previousFilteredVel, previousFilteredVelChange, velIntegrator;
+	private final int[] tideCount;
+
+	// Running count, mean and sum of squared differences from the mean of the velocities
+	private final int[] velCount;
+	private final double[] velMean, velM2;
+
+	// Constructor; pool may be null to update the channels on the calling thread
+	public ChannelDirectionTracker(PTMEnv environment, ForkJoinPool pool) {
+		SmartChannel[] found = new SmartChannel[environment.getNumberOfWaterbodies()];
+		Waterbody wb;
+		int n = 0;
+
+		for (int i = 0; i < found.length; i++) {
+			wb = environment.getWaterbody(i);
+			if (wb instanceof SmartChannel) {
+				found[n++] = (SmartChannel) wb;
+			}
+		}
+		channels = Arrays.copyOf(found, n);
+		numberOfChannels = n;
+		this.pool = pool;
+
+		velocity = new float[n];
+		previousFilteredVel = new float[n];
+		previousFilteredVelChange = new float[n];
+		velIntegrator = new float[n];
+		tideCount = new int[n];
+		velCount = new int[n];
+		velMean = new double[n];
+		velM2 = new double[n];
+		reset();
+	}
+
+	// Forget the velocity history, as if the model started now. Used at the start and when the model
+	// time skips ahead over a stretch with no particles in the system.
+	public void reset() {
+		Arrays.fill(previousFilteredVel, NO_FILTERED_VEL);
+		Arrays.fill(previousFilteredVelChange, 0.0f);
+		Arrays.fill(velIntegrator, 0.0f);
+		Arrays.fill(tideCount, 0);
+		Arrays.fill(velCount, 0);
+		Arrays.fill(velMean, 0.0);
+		Arrays.fill(velM2, 0.0);
+		for (int i = 0; i < numberOfChannels; i++) {
+			channels[i].channelDir = 1.0f;
+			// A large value so the fish don't get confused right away
+			channels[i].signalToNoise = 999;
+		}
+	}
+
+	// Take the velocities at the start of the PTM step and update every channel
+	public void update() {
+		if (pool == null || numberOfChannels <= MIN_CHANNELS_PER_TASK) {
+			updateRange(0, numberOfChannels);
+		} else {
+			pool.invoke(new UpdateRange(0, numberOfChannels));
+		}
+	}
+
+	private void updateRange(int start, int end) {
+		SmartChannel channel;
+		float vel, filteredVel, filteredVelChange;
+		double delta;
+
+		for (int i = start; i < end; i++) {
+			channel = channels[i];
+
+			// tmLeft=0.0f, since this update occurs at the beginning of the PTM step
+			vel = channel.getAverageVelocityAt(channel.getLength() * 0.5f, 0.0f);
+			velocity[i] = vel;
+
+			velCount[i]++;
+			delta = vel - velMean[i];
+			velMean[i] += delta / velCount[i];
+			velM2[i] += delta * (vel - velMean[i]);
+
+			// Initialize the previousFilteredVel
+			if (previousFilteredVel[i] == NO_FILTERED_VEL) {
+				previousFilteredVel[i] = vel;
+			}
+
+			filteredVel = VEL_FILTER_K * vel + (1 - VEL_FILTER_K) * previousFilteredVel[i];
+			filteredVelChange = filteredVel - previousFilteredVel[i];
+
+			// Detect when the velChange, which is related to the tide, crosses zero from the negative direction
+			if (filteredVelChange > 0 && previousFilteredVelChange[i] < 0) {
+				tideCount[i]++;
+			}
+
+			// If the number of tide cycles >= tideCountThr, determine the channel's flow direction
+			// and restart the integration
+			if (tideCount[i] >= SmartChannel.tideCountThr) {
+				channel.channelDir = velIntegrator[i] < 0 ? -1.0f : 1.0f;
+
+				// Signal to noise ratio, |mean|/standard deviation of the velocities
+				channel.signalToNoise = Math.abs(velMean[i]) / Math.sqrt(velM2[i] / velCount[i]);
+
+				// Reset the integrator and velocity statistics
+				velIntegrator[i] = vel;
+				tideCount[i] = 0;
+				velCount[i] = 0;
+				velMean[i] = 0.0;
+				velM2[i] = 0.0;
+			} else {
+				velIntegrator[i] += vel;
+			}
+
+			// Memory for the next time
+			previousFilteredVel[i] = filteredVel;
+			previousFilteredVelChange[i] = filteredVelChange;
+		}
+	}
+
+	private class UpdateRange extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int start, end;
+
+		UpdateRange(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start <= MIN_CHANNELS_PER_TASK) {
+				updateRange(start, end);
+			} else {
+				int mid = (start + end) >>> 1;
+				invokeAll(new UpdateRange(start, mid), new UpdateRange(mid, end));
+			}
+		}
+	}
+}
@@ -86,6 +86,13 @@ public class Filter {
 		return filterWbType;
 	}
 
+	/**
+	 * index of the Filter's operation in PTMEnv.getFilterOps()
+	 */
+	public int getFilterIndex() {
+		return filterIndex;
+	}
+
 	/**
 	 * gets the Filter Operation at the specified timestamp
 	 */
@@ -19,6 +19,8 @@
 
 package DWR.DMS.PTM;
 
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
 /**
  * This is a base class for calculation of Flux as specified from fixed input: NodeFlux, TypeFlux, GroupFlux
  * 
@@ -41,21 +43,168 @@ public class Flux {
 	}
 
 	/**
-	 * This is subtyped by subtypes to calculate Flux
+	 * Calculates the Flux of the particles in traceArray and adds it to the Flux over time
 	 */
 	public void calculateFlux(ParticleTrace[] traceArray, int numberOfTraceParticles, int sTime, int eTime, int tStep, int nParticles) {
+		if (initialized == false)
+			initialize(sTime, eTime, tStep, nParticles);
+		numberOfParticles = numberOfTraceParticles;
+		addFlux(traceArray, 0, numberOfTraceParticles, flux, circleFlux);
+	}
+
+	/**
+	 * Sets the times and zeroes the Flux over time
+	 */
+	public void initialize(int sTime, int eTime, int tStep, int nParticles) {
 		startTime = sTime;
 		endTime = eTime;
 		timeStep = tStep;
 		numberOfTimeSteps = (endTime - startTime) / timeStep;
-		numberOfParticles = numberOfTraceParticles;
+		numberOfParticles = nParticles;
 		totalNumberOfParticles = nParticles;
 		flux = new int[numberOfTimeSteps];
-		for (int i = 0; i < numberOfTimeSteps; i++)
-			flux[i] = 0;
+		circleFlux = new int[numberOfTimeSteps];
 		initialized = true;
 	}
 
+	/**
+	 * Adds the Flux of particles firstParticle to lastParticle - 1 of traceArray to flux and circleFlux. Only reads the fields of this Flux,
+	 * so several threads can call it with their own arrays.
+	 */
+	protected void addFlux(ParticleTrace[] traceArray, int firstParticle, int lastParticle, int[] flux, int[] circleFlux) {
+		int particleFlux;
+		int index;
+		// do for each particle...
+		for (int pNum = firstParticle; pNum < lastParticle; pNum++) {
+			particleFlux = 0;
+			int traceNum = 1;
+			int maxTraces = traceArray[pNum].getNumberOfTraces();
+			try {
+				for (index = 0; index < numberOfTimeSteps; index++) {
+					if (!isCumulative())
+						particleFlux = 0; // instantaneous values
+
+					while (traceNum <= maxTraces && traceArray[pNum].getTime(traceNum) == index * timeStep + startTime) {
+						Waterbody wbIn = Globals.Environment.getWaterbody(traceArray[pNum].getWaterbodyId(traceNum - 1));
+						Waterbody wbOut = Globals.Environment.getWaterbody(traceArray[pNum].getWaterbodyId(traceNum));
+						particleFlux += transferFlux(traceArray[pNum].getNodeId(traceNum), wbIn, wbOut);
+						traceNum++;
+					} // end while
+
+					flux[index] += particleFlux;
+					circleFlux[index] += getCircleFlux(particleFlux);
+				} // end for(index)
+
+			} catch (java.lang.ArrayIndexOutOfBoundsException e) {
+				System.out.println("Flux out of bounds: " + traceArray[pNum]);
+				e.printStackTrace();
+			} // end try
+		} // end for(pNum)
+	}
+
+	/**
+	 * This is subtyped by subtypes to calculate Flux. Returns the Flux of one particle moving from wbIn to wbOut through the node nodeId.
+	 */
+	protected int transferFlux(int nodeId, Waterbody wbIn, Waterbody wbOut) {
+		return 0;
+	}
+
+	/**
+	 * Returns true if the Flux of each particle adds up over time; false if it is counted separately in each time step
+	 */
+	protected boolean isCumulative() {
+		return true;
+	}
+
+	/**
+	 * Contribution of a particle with the given Flux to circleFlux
+	 */
+	protected static int getCircleFlux(int particleFlux) {
+		if (particleFlux > 0)
+			return particleFlux - 1;
+		else if (particleFlux < 0)
+			return particleFlux + 1;
+		return 0;
+	}
+
+	/**
+	 * Starts the incremental mode, in which the Flux is accumulated from the waterbody changes of the particles as they move instead of from
+	 * their traces
+	 */
+	public void startIncremental(int sTime, int eTime, int tStep, int nParticles) {
+		initialize(sTime, eTime, tStep, nParticles);
+		indexGroups(Globals.Environment);
+		currentParticleFlux = new int[nParticles];
+		particleTimeIndex = new int[nParticles];
+		fluxChange = new AtomicIntegerArray(numberOfTimeSteps);
+		circleFluxChange = new AtomicIntegerArray(numberOfTimeSteps);
+	}
+
+	/**
+	 * Works out which waterbodies are in the groups of this Flux before the particles start to report their waterbody changes
+	 */
+	protected void indexGroups(PTMEnv environment) {
+	}
+
+	/**
+	 * Adds the Flux of one waterbody change of particle pIndex (0 based) in time step index. The particles are updated concurrently, but each
+	 * particle is only moved by one thread at a time, so only the time step counters need to be atomic.
+	 */
+	public final void addTransfer(int pIndex, int index, int nodeId, Waterbody wbIn, Waterbody wbOut) {
+		int transfer = transferFlux(nodeId, wbIn, wbOut);
+		if (transfer == 0)
+			return;
+
+		if (!isCumulative() && particleTimeIndex[pIndex] != index) {
+			currentParticleFlux[pIndex] = 0; // instantaneous values
+			particleTimeIndex[pIndex] = index;
+		}
+		int previousFlux = currentParticleFlux[pIndex];
+		currentParticleFlux[pIndex] += transfer;
+		fluxChange.addAndGet(index, transfer);
+		circleFluxChange.addAndGet(index, getCircleFlux(currentParticleFlux[pIndex]) - getCircleFlux(previousFlux));
+	}
+
+	/**
+	 * Ends the incremental mode and fills up the Flux over time. A cumulative Flux carries the changes in each time step over to the later
+	 * time steps.
+	 */
+	public void finishIncremental() {
+		int totalFlux = 0, totalCircleFlux = 0;
+		for (int i = 0; i < numberOfTimeSteps; i++) {
+			if (isCumulative()) {
+				totalFlux += fluxChange.get(i);
+				totalCircleFlux += circleFluxChange.get(i);
+				flux[i] = totalFlux;
+				circleFlux[i] = totalCircleFlux;
+			} else {
+				flux[i] = fluxChange.get(i);
+				circleFlux[i] = circleFluxChange.get(i);
+			}
+		}
+		currentParticleFlux = null;
+		particleTimeIndex = null;
+		fluxChange = null;
+		circleFluxChange = null;
+	}
+
+	/**
+	 * Adds Flux calculated into separate arrays with addFlux
+	 */
+	public synchronized void mergeFlux(int[] partialFlux, int[] partialCircleFlux) {
+		for (int i = 0; i < numberOfTimeSteps; i++) {
+			flux[i] += partialFlux[i];
+			circleFlux[i] += partialCircleFlux[i];
+		}
+	}
+
+	/**
+	 * Gets the number of time steps in the Flux over time
+	 */
+	public int getNumberOfTimeSteps() {
+		return numberOfTimeSteps;
+	}
+
 	/**
 	 * Gets the Flux at the given time
 	 */
@@ -103,5 +252,17 @@ public class Flux {
 	protected int totalNumberOfParticles;
 	protected int numberOfTimeSteps;
 	protected int[] flux;
+	/**
+	 * An array of Flux over time indexed from starttime to endtime using timestep which counts only repeated contributions to Flux from the same
+	 * particle. Not used by TypeFlux.
+	 */
+	protected int[] circleFlux;
 	protected boolean initialized;
+
+	/**
+	 * Incremental mode: the current Flux of each particle (of its last time step if the Flux isn't cumulative) and the changes in Flux
+	 * and circleFlux in each time step
+	 */
+	protected int[] currentParticleFlux, particleTimeIndex;
+	protected AtomicIntegerArray fluxChange, circleFluxChange;
 }
@@ -64,6 +64,8 @@ class FluxInfo {
 	 * get number of fluxes
 	 */
 	public int getNumberOfFluxes() {
+		if (info == null)
+			return 0;
 		return info.length;
 	}
 
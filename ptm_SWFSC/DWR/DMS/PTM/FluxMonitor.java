@@ -18,6 +18,13 @@ C!    along with DSM2.  If not, see <http://www.gnu.org/!<licenses/>.
 </license>*/
 package DWR.DMS.PTM;
 
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 /**
  * This class controls the various classes for Flux output. It is responsible for reading in the trace of particles from the trace file and creating
  * the Flux calculators as defined in the fixed input system. Finally it is responsible in handling PTMFluxOutput object to write out the Flux output.
@@ -58,39 +65,113 @@ public class FluxMonitor {
 	}
 
 	/**
-	 * Calculate Flux
+	 * Calculate Flux. The trace file is read once into a trace for every particle. The particles are then split into one range per
+	 * thread, and each thread adds the Flux of its range into its own arrays, which are merged into the fluxes at the end.
 	 */
 	public final void calculateFlux() {
 
-		int startId = 0;
-		int endId = 0;
-		int[] startTime = new int[1], endTime = new int[1], timeStep = new int[1];
+		createTraceArray();
+		if (traceArray == null)
+			return;
 
-		int[] totalNumberOfParticles = new int[1];
-		totalNumberOfParticles[0] = getNumberOfParticlesFromTrace();
-		traceArray = null;
+		final int nParticles = traceArray.length;
+		final Flux[] fluxes = getFluxes();
 
-		// calculate traceArray with MAX_PARTICLES as size limit
-		for (startId = 1; endId < totalNumberOfParticles[0]; startId += MAX_PARTICLES) {
+		for (int i = 0; i < fluxes.length; i++)
+			fluxes[i].initialize(traceStartTime, traceEndTime, traceTimeStep, nParticles);
 
-			endId = Math.min(startId + MAX_PARTICLES - 1, totalNumberOfParticles[0]);
-			int nParticles = endId - startId + 1;
-			createTraceArray(startId, endId, startTime, endTime, timeStep, totalNumberOfParticles);
+		int numberOfThreads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), nParticles));
+		ExecutorService pool = Executors.newFixedThreadPool(numberOfThreads);
+		ArrayList<Callable<Object>> ranges = new ArrayList<Callable<Object>>();
+		for (int t = 0; t < numberOfThreads; t++) {
+			final int firstParticle = (int) ((long) t * nParticles / numberOfThreads);
+			final int lastParticle = (int) ((long) (t + 1) * nParticles / numberOfThreads);
+			ranges.add(new Callable<Object>() {
+				@Override
+				public Object call() {
+					for (int i = 0; i < fluxes.length; i++) {
+						if (DEBUG)
+							System.out.println("flux " + i + " particles " + firstParticle + " to " + lastParticle);
+						int[] partialFlux = new int[fluxes[i].getNumberOfTimeSteps()];
+						int[] partialCircleFlux = new int[fluxes[i].getNumberOfTimeSteps()];
+						fluxes[i].addFlux(traceArray, firstParticle, lastParticle, partialFlux, partialCircleFlux);
+						fluxes[i].mergeFlux(partialFlux, partialCircleFlux);
+					}
+					return null;
+				}
+			});
+		}
 
-			for (int i = 0; i < fluxInfoPtr.getNumberOfFluxes(); i++) {
-				fluxAtNode[i].calculateFlux(traceArray, nParticles, startTime[0], endTime[0], timeStep[0], totalNumberOfParticles[0]);
-			}
+		try {
+			for (Future<Object> range : pool.invokeAll(ranges))
+				range.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			System.out.println("Interrupted while calculating Flux");
+		} catch (ExecutionException e) {
+			e.getCause().printStackTrace();
+			System.out.println("Error calculating Flux");
+		} finally {
+			pool.shutdown();
+		}
+	}
 
-			for (int i = 0; i < groupInfoPtr.getNumberOfGroups(); i++) {
-				if (DEBUG)
-					System.out.println("group " + i + "\n");
-				if (DEBUG)
-					System.out.println(fluxOfGroup[i]);
-				fluxOfGroup[i].calculateFlux(traceArray, nParticles, startTime[0], endTime[0], timeStep[0], totalNumberOfParticles[0]);
-				if (DEBUG)
-					System.out.println("group done " + i);
-			}
+	/**
+	 * Start calculating Flux from the particle events as they happen, instead of from a trace file. The events are reported to observe().
+	 */
+	public final void startIncremental(int startTime, int endTime, int timeStep, int nParticles) {
+		traceStartTime = startTime;
+		traceEndTime = endTime;
+		traceTimeStep = timeStep;
+		traceNumberOfParticles = nParticles;
+		traceHeaderRead = true;
+
+		numberOfTimeSteps = (endTime - startTime) / timeStep;
+		lastWaterbody = new int[nParticles];
+		timeIndex = new int[nParticles];
+		incrementalFluxes = getFluxes();
+		for (int i = 0; i < incrementalFluxes.length; i++)
+			incrementalFluxes[i].startIncremental(startTime, endTime, timeStep, nParticles);
+	}
+
+	/**
+	 * Add one particle event; these are the events that would be written to the trace file. Like the calculation from the trace, a particle
+	 * is no longer counted after an event that isn't at one of the time steps of the Flux.
+	 */
+	public final void observe(int tmStamp, int particleNum, int nodeNum, int wbNum) {
+		int pIndex = particleNum - 1;
+		if (pIndex < 0 || pIndex >= timeIndex.length || timeIndex[pIndex] == STOPPED)
+			return;
+
+		int offset = tmStamp - traceStartTime;
+		int index = offset / traceTimeStep;
+		if (offset < 0 || offset % traceTimeStep != 0 || index < timeIndex[pIndex] || index >= numberOfTimeSteps) {
+			timeIndex[pIndex] = STOPPED;
+			return;
+		}
+
+		try {
+			Waterbody wbIn = Globals.Environment.getWaterbody(lastWaterbody[pIndex]);
+			Waterbody wbOut = Globals.Environment.getWaterbody(wbNum);
+			for (int i = 0; i < incrementalFluxes.length; i++)
+				incrementalFluxes[i].addTransfer(pIndex, index, nodeNum, wbIn, wbOut);
+		} catch (java.lang.ArrayIndexOutOfBoundsException e) {
+			System.out.println("Flux out of bounds: particle " + particleNum + " waterbody " + wbNum);
+			timeIndex[pIndex] = STOPPED;
+			return;
 		}
+		lastWaterbody[pIndex] = wbNum;
+		timeIndex[pIndex] = index;
+	}
+
+	/**
+	 * Finish calculating Flux from the particle events
+	 */
+	public final void finishIncremental() {
+		for (int i = 0; i < incrementalFluxes.length; i++)
+			incrementalFluxes[i].finishIncremental();
+		lastWaterbody = null;
+		timeIndex = null;
 	}
 
 	/**
@@ -110,39 +191,32 @@ public class FluxMonitor {
 	 * Get the total number of particles from trace
 	 */
 	public final int getNumberOfParticlesFromTrace() {
-		int[] startTime = new int[1], endTime = new int[1], timeStep = new int[1];
-		int[] totalNumberOfParticles = new int[1];
-
-		try {
-			PTMTraceInput traceInput = new PTMTraceInput(traceFileName, inputType, startTime, endTime, timeStep, totalNumberOfParticles);
-		} catch (java.io.FileNotFoundException e) {
-			System.out.println("Error Trace file " + traceFileName + " not found!!");
-		}
-		return totalNumberOfParticles[0];
+		readTraceHeader();
+		return traceNumberOfParticles;
 	}
 
 	/**
 	 * Get start time from trace
 	 */
 	public final int getStartTimeFromTrace() {
-		int[] startTime = new int[1], endTime = new int[1], timeStep = new int[1];
-		int[] totalNumberOfParticles = new int[1];
-
-		try {
-			PTMTraceInput traceInput = new PTMTraceInput(traceFileName, inputType, startTime, endTime, timeStep, totalNumberOfParticles);
-		} catch (java.io.FileNotFoundException e) {
-			System.out.println("Error Trace file " + traceFileName + " not found!!");
-		}
-		return startTime[0];
+		readTraceHeader();
+		return traceStartTime;
 	}
 
 	protected PTMFluxOutput fluxOut;
+	protected ParticleTrace[] traceArray;
 	/**
-	 * traceArray size limit prevent crash due to potential huge memory size usage
+	 * incremental mode: the waterbody of the last event and the time step of each particle
 	 */
-	protected final int MAX_PARTICLES = 10000; // default
-	// protected final int MAX_PARTICLES = 4; //for test usage
-	protected ParticleTrace[] traceArray;
+	protected int[] lastWaterbody, timeIndex;
+	protected int numberOfTimeSteps;
+	protected Flux[] incrementalFluxes;
+	protected static final int STOPPED = -1;
+	/**
+	 * trace file header, read once
+	 */
+	protected boolean traceHeaderRead = false;
+	protected int traceStartTime, traceEndTime, traceTimeStep, traceNumberOfParticles;
 	protected String traceFileName;
 	protected int inputType;
 	protected FluxInfo fluxInfoPtr;
@@ -151,34 +225,72 @@ public class FluxMonitor {
 	protected Flux[] fluxOfGroup;
 
 	/**
-	 * Create trace array for each particle This array contains part of the total particles i.e. nParticles out of totalNumberOfParticles
+	 * All of the node, type and group fluxes
 	 */
-	protected void createTraceArray(int sId, int eId, int[] startTime, int[] endTime, int[] timeStep, int[] totalNumberOfParticles) {
+	protected Flux[] getFluxes() {
+		Flux[] fluxes = new Flux[fluxInfoPtr.getNumberOfFluxes() + groupInfoPtr.getNumberOfGroups()];
+		for (int i = 0; i < fluxInfoPtr.getNumberOfFluxes(); i++)
+			fluxes[i] = fluxAtNode[i];
+		for (int i = 0; i < groupInfoPtr.getNumberOfGroups(); i++)
+			fluxes[fluxInfoPtr.getNumberOfFluxes() + i] = fluxOfGroup[i];
+		return fluxes;
+	}
+
+	/**
+	 * Read the start time, end time, time step and number of particles from the trace file header
+	 */
+	protected void readTraceHeader() {
+		if (traceHeaderRead)
+			return;
+		try {
+			PTMTraceInput traceInput = openTrace();
+			traceInput.close();
+		} catch (java.io.FileNotFoundException e) {
+			System.out.println("Error Trace file " + traceFileName + " not found!!");
+		} catch (java.io.IOException e) {
+			System.out.println("Error reading trace from file " + traceFileName);
+		}
+	}
+
+	/**
+	 * Open the trace file and keep its header
+	 */
+	protected PTMTraceInput openTrace() throws java.io.FileNotFoundException {
+		int[] startTime = new int[1], endTime = new int[1], timeStep = new int[1];
+		int[] totalNumberOfParticles = new int[1];
+
+		PTMTraceInput traceInput = new PTMTraceInput(traceFileName, inputType, startTime, endTime, timeStep, totalNumberOfParticles);
+		traceStartTime = startTime[0];
+		traceEndTime = endTime[0];
+		traceTimeStep = timeStep[0];
+		traceNumberOfParticles = totalNumberOfParticles[0];
+		traceHeaderRead = true;
+		return traceInput;
+	}
+
+	/**
+	 * Create trace array for each particle, reading the trace file once
+	 */
+	protected void createTraceArray() {
 
 		// should check to see if start time , end time , time step and number of
 		// particles match that from PTMEnv.
 		try {
-			PTMTraceInput traceInput;
-			traceInput = new PTMTraceInput(traceFileName, inputType, startTime, endTime, timeStep, totalNumberOfParticles);
-			int nParticles = eId - sId + 1;
+			PTMTraceInput traceInput = openTrace();
+			int nParticles = traceNumberOfParticles;
 			int[] tm = new int[1], pNum = new int[1], nd = new int[1], wb = new int[1];
 
-			// renew traceArray
-			if (traceArray != null) {
-				for (int i = 0; i < nParticles; i++)
-					traceArray[i].resetAll();
-			} else {
-				traceArray = new ParticleTrace[nParticles];
-				for (int i = 0; i < nParticles; i++)
-					traceArray[i] = new ParticleTrace();
-			}
+			traceArray = new ParticleTrace[nParticles];
+			for (int i = 0; i < nParticles; i++)
+				traceArray[i] = new ParticleTrace();
 
 			// vars transfer from trace to traceArray
 			while (tm[0] != -1) {
 				traceInput.input(tm, pNum, nd, wb);
-				if (tm[0] != -1 && (pNum[0] >= sId && pNum[0] <= eId))
-					traceArray[pNum[0] - sId].insert(wb[0], nd[0], tm[0]);
+				if (tm[0] != -1 && (pNum[0] >= 1 && pNum[0] <= nParticles))
+					traceArray[pNum[0] - 1].insert(wb[0], nd[0], tm[0]);
 			}
+			traceInput.close();
 
 		} catch (java.io.FileNotFoundException e) {
 			System.out.println("Error Trace file " + traceFileName + " not found!!");
@@ -53,19 +53,30 @@ public class Globals {
 	 * binary constant
 	 */
 	public static final int BINARY = 2;
+	/**
+	 * held for every call into the native library once the tidefile is read on a background thread; the library is not
+	 * reentrant
+	 */
+	public static final Object NATIVE_LOCK = new Object();
 
 	/**
-	 * returns current model data as a string
+	 * returns current model data as a string, ddMMMyyyy; see ModelCalendar
 	 */
-	public static native String getModelDate(int currentModelTime);
+	public static String getModelDate(int currentModelTime) {
+		return ModelCalendar.getModelDate(currentModelTime);
+	}
 
 	/**
-	 * returns current model time as string
+	 * returns current model time as string, HHmm; see ModelCalendar
 	 */
-	public static native String getModelTime(int currentModelTime);
+	public static String getModelTime(int currentModelTime) {
+		return ModelCalendar.getModelTime(currentModelTime);
+	}
 
 	/**
 	 * returns time in julian minutes since base date using strings of the model date and time in the format ddMMMyyyy, HHmm respectively
 	 */
-	public static native int getTimeInJulianMins(String modelDate, String modelTime);
+	public static int getTimeInJulianMins(String modelDate, String modelTime) {
+		return ModelCalendar.getTimeInJulianMins(modelDate, modelTime);
+	}
 }
@@ -56,4 +56,9 @@ public interface Group {
 
 	public boolean containsWaterbody(Waterbody wb);
 
+	/**
+	 * Works out the membership of every Waterbody in the environment up front, so containsWaterbody doesn't search
+	 */
+	public void indexWaterbodies(PTMEnv environment);
+
 }
@@ -64,79 +64,22 @@ public class GroupFlux extends Flux {
 	}
 
 	/**
-	 * Calculates total Flux and fills up array of Flux over time as well
+	 * A particle adds to the Flux when it enters the group and subtracts from it when it leaves
 	 */
 	@Override
-	public void calculateFlux(ParticleTrace[] traceArray, int numberOfTraceParticles, int sTime, int eTime, int tStep, int nParticles) {
-		if (initialized == false) {
-			super.calculateFlux(traceArray, numberOfTraceParticles, sTime, eTime, tStep, nParticles);
-			numberOfParticleCircleFlux = 0;
-			circleFlux = new int[numberOfTimeSteps];
-			for (int i = 0; i < numberOfTimeSteps; i++)
-				circleFlux[i] = 0;
-		}
-
-		numberOfParticles = numberOfTraceParticles;
-		int pNum;
-		int particleFlux = 0;
-		boolean contributedToFlux = false;
-		int index;
-
-		// do for each particle...
-		// @todo circleFlux and contributedToFlux are confusing and seem not to do anything
-		for (pNum = 0; pNum < numberOfParticles; pNum++) {
-			contributedToFlux = false;
-			particleFlux = 0;
-			int traceNum = 1;
-			int maxTraces = traceArray[pNum].getNumberOfTraces();
-
-			try {
-				for (index = 0; index < numberOfTimeSteps; index++) {
-					while (traceNum <= maxTraces && traceArray[pNum].getTime(traceNum) == index * timeStep + startTime) {
-						Waterbody wbIn = Globals.Environment.getWaterbody(traceArray[pNum].getWaterbodyId(traceNum - 1));
-						Waterbody wbOut = Globals.Environment.getWaterbody(traceArray[pNum].getWaterbodyId(traceNum));
-
-						// @todo why this stuff?
-						// if (traceArray[pNum].getNodeId(traceNum) == -1) {
-						// if (isInSameGroup(wbIn, wbOut) == true) {
-						// particleFlux--;
-						// }
-						// }else
-						// System.out.println("Waterbodies being tested: \nIn:"+wbIn+"\nOut:"+wbOut+"\n");
-						// System.out.println("Out type:"+wbOut.getType());
-						// System.out.println("Out env:"+wbOut.getEnvIndex());
-						// System.err.println("A");
-
-						boolean inWB = wbGroup.containsWaterbody(wbIn);
-						boolean outWB = wbGroup.containsWaterbody(wbOut);
-
-						if (inWB != outWB) { // exactly one matches wb
-							if (inWB) {
-								particleFlux--;
-								contributedToFlux = true;
-							} else if (outWB) {
-								particleFlux++;
-								contributedToFlux = true;
-							}
-						}
-						traceNum++;
-					} // end while(traceNum)
+	protected int transferFlux(int nodeId, Waterbody wbIn, Waterbody wbOut) {
+		boolean inWB = wbGroup.containsWaterbody(wbIn);
+		boolean outWB = wbGroup.containsWaterbody(wbOut);
 
-					flux[index] += particleFlux;
-					// System.out.println("particleFlux["+index+"]="+Flux[index]);
-					if (particleFlux > 0)
-						circleFlux[index] += particleFlux - 1;
-					else if (particleFlux < 0)
-						circleFlux[index] += particleFlux + 1;
-					else if (particleFlux == 0)
-						circleFlux[index] += 0;
-				} // end for(index)
+		if (inWB != outWB) { // exactly one matches wb
+			return inWB ? -1 : 1;
+		}
+		return 0;
+	}
 
-			} catch (java.lang.ArrayIndexOutOfBoundsException e) {
-				System.out.println("ERROR!!! " + traceArray[pNum]);
-				e.printStackTrace();
-			} // end try-catch
-		} // end for(pNum)
+	@Override
+	protected void indexGroups(PTMEnv environment) {
+		wbGroup.indexWaterbodies(environment);
 	}
 
 	/**
@@ -144,12 +87,6 @@ public class GroupFlux extends Flux {
 	 */
 	private Group wbGroup;
 
-	/**
-	 * An array of Flux over time indexed from starttime to endtime using timestep which counts only repeated contributions to Flux from the same
-	 * particle.
-	 */
-	protected int[] circleFlux;
-
 	/**
 	 * # of particles contributing to circle Flux and storage
 	 */
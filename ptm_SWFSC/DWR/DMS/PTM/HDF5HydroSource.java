@@ -0,0 +1,306 @@
+package DWR.DMS.PTM;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import ch.systemsx.cisd.hdf5.HDF5Factory;
+import ch.systemsx.cisd.hdf5.IHDF5Reader;
+
+// Reads the hydro records straight from a DSM2 8.1 HDF5 tidefile with JHDF5 instead of making
+// one native call per channel per field. Each time series is read RECORDS_PER_READ records at a
+// time with one hyperslab read per dataset, and the snapshots are filled from those blocks.
+//
+// Layout assumed (DSM2 8.1.2 hydro tidefile):
+//   channel flow/area/stage     [time][channel][up, down], channels in internal number order
+//   reservoir height            [time][reservoir]
+//   reservoir flow              [time][connection], connections grouped by reservoir in connection order
+//   qext flow, transfer flow    [time][boundary], [time][conveyor]
+//   channel_bottom              [channel][up, down] bottom elevations, used to turn stage into depth
+// The time series carry "start_time" and "interval" attributes.
+public class HDF5HydroSource implements HydroSource {
+
+	// Number of records read from each dataset at once
+	public static final int RECORDS_PER_READ = 96;
+
+	// Datasets in the tidefile
+	public static final String CHANNEL_FLOW = "/hydro/data/channel flow";
+	public static final String CHANNEL_AREA = "/hydro/data/channel area";
+	public static final String CHANNEL_STAGE = "/hydro/data/channel stage";
+	public static final String RESERVOIR_FLOW = "/hydro/data/reservoir flow";
+	public static final String RESERVOIR_HEIGHT = "/hydro/data/reservoir height";
+	public static final String QEXT_FLOW = "/hydro/data/qext flow";
+	public static final String TRANSFER_FLOW = "/hydro/data/transfer flow";
+	public static final String STAGE_BOUNDARY_FLOW = "/hydro/data/stage boundary flow";
+	public static final String CHANNEL_BOTTOM = "/hydro/geometry/channel_bottom";
+
+	// DSM2 Julian minutes count from 31DEC1899 0000
+	private static final LocalDateTime JULIAN_MINUTE_BASE = LocalDateTime.of(1899, 12, 31, 0, 0);
+
+	private final String tidefileName;
+	private final IHDF5Reader reader;
+
+	// Time of the first record and record interval (minutes)
+	private final int startTime, interval;
+
+	private final TimeSeries channelFlow, channelArea, channelStage;
+	private final TimeSeries reservoirFlow, reservoirHeight, qextFlow, transferFlow, stageBoundaryFlow;
+	private final float[] upBottom, downBottom;
+
+	private boolean checkedLayout = false;
+
+	// Constructor
+	public HDF5HydroSource(String tidefileName) {
+		float[][] bottom;
+
+		this.tidefileName = tidefileName;
+		reader = HDF5Factory.openForReading(tidefileName);
+		System.out.println("Opened tidefile " + tidefileName);
+
+		channelFlow = openTimeSeries(CHANNEL_FLOW, true);
+		channelArea = openTimeSeries(CHANNEL_AREA, true);
+		channelStage = openTimeSeries(CHANNEL_STAGE, true);
+		reservoirFlow = openTimeSeries(RESERVOIR_FLOW, false);
+		reservoirHeight = openTimeSeries(RESERVOIR_HEIGHT, false);
+		qextFlow = openTimeSeries(QEXT_FLOW, false);
+		transferFlow = openTimeSeries(TRANSFER_FLOW, false);
+		stageBoundaryFlow = openTimeSeries(STAGE_BOUNDARY_FLOW, false);
+
+		startTime = parseStartTime(reader.string().getAttr(CHANNEL_FLOW, "start_time"));
+		interval = parseInterval(reader.string().getAttr(CHANNEL_FLOW, "interval"));
+
+		if (!reader.object().exists(CHANNEL_BOTTOM)) {
+			exit("Could not find " + CHANNEL_BOTTOM + " in " + tidefileName);
+		}
+		bottom = reader.float32().readMatrix(CHANNEL_BOTTOM);
+		if (bottom.length == 2 && bottom[0].length != 2) {
+			// Stored as [up, down][channel]
+			upBottom = bottom[0];
+			downBottom = bottom[1];
+		} else {
+			upBottom = new float[bottom.length];
+			downBottom = new float[bottom.length];
+			for (int i = 0; i < bottom.length; i++) {
+				upBottom[i] = bottom[i][0];
+				downBottom[i] = bottom[i][1];
+			}
+		}
+	}
+
+	@Override
+	public void read(PTMHydroInput hydroInput, HydroSnapshot snapshot, Waterbody[] wbArray, int currentModelTime) {
+		int record, q, a, z, offset, column, numberOfNodes;
+		int[] channelNumbers = hydroInput.getChannelNumbers();
+		int[] reservoirEnvIndices = hydroInput.getReservoirEnvIndices();
+		int[][] reservoirConnectionNodes = hydroInput.getReservoirConnectionNodes();
+		Reservoir reservoir;
+
+		if (!checkedLayout) {
+			checkLayout(channelNumbers, snapshot.stageBoundaryFlow.length);
+			checkedLayout = true;
+		}
+
+		record = getRecordIndex(currentModelTime);
+
+		// Channels
+		q = channelFlow.load(record);
+		a = channelArea.load(record);
+		z = channelStage.load(record);
+		for (int i = 0; i < channelNumbers.length; i++) {
+			int channelNumber = channelNumbers[i];
+			column = 2 * (channelNumber - 1);
+
+			snapshot.upFlow[channelNumber] = channelFlow.data[q + column];
+			snapshot.downFlow[channelNumber] = channelFlow.data[q + column + 1];
+
+			snapshot.upArea[channelNumber] = channelArea.data[a + column];
+			snapshot.downArea[channelNumber] = channelArea.data[a + column + 1];
+
+			snapshot.upStage[channelNumber] = channelStage.data[z + column];
+			snapshot.downStage[channelNumber] = channelStage.data[z + column + 1];
+
+			snapshot.upDepth[channelNumber] = snapshot.upStage[channelNumber] - upBottom[channelNumber - 1];
+			snapshot.downDepth[channelNumber] = snapshot.downStage[channelNumber] - downBottom[channelNumber - 1];
+		}
+
+		// Reservoirs
+		if (reservoirHeight != null && reservoirFlow != null) {
+			z = reservoirHeight.load(record);
+			q = reservoirFlow.load(record);
+			offset = 0;
+			for (int reservoirNumber = 1; reservoirNumber < reservoirEnvIndices.length; reservoirNumber++) {
+				if (wbArray[reservoirEnvIndices[reservoirNumber]] == null) {
+					continue;
+				}
+				reservoir = (Reservoir) wbArray[reservoirEnvIndices[reservoirNumber]];
+
+				snapshot.reservoirDepth[reservoirNumber] = reservoirHeight.data[z + reservoirNumber - 1]
+						- reservoir.getBottomElevation();
+				snapshot.reservoirVolume[reservoirNumber] = reservoir.getArea() * snapshot.reservoirDepth[reservoirNumber];
+
+				// The connections are stored in connection order; put each at its node like the native reader
+				numberOfNodes = reservoir.getNumberOfNodes();
+				for (int i = 0; i < numberOfNodes; i++) {
+					snapshot.reservoirFlow[reservoirNumber][reservoirConnectionNodes[reservoirNumber][i]] = reservoirFlow.data[q + offset + i];
+				}
+				offset += numberOfNodes;
+			}
+		}
+
+		// Stage boundaries, boundaries and conveyors
+		fill(stageBoundaryFlow, record, snapshot.stageBoundaryFlow);
+		fill(qextFlow, record, snapshot.boundaryFlow);
+		fill(transferFlow, record, snapshot.conveyorFlow);
+	}
+
+	@Override
+	public void close() {
+		reader.close();
+	}
+
+	@Override
+	public int getStartTime() {
+		return startTime;
+	}
+
+	@Override
+	public int getInterval() {
+		return interval;
+	}
+
+	public int getNumberOfRecords() {
+		return (int) channelFlow.numberOfRecords;
+	}
+
+	// Record holding currentModelTime
+	private int getRecordIndex(int currentModelTime) {
+		int record;
+
+		record = Math.floorDiv(currentModelTime - startTime, interval);
+		if (record < 0 || record >= channelFlow.numberOfRecords) {
+			exit("Model time " + currentModelTime + " is outside of tidefile " + tidefileName);
+		}
+		return record;
+	}
+
+	// Copy one record of a [time][id] time series; ids the tidefile doesn't have get no flow
+	private static void fill(TimeSeries series, int record, float[] values) {
+		int offset, n;
+
+		if (series == null) {
+			return;
+		}
+		offset = series.load(record);
+		n = Math.min(values.length, series.width);
+		System.arraycopy(series.data, offset, values, 0, n);
+	}
+
+	private void checkLayout(int[] channelNumbers, int numberOfStageBoundaries) {
+		for (int i = 0; i < channelNumbers.length; i++) {
+			if (2 * channelNumbers[i] > channelFlow.width || channelNumbers[i] > upBottom.length) {
+				exit("Channel " + channelNumbers[i] + " is not in tidefile " + tidefileName);
+			}
+		}
+		// The stage boundary flows weight the outflows at the stage boundary nodes, so they can't be left out
+		if (numberOfStageBoundaries > 0 && stageBoundaryFlow == null) {
+			exit("Could not find " + STAGE_BOUNDARY_FLOW + " in " + tidefileName);
+		}
+	}
+
+	private TimeSeries openTimeSeries(String path, boolean required) {
+		if (!reader.object().exists(path)) {
+			if (required) {
+				exit("Could not find " + path + " in " + tidefileName);
+			}
+			return null;
+		}
+		return new TimeSeries(path);
+	}
+
+	// start_time is written as e.g. "1990-01-01 00:00:00"
+	private int parseStartTime(String text) {
+		String[] patterns = {"yyyy-MM-dd HH:mm:ss", "yyyy-MM-dd HH:mm", "ddMMMyyyy HHmm"};
+		LocalDateTime time;
+
+		for (String pattern : patterns) {
+			try {
+				time = LocalDateTime.parse(text.trim(), DateTimeFormatter.ofPattern(pattern, Locale.US));
+				return (int) ChronoUnit.MINUTES.between(JULIAN_MINUTE_BASE, time);
+			} catch (DateTimeParseException e) {
+				// Try the next pattern
+			}
+		}
+		exit("Could not read start_time '" + text + "' in " + tidefileName);
+		return 0;
+	}
+
+	// interval is written as e.g. "15min" or "1hour"
+	private int parseInterval(String text) {
+		Matcher m = Pattern.compile("\\s*(\\d+)\\s*([a-zA-Z]+)\\s*").matcher(text);
+		String unit;
+
+		if (m.matches()) {
+			unit = m.group(2).toLowerCase(Locale.US);
+			if (unit.startsWith("min")) {
+				return Integer.parseInt(m.group(1));
+			} else if (unit.startsWith("hour")) {
+				return 60 * Integer.parseInt(m.group(1));
+			} else if (unit.startsWith("day")) {
+				return 1440 * Integer.parseInt(m.group(1));
+			}
+		}
+		exit("Could not read interval '" + text + "' in " + tidefileName);
+		return 0;
+	}
+
+	private static void exit(String message) {
+		System.out.println(message);
+		System.out.println("Aborting execution");
+		System.exit(-1);
+	}
+
+	// A time series dataset with time as its first dimension. A block of records is kept in data.
+	private class TimeSeries {
+		private final String path;
+		private final int[] blockDimensions;
+		final long numberOfRecords;
+		// Values per record
+		final int width;
+
+		float[] data;
+		private int first = 0, count = 0;
+
+		TimeSeries(String path) {
+			long[] dimensions = reader.object().getDataSetInformation(path).getDimensions();
+			int values = 1;
+
+			this.path = path;
+			numberOfRecords = dimensions[0];
+			blockDimensions = new int[dimensions.length];
+			for (int i = 1; i < dimensions.length; i++) {
+				blockDimensions[i] = (int) dimensions[i];
+				values *= (int) dimensions[i];
+			}
+			width = values;
+		}
+
+		// Make sure record is in data and return the offset of its first value
+		int load(int record) {
+			long[] offset;
+
+			if (record < first || record >= first + count) {
+				count = (int) Math.min(RECORDS_PER_READ, numberOfRecords - record);
+				blockDimensions[0] = count;
+				offset = new long[blockDimensions.length];
+				offset[0] = record;
+				data = reader.float32().readMDArrayBlockWithOffset(path, blockDimensions, offset).getAsFlatArray();
+				first = record;
+			}
+			return (record - first) * width;
+		}
+	}
+}
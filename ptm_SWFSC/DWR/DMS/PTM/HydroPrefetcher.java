@@ -0,0 +1,119 @@
+package DWR.DMS.PTM;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+// Reads tidefile records into HydroSnapshots on a background thread. Once the prefetcher is
+// created all of the tidefile reads go through its single reader thread, so the record for the
+// next hydro step can be read while the particles are updated with the current one. Records are
+// still read one at a time and in model time order, as the native reader requires, and each read
+// holds Globals.NATIVE_LOCK so no other thread is in the native library at the same time.
+public class HydroPrefetcher {
+
+	private final PTMHydroInput hydroInput;
+	private final Waterbody[] wbArray;
+	private final ExecutorService reader;
+
+	// Snapshots that are free to be read into; two are enough for double buffering
+	private final ArrayDeque<HydroSnapshot> spares = new ArrayDeque<HydroSnapshot>();
+
+	// Record being read ahead, if any
+	private Future<HydroSnapshot> pending;
+	private int pendingTime;
+
+	// Constructor
+	public HydroPrefetcher(PTMHydroInput hydroInput, Waterbody[] wbArray) {
+		this.hydroInput = hydroInput;
+		this.wbArray = wbArray;
+
+		// Size the buffers here rather than on the reader thread
+		spares.push(hydroInput.newSnapshot(wbArray));
+		spares.push(hydroInput.newSnapshot(wbArray));
+
+		reader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "hydro-reader");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	// Start reading the record for currentModelTime in the background
+	public void prefetch(int currentModelTime) {
+		if (pending != null) {
+			return;
+		}
+		pendingTime = currentModelTime;
+		pending = submit(currentModelTime);
+	}
+
+	// Get the record for currentModelTime, waiting for the read ahead if it is for this time and
+	// reading it now otherwise. The snapshot belongs to the caller until it is handed back with
+	// recycle().
+	public HydroSnapshot get(int currentModelTime) {
+		HydroSnapshot snapshot;
+
+		if (pending != null && pendingTime != currentModelTime) {
+			// The schedule changed; the read ahead can't be used
+			recycle(waitFor(pending, pendingTime));
+			pending = null;
+		}
+		if (pending == null) {
+			pending = submit(currentModelTime);
+		}
+		snapshot = waitFor(pending, currentModelTime);
+		pending = null;
+		return snapshot;
+	}
+
+	// Return a snapshot that is no longer used
+	public void recycle(HydroSnapshot snapshot) {
+		spares.push(snapshot);
+	}
+
+	// Stop the reader thread at the end of the run, waiting for a read ahead that is still in the
+	// native library
+	public void shutdown() {
+		reader.shutdown();
+		try {
+			reader.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private Future<HydroSnapshot> submit(final int currentModelTime) {
+		final HydroSnapshot snapshot = spares.isEmpty() ? hydroInput.newSnapshot(wbArray) : spares.pop();
+
+		return reader.submit(new Callable<HydroSnapshot>() {
+			@Override
+			public HydroSnapshot call() {
+				hydroInput.readSnapshot(snapshot, wbArray, currentModelTime);
+				return snapshot;
+			}
+		});
+	}
+
+	private HydroSnapshot waitFor(Future<HydroSnapshot> future, int currentModelTime) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			System.out.println("Interrupted while reading hydro data for time " + currentModelTime);
+			System.exit(-1);
+		} catch (ExecutionException e) {
+			e.getCause().printStackTrace();
+			System.out.println("Could not read hydro data for time " + currentModelTime);
+			System.exit(-1);
+		}
+		return null;
+	}
+}
@@ -0,0 +1,47 @@
+package DWR.DMS.PTM;
+
+// Hydro values of one tidefile record, copied out of the native tidefile reader by
+// PTMHydroInput.readSnapshot. The record for the next hydro step can then be read on
+// another thread while the waterbodies are updated from this copy.
+public class HydroSnapshot {
+
+	// Model time (Julian minutes) the record was read for
+	public int time;
+
+	// Channel depth, stage, flow and area at the up and down nodes, indexed by channel number
+	public final float[] upDepth, downDepth, upStage, downStage, upFlow, downFlow, upArea, downArea;
+
+	// Reservoir volume, depth and connection flows, indexed by reservoir number. The flow rows
+	// are indexed by the node local index in the reservoir.
+	public final float[] reservoirVolume, reservoirDepth;
+	public final float[][] reservoirFlow;
+
+	// Stage boundary, boundary and conveyor flows, indexed by their ids
+	public final float[] stageBoundaryFlow, boundaryFlow, conveyorFlow;
+
+	// Filter operations (1-pass;0-block)
+	public final float[] filterOps;
+
+	// Constructor
+	public HydroSnapshot(int maxChannels, int maxReservoirs, int maxReservoirNodes, int maxStageBoundaries,
+			int maxBoundaries, int maxConveyors, int numFilters) {
+		upDepth = new float[maxChannels + 1];
+		downDepth = new float[maxChannels + 1];
+		upStage = new float[maxChannels + 1];
+		downStage = new float[maxChannels + 1];
+		upFlow = new float[maxChannels + 1];
+		downFlow = new float[maxChannels + 1];
+		upArea = new float[maxChannels + 1];
+		downArea = new float[maxChannels + 1];
+
+		reservoirVolume = new float[maxReservoirs + 1];
+		reservoirDepth = new float[maxReservoirs + 1];
+		reservoirFlow = new float[maxReservoirs + 1][maxReservoirNodes + 1];
+
+		stageBoundaryFlow = new float[maxStageBoundaries];
+		boundaryFlow = new float[maxBoundaries];
+		conveyorFlow = new float[maxConveyors];
+
+		filterOps = new float[numFilters];
+	}
+}
@@ -0,0 +1,19 @@
+package DWR.DMS.PTM;
+
+// Source of the hydro records read by PTMHydroInput. Without a HydroSource, PTMHydroInput
+// reads the tidefile through the native PTM library.
+public interface HydroSource {
+
+	// Fill the hydro values of the record for currentModelTime (Julian minutes). The filter
+	// operations are not part of the tidefile and are left to PTMHydroInput.
+	void read(PTMHydroInput hydroInput, HydroSnapshot snapshot, Waterbody[] wbArray, int currentModelTime);
+
+	// Time of the first record (Julian minutes)
+	int getStartTime();
+
+	// Record interval (minutes), which is the hydro time step
+	int getInterval();
+
+	// Release the tidefile
+	void close();
+}
@@ -0,0 +1,578 @@
+package DWR.DMS.PTM;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+// Blown-up node tree for junction routing decision making (VKS). The topology of the tree only
+// depends on the node, the channel the particle enters the junction from and junctions.csv, so
+// all the trees are compiled once at startup into flat arrays. At decision time only the flows
+// are filled in and the tree is walked without allocating.
+public class JunctionTree {
+
+	// Trees indexed by node envIndex and the position of the entry channel in the node's options
+	private static JunctionTree[][] trees = new JunctionTree[0][];
+
+	// Flow of a dummy channel that is not summed from its children
+	private static final float DUMMY_Q = -999999999.9f;
+
+	// Largest number of nodes in any tree, used to size the flow scratch array
+	private static int maxTreeSize = 0;
+
+	// Tree nodes; the root is node 0. Children are -1 when undefined.
+	private final int[] channelNumber;
+	private final int[] flag;
+	private final int[] right;
+	private final int[] left;
+	// Position in the node's options of a real channel, -1 for dummies
+	private final int[] optionIndex;
+	// Dummy nodes whose flow is the sum of their children's, children before parents
+	private final int[] dummyPostOrder;
+
+	// Real channels in the order the particle draws from them when the chosen exit was already tried
+	private final int[] realChannelNumber;
+	private final int[] realOptionIndex;
+
+	private JunctionTree(int[] channelNumber, int[] flag, int[] right, int[] left, int[] optionIndex,
+			int[] dummyPostOrder, int[] realChannelNumber, int[] realOptionIndex) {
+		this.channelNumber = channelNumber;
+		this.flag = flag;
+		this.right = right;
+		this.left = left;
+		this.optionIndex = optionIndex;
+		this.dummyPostOrder = dummyPostOrder;
+		this.realChannelNumber = realChannelNumber;
+		this.realOptionIndex = realOptionIndex;
+	}
+
+	// Get the tree for a particle entering node nodeEnvIndex from the channel at entryOption of the
+	// node's options. Returns null if no tree could be built.
+	public static JunctionTree get(int nodeEnvIndex, int entryOption) {
+		if (nodeEnvIndex < 0 || nodeEnvIndex >= trees.length || trees[nodeEnvIndex] == null
+				|| entryOption < 0 || entryOption >= trees[nodeEnvIndex].length) {
+			return null;
+		}
+		return trees[nodeEnvIndex][entryOption];
+	}
+
+	public static int getMaxTreeSize() {
+		return maxTreeSize;
+	}
+
+	// Compile the trees for every junction with more than two valid exits. Needs the channel
+	// orientations and junctions.csv to have been read.
+	public static void compileAll(PTMEnv env) {
+		Node nd;
+		Waterbody wb;
+		ArrayList<Integer> options;
+		JunctionTree[][] compiled;
+		int numTrees = 0;
+
+		compiled = new JunctionTree[env.getMaxNumberOfNodes() + 1][];
+		for (int n = 0; n <= env.getMaxNumberOfNodes(); n++) {
+			nd = env.getNode(n);
+			if (nd == null || nd.getEnvIndex() < 0 || nd.getEnvIndex() >= compiled.length) {
+				continue;
+			}
+
+			// Same list of options as BehavedParticle.makeNodeDecision
+			options = new ArrayList<Integer>();
+			for (int i = 0; i < nd.getNumberOfWaterbodies(); i++) {
+				if ((!(nd.getWaterbody(i) instanceof Boundary) || nd.getWaterbodyEnvIndex(i) == 901 || nd.getWaterbodyEnvIndex(i) == 915)) {
+					options.add(i);
+				}
+			}
+			if (options.size() <= 2) {
+				continue;
+			}
+			if (options.size() > 6) {
+				System.out.println("Error: junctions should have six or fewer valid exits. numOptions = " + options.size());
+			}
+
+			compiled[nd.getEnvIndex()] = new JunctionTree[options.size()];
+			for (int i = 0; i < options.size(); i++) {
+				wb = nd.getWaterbody(options.get(i));
+				if (wb instanceof SmartChannel) {
+					compiled[nd.getEnvIndex()][i] = compile(nd, options, (SmartChannel) wb);
+					numTrees++;
+				}
+			}
+		}
+
+		trees = compiled;
+		System.out.println("Compiled " + numTrees + " junction decision trees");
+	}
+
+	// Build the tree for particles entering node nd from channel entryWB
+	private static JunctionTree compile(Node nd, ArrayList<Integer> options, SmartChannel entryWB) {
+		ArrayList<int[]> junctionBlowUp = new ArrayList<int[]>();
+		int[] chansCurrent, currentWBNum, cFlag;
+		int numOptions = options.size();
+		int prevPos, currPos1, currPos2, cNum, flag = 1;
+		Waterbody tempWB;
+
+		currentWBNum = new int[numOptions];
+		cFlag = new int[numOptions];
+		for (int i = 0; i < numOptions; i++) {
+			tempWB = nd.getWaterbody(options.get(i));
+			currentWBNum[i] = tempWB.getEnvIndex();
+			if (tempWB instanceof SmartChannel && ((SmartChannel) tempWB).getUpNodeId() == nd.getEnvIndex()) {
+				cFlag[i] = -1;
+			} else {
+				cFlag[i] = 1;
+			}
+		}
+
+		if (entryWB.getUpNodeId() == nd.getEnvIndex()) {
+			flag = -1; // Particle is at upstream end of the channel
+		}
+		if (entryWB.getDownNodeId() == nd.getEnvIndex()) {
+			flag = 1; // Particle is at downstream end of the channel
+		}
+
+		try {
+			// Start from the entry channel and build the list
+			// All channels in the row containing the entry channel
+			chansCurrent = getRow(flag * entryWB.getEnvIndex());
+
+			prevPos = findIndex(chansCurrent, flag * entryWB.getEnvIndex());
+			// Position on this row of the entry channel
+			currPos1 = ((prevPos % 3) + 1) % 3; // Positions of the other two channels clockwise from
+			currPos2 = ((prevPos % 3) + 2) % 3; // the entry channel
+
+			// Creating an ordered matrix containing all the artificial sub-junctions
+			junctionBlowUp.add(new int[] {chansCurrent[prevPos], chansCurrent[currPos1], chansCurrent[currPos2]});
+
+			// 4-channel junction
+			if (numOptions == 4) {
+				if (Math.abs(chansCurrent[currPos1])>=1000) {
+					// Right channel is dummy
+					junctionBlowUp.add(populateJBU(junctionBlowUp.get(0)[1]));
+				} else if (Math.abs(chansCurrent[currPos2])>=1000) {
+					// Left channel is dummy
+					junctionBlowUp.add(populateJBU(junctionBlowUp.get(0)[2]));
+				}
+			} else if (numOptions == 5) {
+				if (Math.abs(chansCurrent[currPos1])>=1000 && Math.abs(chansCurrent[currPos2])<1000) {
+					// Only right channel of first entry is dummy
+					junctionBlowUp.add(populateJBU(junctionBlowUp.get(0)[1]));
+
+					// Add next entry
+					cNum = Math.abs(junctionBlowUp.get(1)[1]);
+
+					if (cNum>=1000) {
+						// Right channel of second entry is dummy
+						junctionBlowUp.add(populateJBU(junctionBlowUp.get(1)[1]));
+					} else {
+						// Left channel of second entry is dummy
+						junctionBlowUp.add(populateJBU(junctionBlowUp.get(1)[2]));
+					}
+				} else if (Math.abs(chansCurrent[currPos1])<1000 && Math.abs(chansCurrent[currPos2])>=1000) {
+					// Only left channel of first entry is dummy
+					junctionBlowUp.add(populateJBU(junctionBlowUp.get(0)[2]));
+
+					// Add next entry
+					cNum = Math.abs(junctionBlowUp.get(1)[1]);
+
+					if (cNum>=1000) {
+						// Right channel of second entry is dummy
+						junctionBlowUp.add(populateJBU(junctionBlowUp.get(1)[1]));
+					} else {
+						// Left channel of second entry is dummy
+						junctionBlowUp.add(populateJBU(junctionBlowUp.get(1)[2]));
+					}
+				} else {
+					// Both channels of the first entry are dummies
+					junctionBlowUp.add(populateJBU(junctionBlowUp.get(0)[1]));
+					junctionBlowUp.add(populateJBU(junctionBlowUp.get(0)[2]));
+				}
+			} else if (numOptions==6) {
+				if (Math.abs(chansCurrent[currPos1])>=1000 && Math.abs(chansCurrent[currPos2])<1000) {
+					// Only right channel of first entry is a dummy
+					junctionBlowUp.add(populateJBU(junctionBlowUp.get(0)[1]));
+					addThirdLevel(junctionBlowUp);
+				} else if (Math.abs(chansCurrent[currPos1])<1000 && Math.abs(chansCurrent[currPos2])>=1000) {
+					// Only left channel of first entry is a dummy
+					junctionBlowUp.add(populateJBU(junctionBlowUp.get(0)[2]));
+					addThirdLevel(junctionBlowUp);
+				} else if (Math.abs(chansCurrent[currPos1])>=1000 && Math.abs(chansCurrent[currPos2])>=1000) {
+					// Both channels in the first entry are dummies
+					junctionBlowUp.add(populateJBU(junctionBlowUp.get(0)[1]));
+					junctionBlowUp.add(populateJBU(junctionBlowUp.get(0)[2]));
+
+					// Add next entry
+					if (Math.abs(junctionBlowUp.get(1)[1])>=1000) {
+						// Right channel of second entry is dummy
+						junctionBlowUp.add(populateJBU(junctionBlowUp.get(1)[1]));
+					} else if (Math.abs(junctionBlowUp.get(1)[2])>=1000) {
+						// Left channel of second entry is dummy
+						junctionBlowUp.add(populateJBU(junctionBlowUp.get(1)[2]));
+					}
+
+					// Add next entry
+					if (Math.abs(junctionBlowUp.get(2)[1])>=1000) {
+						// Right channel of second entry is dummy
+						junctionBlowUp.add(populateJBU(junctionBlowUp.get(2)[1]));
+					} else if (Math.abs(junctionBlowUp.get(2)[2])>=1000) {
+						// Left channel of second entry is dummy
+						junctionBlowUp.add(populateJBU(junctionBlowUp.get(2)[2]));
+					}
+				}
+			}
+
+			return build(junctionBlowUp, currentWBNum, cFlag);
+		} catch (IllegalStateException e) {
+			// The entry cannot be routed; report it if a particle ever gets here
+			return null;
+		}
+	}
+
+	// 6-channel junction with one dummy in the first entry: expand the second entry
+	private static void addThirdLevel(ArrayList<int[]> junctionBlowUp) {
+		int cNum;
+
+		if (Math.abs(junctionBlowUp.get(1)[1])>=1000 && Math.abs(junctionBlowUp.get(1)[2])<1000) {
+			// Only right channel of second entry is a dummy
+			junctionBlowUp.add(populateJBU(junctionBlowUp.get(1)[1]));
+		} else if (Math.abs(junctionBlowUp.get(1)[1])<1000 && Math.abs(junctionBlowUp.get(1)[2])>=1000) {
+			// Only left channel of second entry is dummy
+			junctionBlowUp.add(populateJBU(junctionBlowUp.get(1)[2]));
+		} else if (Math.abs(junctionBlowUp.get(1)[1])>=1000 && Math.abs(junctionBlowUp.get(1)[2])>=1000) {
+			// Both channels of second entry are dummies
+			junctionBlowUp.add(populateJBU(junctionBlowUp.get(1)[1]));
+			junctionBlowUp.add(populateJBU(junctionBlowUp.get(1)[2]));
+			return;
+		} else {
+			return;
+		}
+
+		// Add next entry
+		cNum = Math.abs(junctionBlowUp.get(2)[1]);
+
+		if (cNum>=1000) {
+			// Right channel of third entry is a dummy
+			junctionBlowUp.add(populateJBU(junctionBlowUp.get(2)[1]));
+		} else {
+			// Left channel of third entry is a dummy
+			junctionBlowUp.add(populateJBU(junctionBlowUp.get(2)[2]));
+		}
+	}
+
+	// Create a new entry for junctionBlowUp
+	private static int[] populateJBU(int jSignedNum) {
+		int[] chansCurrent;
+		int[] newRow = new int[3];
+		int currPos1, currPos2, cNum, ind, cF;
+
+		cNum = Math.abs(jSignedNum);
+		cF = -(int) Math.signum(jSignedNum);
+		chansCurrent = getRow(cNum*cF);
+		ind = findIndex(chansCurrent, cNum*cF);
+		currPos1 = ((ind % 3) + 1) % 3;
+		currPos2 = ((ind % 3) + 2) % 3;
+
+		newRow[0] = chansCurrent[ind];
+		newRow[1] = chansCurrent[currPos1];
+		newRow[2] = chansCurrent[currPos2];
+		return(newRow);
+	}
+
+	// Row of junctions.csv containing the signed channel number
+	private static int[] getRow(int signedChannelNum) {
+		if (!JunctionsInput.channelRows.containsKey(signedChannelNum)) {
+			throw new IllegalStateException("Could not find row values for channel " + signedChannelNum);
+		}
+		return JunctionsInput.getRow(Math.abs(signedChannelNum), signedChannelNum > 0);
+	}
+
+	// Position of item in arr. Kept here rather than using BehavedParticle.findIndex so that compiling
+	// the trees doesn't load the behavior inputs.
+	private static int findIndex(int[] arr, int item) {
+		for (int i = 0; i < arr.length; i++) {
+			if (arr[i] == item) {
+				return i;
+			}
+		}
+		throw new IllegalStateException("Could not find channel " + item);
+	}
+
+	// Flatten junctionBlowUp into the tree arrays. The nodes are linked the same way
+	// DecisionTree.add did: each entry is keyed by channel number and the children of
+	// a row are attached to the node with the row's parent number.
+	private static JunctionTree build(ArrayList<int[]> junctionBlowUp, int[] currentWBNum, int[] cFlag) {
+		HashMap<Integer, Integer> dTnodes = new HashMap<Integer, Integer>();
+		HashMap<Integer, Integer> realChannels = new HashMap<Integer, Integer>();
+		ArrayList<int[]> nodes = new ArrayList<int[]>();
+		int[] row, parent;
+		int ind, parentNum, child;
+
+		for (int i = 0; i < junctionBlowUp.size(); i++) {
+			row = junctionBlowUp.get(i);
+
+			if (i == 0) {
+				// Root
+				ind = findIndex(currentWBNum, Math.abs(row[0]));
+				addNode(nodes, dTnodes, realChannels, currentWBNum[ind], cFlag[ind], ind);
+				parentNum = currentWBNum[ind];
+			} else {
+				// Subsequent nodes
+				parentNum = Math.abs(row[0]);
+			}
+
+			// Right node, then left node
+			for (int side = 1; side <= 2; side++) {
+				if (Math.abs(row[side]) > 1000) {
+					child = addNode(nodes, dTnodes, realChannels, Math.abs(row[side]), (int) Math.signum(row[side]), -1);
+				} else {
+					ind = findIndex(currentWBNum, Math.abs(row[side]));
+					child = addNode(nodes, dTnodes, realChannels, currentWBNum[ind], cFlag[ind], ind);
+				}
+
+				if (!dTnodes.containsKey(parentNum)) {
+					throw new IllegalStateException("Could not find parent channel " + parentNum);
+				}
+				parent = nodes.get(dTnodes.get(parentNum));
+				parent[side == 1 ? 3 : 4] = child;
+			}
+		}
+
+		return flatten(nodes, dTnodes, realChannels);
+	}
+
+	// Add a tree node {channelNumber, flag, optionIndex, right, left}
+	private static int addNode(ArrayList<int[]> nodes, HashMap<Integer, Integer> dTnodes,
+			HashMap<Integer, Integer> realChannels, int channelNumber, int flag, int optionIndex) {
+		nodes.add(new int[] {channelNumber, flag, Math.abs(channelNumber) >= 1000 ? -1 : optionIndex, -1, -1});
+		dTnodes.put(channelNumber, nodes.size() - 1);
+		if (Math.abs(channelNumber) < 1000) {
+			realChannels.put(channelNumber, optionIndex);
+		}
+		return nodes.size() - 1;
+	}
+
+	// Renumber the nodes reachable from the root (node 0) depth first
+	private static JunctionTree flatten(ArrayList<int[]> nodes, HashMap<Integer, Integer> dTnodes,
+			HashMap<Integer, Integer> realChannels) {
+		int[] order = new int[nodes.size()];
+		int[] newIndex = new int[nodes.size()];
+		int[] stack = new int[nodes.size()];
+		int numNodes = 0, numDummies = 0, top = 0, k, i;
+		int[] channelNumber, flag, right, left, optionIndex, dummyPostOrder;
+		int[] realChannelNumber, realOptionIndex;
+		boolean[] summed;
+
+		// Pre-order numbering; a node reached twice would make the tree a graph
+		java.util.Arrays.fill(newIndex, -1);
+		stack[top++] = 0;
+		while (top > 0) {
+			k = stack[--top];
+			if (newIndex[k] >= 0) {
+				throw new IllegalStateException("Junction tree node reached twice");
+			}
+			newIndex[k] = numNodes;
+			order[numNodes++] = k;
+			if (nodes.get(k)[4] >= 0) {
+				if (top == stack.length) {
+					throw new IllegalStateException("Junction tree node reached twice");
+				}
+				stack[top++] = nodes.get(k)[4];
+			}
+			if (nodes.get(k)[3] >= 0) {
+				if (top == stack.length) {
+					throw new IllegalStateException("Junction tree node reached twice");
+				}
+				stack[top++] = nodes.get(k)[3];
+			}
+		}
+
+		channelNumber = new int[numNodes];
+		flag = new int[numNodes];
+		right = new int[numNodes];
+		left = new int[numNodes];
+		optionIndex = new int[numNodes];
+		for (i = 0; i < numNodes; i++) {
+			int[] node = nodes.get(order[i]);
+			channelNumber[i] = node[0];
+			flag[i] = node[1];
+			optionIndex[i] = node[2];
+			right[i] = node[3] < 0 ? -1 : newIndex[node[3]];
+			left[i] = node[4] < 0 ? -1 : newIndex[node[4]];
+		}
+
+		// Flows were only summed down from the root through dummies; a dummy below a real
+		// channel other than the root keeps the placeholder flow
+		summed = new boolean[numNodes];
+		numDummies = 0;
+		for (i = 0; i < numNodes; i++) {
+			if (optionIndex[i] < 0 && (i == 0 || summed[i])) {
+				summed[i] = true;
+			}
+			if (i == 0 || summed[i]) {
+				if (right[i] >= 0) summed[right[i]] = optionIndex[right[i]] < 0;
+				if (left[i] >= 0) summed[left[i]] = optionIndex[left[i]] < 0;
+			}
+			if (i != 0 && summed[i]) {
+				numDummies++;
+			}
+		}
+
+		// In pre-order children come after their parents, so the reverse is a valid post-order
+		dummyPostOrder = new int[numDummies];
+		numDummies = 0;
+		for (i = numNodes - 1; i > 0; i--) {
+			if (summed[i]) {
+				dummyPostOrder[numDummies++] = i;
+			}
+		}
+
+		// Keep the iteration order of the HashMap the real channels used to be drawn from
+		realChannelNumber = new int[realChannels.size()];
+		realOptionIndex = new int[realChannels.size()];
+		i = 0;
+		for (Integer key : realChannels.keySet()) {
+			realChannelNumber[i] = key;
+			realOptionIndex[i] = realChannels.get(key);
+			i++;
+		}
+
+		maxTreeSize = Math.max(maxTreeSize, numNodes);
+		return new JunctionTree(channelNumber, flag, right, left, optionIndex, dummyPostOrder,
+				realChannelNumber, realOptionIndex);
+	}
+
+	public int getSize() {
+		return channelNumber.length;
+	}
+
+	// Determine which channel the particle will be pushed into. currentQ holds the signed flows of
+	// the node's options and q is scratch space of at least getSize() entries. The particle is pushed
+	// into subsequent downstream channels according to the side of the bifurcating streamline it is
+	// on until it ultimately ends up in one of the leaf nodes (exit water bodies).
+	public int pushIntoChannel(float[] currentQ, float[] q, float yNonDim, int[] optionsTried,
+			int numOptionsTried, RandomStream generator) {
+		boolean prevInflow, rightOutflow, leftOutflow;
+		float Q, Q1, Q2, bifStr, prevQ;
+		int qFlag, qFlag1, qFlag2;
+		int k, r, l, next, d, randChannel;
+
+		// Assign flows: real channels from the node, dummies summed from their children
+		for (k = 0; k < optionIndex.length; k++) {
+			q[k] = optionIndex[k] >= 0 ? currentQ[optionIndex[k]] : DUMMY_Q;
+		}
+		for (int i = 0; i < dummyPostOrder.length; i++) {
+			d = dummyPostOrder[i];
+			q[d] = (right[d] < 0 ? 0.0f : q[right[d]]) + (left[d] < 0 ? 0.0f : q[left[d]]);
+		}
+
+		k = 0;
+		prevQ = q[0];
+		while (true) {
+			r = right[k];
+			l = left[k];
+
+			// Have reached a leaf node (real exit channel)
+			if (r < 0 && l < 0) {
+
+				// Check if we've already attempted to enter this channel
+				if (wasTried(channelNumber[k], optionsTried, numOptionsTried)) {
+					while (true) {
+						randChannel = generator.nextInt(realChannelNumber.length);
+
+						// Check if this is a gate
+						if (currentQ[realOptionIndex[randChannel]] != 0) {
+							return realChannelNumber[randChannel];
+						}
+					}
+				}
+				return channelNumber[k];
+			}
+			if (r < 0 || l < 0) {
+				System.out.println("Error: junction tree node " + channelNumber[k] + " has only one downstream channel");
+				System.exit(1);
+			}
+
+			qFlag = (int) Math.signum(prevQ);
+			Q1 = Math.abs(q[r]);
+			Q2 = Math.abs(q[l]);
+			qFlag1 = (int) Math.signum(q[r]);
+			qFlag2 = (int) Math.signum(q[l]);
+
+			next = -1;
+			if (qFlag == 0) {
+				// There is a gate in this channel
+				return channelNumber[k];
+			} else if (qFlag1 == 0 && qFlag2 != 0) {
+				// Gate in right-side channel
+				next = l;
+			} else if (qFlag2 == 0 && qFlag1 != 0) {
+				// Gate in left-side channel
+				next = r;
+			} else if (qFlag1 == 0 && qFlag2 == 0) {
+				// Gates in both channels
+				return channelNumber[k];
+			} else {
+				// No gates
+				prevInflow = (qFlag == -1);
+				rightOutflow = (qFlag1 == 1);
+				leftOutflow = (qFlag2 == 1);
+
+				// We have to push the fish into the downstream channel with exit flow when flow exits
+				// in the current channel
+				if (!prevInflow) {
+					if (!rightOutflow && leftOutflow) {
+						// Push into left channel as flow exits there
+						next = l;
+					} else if (rightOutflow && !leftOutflow) {
+						// Push into right channel as flow exits there
+						next = r;
+					} else {
+						// Both the right and left channels have inflow => flip a coin
+						next = (generator.nextDouble() <= 0.5) ? r : l;
+					}
+				} else {
+					// Estimate position of bifurcating streamline with respect to dimensionless lateral
+					// position and push fish into the downstream channel accordingly
+					if (rightOutflow && !leftOutflow) {
+						// Flow in left-side channel is into node => bifurcating streamline precludes the left-side channel
+						next = r;
+					} else if (!rightOutflow && leftOutflow) {
+						// Flow in right-side channel is into node => bifurcating streamline precludes the right-side channel
+						next = l;
+					} else if (rightOutflow && leftOutflow) {
+						// Right and left channels both have outflow => need to calculate the bifurcating streamline
+						Q = Math.abs(prevQ);
+
+						if (flag[k] == 1) {
+							// Downstream end is connected
+							bifStr = Q1 / Q;
+							next = yNonDim <= bifStr ? r : l;
+						} else if (flag[k] == -1) {
+							// Upstream end is connected
+							bifStr = Q2 / Q;
+							next = yNonDim <= bifStr ? l : r;
+						}
+					}
+				}
+			}
+
+			if (next < 0) {
+				// Fall through
+				return channelNumber[k];
+			}
+
+			// The flow in the exit channel changes sign once we recurse into it
+			prevQ = -q[next];
+			k = next;
+			yNonDim = (float) generator.nextDouble();
+		}
+	}
+
+	// Check if the particle has already attempted to enter a channel
+	private static boolean wasTried(int channelNumber, int[] optionsTried, int numOptionsTried) {
+		for (int i = 0; i < numOptionsTried; i++) {
+			if (optionsTried[i] == channelNumber) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
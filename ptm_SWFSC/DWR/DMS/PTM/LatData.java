@@ -1,5 +1,8 @@
 package DWR.DMS.PTM;
 
+import java.util.Arrays;
+import java.util.Map;
+
 class LatData extends ProfileData {
 
 	// Class variables
@@ -7,8 +10,60 @@ class LatData extends ProfileData {
 	public static int numCols = 65;
 	public static double colIncrement_rad = 2 * Math.PI / (numCols - 1);
 
+	// Dense copy of data used on the particle update path: column curvIdx (theta curvIdx+1) holds the
+	// values for latPos minLatPos, minLatPos+1, ... Missing rows and columns are NaN.
+	private float[] table;
+	private int minLatPos, numBins, numThetas;
+
 	public LatData(String inputDir, String filename) {
 		super(inputDir, filename);
+		compileTable();
+	}
+
+	// Copy data into the dense table, indexed by curvature column and latPos
+	private void compileTable() {
+		Integer colIndex;
+		int maxLatPos;
+
+		minLatPos = Integer.MAX_VALUE;
+		maxLatPos = Integer.MIN_VALUE;
+		for (Integer latPos : rowIndices.keySet()) {
+			minLatPos = Math.min(minLatPos, latPos);
+			maxLatPos = Math.max(maxLatPos, latPos);
+		}
+		numBins = rowIndices.isEmpty() ? 0 : maxLatPos - minLatPos + 1;
+
+		// convertRadToColumn can return one column past the last angle
+		numThetas = numCols + 1;
+		table = new float[numThetas * numBins];
+		Arrays.fill(table, Float.NaN);
+
+		for (int curvIdx = 0; curvIdx < numThetas; curvIdx++) {
+			colIndex = colIndices.get("theta" + (curvIdx + 1));
+			if (colIndex == null) {
+				continue;
+			}
+			for (Map.Entry<Integer, Integer> row : rowIndices.entrySet()) {
+				table[curvIdx * numBins + row.getKey() - minLatPos] = (float) data[row.getValue()][colIndex];
+			}
+		}
+	}
+
+	// Get specific value without boxing or map lookups. latPos is in thousandths of the half width.
+	public float getValue(int latPos, int curvIdx, boolean flipProfile) {
+		int bin;
+		float value;
+
+		bin = (flipProfile ? -latPos : latPos) - minLatPos;
+		if (bin >= 0 && bin < numBins && curvIdx >= 0 && curvIdx < numThetas) {
+			value = table[curvIdx * numBins + bin];
+			if (!Float.isNaN(value)) {
+				return value;
+			}
+		}
+
+		// Not in the table; report it the same way as getData
+		return (float) getData(latPos, "theta" + (curvIdx + 1), flipProfile);
 	}
 
 	// Get specific value
@@ -32,7 +87,12 @@ class LatData extends ProfileData {
 
 	// Convert radians into column name
 	public static String convertRadToHeader(double rad) {
-		Integer colIndex, thetaIndex;
+		return "theta" + (convertRadToColumn(rad) + 1);
+	}
+
+	// Convert radians into the curvature column index used by getValue
+	public static int convertRadToColumn(double rad) {
+		int colIndex;
 		double thisCol;
 
 		// Find the first column that equals or exceeds rad
@@ -42,8 +102,7 @@ class LatData extends ProfileData {
 				break;
 			}
 		}
-		thetaIndex = colIndex + 1;
 
-		return "theta" + thetaIndex.toString();
+		return colIndex;
 	}
 }
@@ -41,7 +41,6 @@ C!    along with DSM2.  If not, see <http://www.gnu.org/!<licenses/>.
 package DWR.DMS.PTM;
 
 import java.io.IOException;
-import java.util.Calendar;
 
 /**
  * main function of PTM
@@ -67,12 +66,20 @@ public class MainPTM {
 
 	public static boolean enableTraceFile = false;
 
+	// Number of threads used to update the particle positions (optional 14th argument)
+	public static int numberOfThreads = Runtime.getRuntime().availableProcessors();
+
+	// DSM2 HDF5 tidefile read directly instead of through the native library (optional 15th argument)
+	public static String tidefileName = null;
+	// Memory mapped hydro cache, created from the tidefile if it doesn't exist (optional 16th argument)
+	public static String hydroCacheName = null;
+	// Also write the behavior events in the old per-particle layout (optional 17th argument, true or false)
+	public static boolean legacyBehaviorOutput = false;
+
 	public static void main(String[] args) {
 		long t1 = System.currentTimeMillis(), t2;
 		int numberOfWaterbodies;
 		Waterbody thisWaterbody;
-		Calendar curr = Calendar.getInstance();
-		String modelTime;
 
 		// Default sunrise and sunset times (will probably be overridden by BehavedParticle)
 		// From http://www.esrl.noaa.gov/gmd/grad/solcalc/ for Dec. 31
@@ -113,10 +120,22 @@ public class MainPTM {
 				epsilonVFilename = args[11];
 				dEpsilonVdzFilename = args[12];
 			}
+			if (args.length > 13)
+				numberOfThreads = Integer.parseInt(args[13]);
+			if (args.length > 14)
+				tidefileName = args[14];
+			if (args.length > 15)
+				hydroCacheName = args[15];
+			if (args.length > 16)
+				legacyBehaviorOutput = Boolean.parseBoolean(args[16]);
 
 			PTMEnv Environment = new PTMEnv(fixedInputFilename);
 			if (DEBUG)
 				System.out.println("Environment initialized");
+			if (hydroCacheName != null)
+				Environment.useHydroCache(hydroCacheName, tidefileName);
+			else if (tidefileName != null)
+				Environment.getPTMHydroInput().setHydroSource(new HDF5HydroSource(tidefileName));
 
 			// Set paths to river bend and junction input files
 			RiverBendsInput.inputDir = riverBendsInputDir;
@@ -145,6 +164,9 @@ public class MainPTM {
 				}
 			}
 
+			// Compile the junction decision trees now that the orientations are known
+			JunctionTree.compileAll(Environment);
+
 			// get runtime parameters
 			int startTime = Environment.getStartTime();
 			int runTime = Environment.getRunLength();
@@ -190,15 +212,18 @@ public class MainPTM {
 				System.out.println("restart particles " + numberOfRestartParticles);
 
 			if (behavior) {
+				// the state of the new particles is held column-wise in one store; the particles are views of it
+				BehavedParticleStore particleStore = new BehavedParticleStore(numberOfParticles - numberOfRestartParticles);
 				for (int pNum = numberOfRestartParticles; pNum < numberOfParticles; pNum++)
-					particleArray[pNum] = new BehavedParticle(Environment.getParticleFixedInfo());
+					particleArray[pNum] = new BehavedParticle(Environment.getParticleFixedInfo(), particleStore);
 				System.out.println("BehavedParticle");
 
 				// Create the array to store the first arrival times
 				BehavedParticle.createOutputArrays(numberOfParticles);
 			} else {
+				ParticleStore particleStore = new ParticleStore(numberOfParticles - numberOfRestartParticles);
 				for (int pNum = numberOfRestartParticles; pNum < numberOfParticles; pNum++)
-					particleArray[pNum] = new Particle(Environment.getParticleFixedInfo());
+					particleArray[pNum] = new Particle(Environment.getParticleFixedInfo(), particleStore);
 			}
 			if (DEBUG)
 				System.out.println("particles initialized");
@@ -208,6 +233,16 @@ public class MainPTM {
 			if (DEBUG)
 				System.out.println("Set insertion info");
 
+			// Calculate the flux and group output as the particles move, so no trace file is needed
+			FluxInfo fluxFixedInfo = Environment.getFluxFixedInfo();
+			GroupInfo groupFixedInfo = Environment.getGroupFixedInfo();
+			FluxMonitor fluxCalculator = null;
+			if (fluxFixedInfo.getNumberOfFluxes() + groupFixedInfo.getNumberOfGroups() > 0) {
+				fluxCalculator = new FluxMonitor(null, Globals.BINARY, fluxFixedInfo, groupFixedInfo);
+				fluxCalculator.startIncremental(startTime, endTime, PTMTimeStep, numberOfParticles);
+			}
+
+			ParticleObserver observer = null;
 			if (enableTraceFile) {
 
 				// set observer on each Particle
@@ -217,16 +252,17 @@ public class MainPTM {
 					System.err.println("Exiting");
 					System.exit(-1);
 				}
-				ParticleObserver observer = null;
 				observer = new ParticleObserver(traceFileName, Environment.getFileType(traceFileName), startTime, endTime, PTMTimeStep,
 						numberOfParticles);
+				observer.setFluxMonitor(fluxCalculator);
 				if (DEBUG)
 					System.out.println("Set observer");
-
-				for (int i = 0; i < numberOfParticles; i++) {
-					if (observer != null)
-						observer.setObserverForParticle(particleArray[i]);
-				}
+			} else if (fluxCalculator != null) {
+				observer = new ParticleObserver(fluxCalculator);
+			}
+			for (int i = 0; i < numberOfParticles; i++) {
+				if (observer != null)
+					observer.setObserverForParticle(particleArray[i]);
 			}
 
 			// initialize output restart file
@@ -278,10 +314,53 @@ public class MainPTM {
 			// Infer the hydro time step and phase (when the flow changes)
 			Environment.inferHydroTimeStep();
 
+			// Particles are updated in parallel; everything else in the time loop stays serial
+			ParticleStepper stepper = new ParticleStepper(numberOfThreads);
+			System.out.println("Updating particles on " + stepper.getNumberOfThreads() + " thread(s)");
+
+			// The SmartChannel directions are updated on the particle worker threads
+			ChannelDirectionTracker channelDirections = new ChannelDirectionTracker(Environment, stepper.getPool());
+
+			// Only the particles that are in the system are updated each step
+			ActiveParticleSet activeParticles = new ActiveParticleSet(particleArray, numberOfParticles);
+
+			// When no particles are in the system the time loop skips ahead to warmUpTime before the
+			// next insertion. The SmartChannels need tideCountThr tides to set their direction; a tide
+			// is taken as 25 hours and one more is added for the velocity filter.
+			int warmUpTime = (SmartChannel.tideCountThr + 1) * 25 * 60;
+			int resumeTime;
+
+			// Daylight as minutes of the day
+			ModelCalendar.setDaylight(sunriseHour * 60 + sunriseMin, sunsetHour * 60 + sunsetMin);
+
 			// initialize current model time
 			// Globals.currentModelTime = startTime;
 			// main loop for running Particle model
 			for (Globals.currentModelTime = startTime; Globals.currentModelTime <= endTime; Globals.currentModelTime += PTMTimeStep) {
+				// Stop once every particle has been inserted and has died or left the system
+				if (activeParticles.isEmpty()) {
+					System.out.println("No particles left in the system at " + Globals.getModelDate(Globals.currentModelTime) + " "
+							+ Globals.getModelTime(Globals.currentModelTime));
+					break;
+				}
+
+				// Skip the hydro reads over stretches with no particles in the system
+				if (activeParticles.getNumberOfActive() == 0) {
+					if (activeParticles.getNextInsertionTime() > endTime) {
+						System.out.println("No more particles are inserted before the end of the run");
+						break;
+					}
+					resumeTime = startTime
+							+ Math.floorDiv(activeParticles.getNextInsertionTime() - warmUpTime - startTime, PTMTimeStep) * PTMTimeStep;
+					if (resumeTime > Globals.currentModelTime) {
+						System.out.println("No particles in the system; skipping to " + Globals.getModelDate(resumeTime) + " "
+								+ Globals.getModelTime(resumeTime));
+						Globals.currentModelTime = resumeTime;
+						Environment.restartHydroInfo();
+						channelDirections.reset();
+					}
+				}
+
 				// output runtime information to screen
 				MainPTM.display(displayInterval);
 
@@ -293,27 +372,16 @@ public class MainPTM {
 				// Update all of the SmartChannels. The flow data are updated every hour, while this
 				// loop runs every 15 min. => only update the SmartChannels every hydroStepSize min.
 				if (Globals.currentModelTime % Globals.Environment.getHydroStepSize() == 0) {
-					for (int i = 0; i < numberOfWaterbodies; i++) {
-						thisWaterbody = Environment.getWaterbody(i);
-						if (thisWaterbody instanceof SmartChannel) {
-							((SmartChannel) thisWaterbody).updateChannelDir();
-						}
-					}
+					channelDirections.update();
 				}
 
 				// Do the daytime check before the particle array loop
-				modelTime = Globals.getModelTime(Globals.currentModelTime);
-				curr.set(Calendar.HOUR_OF_DAY, Integer.parseInt(modelTime.substring(0, 2)));
-				curr.set(Calendar.MINUTE, Integer.parseInt(modelTime.substring(2, 4)));
-				// TODO use LocalTime in Jave1.8 to simplify
-				isDaytime = (curr.get(Calendar.HOUR_OF_DAY) > sunriseHour && curr.get(Calendar.HOUR_OF_DAY) < sunsetHour)
-						|| (curr.get(Calendar.HOUR_OF_DAY) == sunriseHour && curr.get(Calendar.MINUTE) > sunriseMin)
-						|| (curr.get(Calendar.HOUR_OF_DAY) == sunsetHour && curr.get(Calendar.MINUTE) < sunsetMin);
-
-				// update Particle positions
-				for (int i = 0; i < numberOfParticles; i++) {
-					particleArray[i].updatePosition(timeStep);
-				}
+				isDaytime = ModelCalendar.isDaytime(Globals.currentModelTime);
+
+				// update Particle positions, starting with the ones inserted this step
+				activeParticles.activate(Globals.currentModelTime);
+				stepper.updatePositions(particleArray, activeParticles.getActive(), activeParticles.getNumberOfActive(), timeStep);
+				activeParticles.removeDead();
 				if (DEBUG)
 					System.out.println("Updated particle positions");
 
@@ -326,12 +394,26 @@ public class MainPTM {
 					outRestart.output();
 
 			}
+			stepper.shutdown();
+			Environment.closeHydroInput();
+			for (int i = 0; i < numberOfWaterbodies; i++) {
+				thisWaterbody = Environment.getWaterbody(i);
+				if (thisWaterbody instanceof Channel) {
+					Particle.reportCappedSubTimeSteps((Channel) thisWaterbody);
+				}
+			}
 			if (animationOutput != null)
 				animationOutput.FlushAndClose();
 			System.out.println(" ");
 			// write out restart file information
-			if (outRestart != null)
+			if (outRestart != null) {
 				outRestart.output();
+				outRestart.close();
+			}
+
+			// write the remaining trace events
+			if (observer != null)
+				observer.close();
 
 			// clean up after run is over
 			//			observer = null;
@@ -343,17 +425,11 @@ public class MainPTM {
 				BehavedParticle.destructor();
 			}
 
-			//			// output flux calculations in dss format
-			//			FluxInfo fluxFixedInfo = Environment.getFluxFixedInfo();
-			//			GroupInfo groupFixedInfo = Environment.getGroupFixedInfo();
-			//
-			//			FluxMonitor fluxCalculator = new FluxMonitor(traceFileName,
-			//					Environment.getFileType(traceFileName), fluxFixedInfo,
-			//					groupFixedInfo);
-			//
-			//			fluxCalculator.calculateFlux();
-			//
-			//			fluxCalculator.writeOutput();
+			// output flux calculations in dss format
+			if (fluxCalculator != null) {
+				fluxCalculator.finishIncremental();
+				fluxCalculator.writeOutput();
+			}
 
 			t2 = System.currentTimeMillis();
 			System.out.println("");
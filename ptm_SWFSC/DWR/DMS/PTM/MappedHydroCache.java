@@ -0,0 +1,244 @@
+package DWR.DMS.PTM;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+// Columnar binary copy of the hydro records of a tidefile. The cache is written once from an
+// HDF5HydroSource and then memory mapped read-only by every run that uses it, so repeated runs
+// skip the tidefile and JVMs on the same node share the pages.
+//
+// Layout (little endian): a HEADER_SIZE byte header with the magic number, version, time of the
+// first record, record interval, number of records and the width of each field, followed by the
+// fields one after another, each stored as [time][index].
+public class MappedHydroCache implements HydroSource {
+
+	private static final long MAGIC = 0x5054_4D48_5944_524FL; // "PTMHYDRO"
+	// 2: reservoir flows stored by local node instead of connection order
+	private static final int VERSION = 2;
+	private static final int HEADER_SIZE = 128;
+
+	// Fields in the order they are stored
+	private static final int UP_FLOW = 0, DOWN_FLOW = 1, UP_DEPTH = 2, DOWN_DEPTH = 3, UP_STAGE = 4, DOWN_STAGE = 5,
+			UP_AREA = 6, DOWN_AREA = 7, RESERVOIR_VOLUME = 8, RESERVOIR_DEPTH = 9, RESERVOIR_FLOW = 10,
+			STAGE_BOUNDARY_FLOW = 11, BOUNDARY_FLOW = 12, CONVEYOR_FLOW = 13, NUMBER_OF_FIELDS = 14;
+
+	private final String cacheName;
+	private final int startTime, interval, numberOfRecords, reservoirRowLength;
+	private final int[] widths;
+	private final FloatBuffer[] columns;
+
+	private boolean checkedLayout = false;
+
+	// Constructor; maps an existing cache
+	public MappedHydroCache(String cacheName) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		long[] offsets;
+
+		this.cacheName = cacheName;
+		try (RandomAccessFile file = new RandomAccessFile(cacheName, "r"); FileChannel channel = file.getChannel()) {
+			while (header.hasRemaining() && channel.read(header) >= 0) {
+				// Keep reading until the header is complete
+			}
+			header.flip();
+			if (header.remaining() < HEADER_SIZE || header.getLong() != MAGIC || header.getInt() != VERSION) {
+				throw new IOException(cacheName + " is not a hydro cache written by this version of PTM");
+			}
+			startTime = header.getInt();
+			interval = header.getInt();
+			numberOfRecords = header.getInt();
+			reservoirRowLength = header.getInt();
+			widths = new int[NUMBER_OF_FIELDS];
+			for (int f = 0; f < NUMBER_OF_FIELDS; f++) {
+				widths[f] = header.getInt();
+			}
+
+			offsets = getOffsets(widths, numberOfRecords);
+			if (channel.size() < offsets[NUMBER_OF_FIELDS]) {
+				throw new IOException(cacheName + " is incomplete");
+			}
+			columns = new FloatBuffer[NUMBER_OF_FIELDS];
+			for (int f = 0; f < NUMBER_OF_FIELDS; f++) {
+				columns[f] = map(channel, FileChannel.MapMode.READ_ONLY, offsets[f], offsets[f + 1]).asFloatBuffer();
+			}
+		}
+		System.out.println("Mapped hydro cache " + cacheName + ": " + numberOfRecords + " records every " + interval + " min");
+	}
+
+	// Write the cache for every record of the tidefile. The file is written under a temporary name
+	// and renamed when complete, so other runs never map a partial cache.
+	public static void write(HDF5HydroSource source, PTMHydroInput hydroInput, Waterbody[] wbArray, String cacheName)
+			throws IOException {
+		HydroSnapshot snapshot = hydroInput.newSnapshot(wbArray);
+		int[] widths = getWidths(snapshot);
+		int numberOfRecords = source.getNumberOfRecords();
+		long[] offsets = getOffsets(widths, numberOfRecords);
+		MappedByteBuffer[] buffers = new MappedByteBuffer[NUMBER_OF_FIELDS];
+		FloatBuffer[] columns = new FloatBuffer[NUMBER_OF_FIELDS];
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		File cacheFile = new File(cacheName).getAbsoluteFile();
+		File tempFile = File.createTempFile(cacheFile.getName(), ".tmp", cacheFile.getParentFile());
+
+		header.putLong(MAGIC);
+		header.putInt(VERSION);
+		header.putInt(source.getStartTime());
+		header.putInt(source.getInterval());
+		header.putInt(numberOfRecords);
+		header.putInt(snapshot.reservoirFlow[0].length);
+		for (int f = 0; f < NUMBER_OF_FIELDS; f++) {
+			header.putInt(widths[f]);
+		}
+		header.rewind();
+
+		try (RandomAccessFile file = new RandomAccessFile(tempFile, "rw"); FileChannel channel = file.getChannel()) {
+			file.setLength(offsets[NUMBER_OF_FIELDS]);
+			channel.write(header, 0);
+			for (int f = 0; f < NUMBER_OF_FIELDS; f++) {
+				buffers[f] = map(channel, FileChannel.MapMode.READ_WRITE, offsets[f], offsets[f + 1]);
+				columns[f] = buffers[f].asFloatBuffer();
+			}
+
+			for (int record = 0; record < numberOfRecords; record++) {
+				source.read(hydroInput, snapshot, wbArray, source.getStartTime() + record * source.getInterval());
+				columns[UP_FLOW].put(snapshot.upFlow);
+				columns[DOWN_FLOW].put(snapshot.downFlow);
+				columns[UP_DEPTH].put(snapshot.upDepth);
+				columns[DOWN_DEPTH].put(snapshot.downDepth);
+				columns[UP_STAGE].put(snapshot.upStage);
+				columns[DOWN_STAGE].put(snapshot.downStage);
+				columns[UP_AREA].put(snapshot.upArea);
+				columns[DOWN_AREA].put(snapshot.downArea);
+				columns[RESERVOIR_VOLUME].put(snapshot.reservoirVolume);
+				columns[RESERVOIR_DEPTH].put(snapshot.reservoirDepth);
+				for (int r = 0; r < snapshot.reservoirFlow.length; r++) {
+					columns[RESERVOIR_FLOW].put(snapshot.reservoirFlow[r]);
+				}
+				columns[STAGE_BOUNDARY_FLOW].put(snapshot.stageBoundaryFlow);
+				columns[BOUNDARY_FLOW].put(snapshot.boundaryFlow);
+				columns[CONVEYOR_FLOW].put(snapshot.conveyorFlow);
+			}
+
+			for (int f = 0; f < NUMBER_OF_FIELDS; f++) {
+				buffers[f].force();
+			}
+		} catch (IOException e) {
+			tempFile.delete();
+			throw e;
+		}
+
+		Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	@Override
+	public void read(PTMHydroInput hydroInput, HydroSnapshot snapshot, Waterbody[] wbArray, int currentModelTime) {
+		int record;
+
+		if (!checkedLayout) {
+			if (!java.util.Arrays.equals(widths, getWidths(snapshot)) || reservoirRowLength != snapshot.reservoirFlow[0].length) {
+				exit("Hydro cache " + cacheName + " was written for a different network");
+			}
+			checkedLayout = true;
+		}
+
+		record = Math.floorDiv(currentModelTime - startTime, interval);
+		if (record < 0 || record >= numberOfRecords) {
+			exit("Model time " + currentModelTime + " is outside of hydro cache " + cacheName);
+		}
+
+		copy(UP_FLOW, record, snapshot.upFlow);
+		copy(DOWN_FLOW, record, snapshot.downFlow);
+		copy(UP_DEPTH, record, snapshot.upDepth);
+		copy(DOWN_DEPTH, record, snapshot.downDepth);
+		copy(UP_STAGE, record, snapshot.upStage);
+		copy(DOWN_STAGE, record, snapshot.downStage);
+		copy(UP_AREA, record, snapshot.upArea);
+		copy(DOWN_AREA, record, snapshot.downArea);
+		copy(RESERVOIR_VOLUME, record, snapshot.reservoirVolume);
+		copy(RESERVOIR_DEPTH, record, snapshot.reservoirDepth);
+		columns[RESERVOIR_FLOW].position(record * widths[RESERVOIR_FLOW]);
+		for (int r = 0; r < snapshot.reservoirFlow.length; r++) {
+			columns[RESERVOIR_FLOW].get(snapshot.reservoirFlow[r]);
+		}
+		copy(STAGE_BOUNDARY_FLOW, record, snapshot.stageBoundaryFlow);
+		copy(BOUNDARY_FLOW, record, snapshot.boundaryFlow);
+		copy(CONVEYOR_FLOW, record, snapshot.conveyorFlow);
+	}
+
+	@Override
+	public int getStartTime() {
+		return startTime;
+	}
+
+	@Override
+	public int getInterval() {
+		return interval;
+	}
+
+	@Override
+	public void close() {
+		// The mappings are released with the buffers
+	}
+
+	// Copy one record of a field. Only the hydro reader thread reads from the cache, so the
+	// buffer positions aren't shared.
+	private void copy(int field, int record, float[] values) {
+		columns[field].position(record * widths[field]);
+		columns[field].get(values);
+	}
+
+	private static int[] getWidths(HydroSnapshot snapshot) {
+		int[] widths = new int[NUMBER_OF_FIELDS];
+
+		widths[UP_FLOW] = snapshot.upFlow.length;
+		widths[DOWN_FLOW] = snapshot.downFlow.length;
+		widths[UP_DEPTH] = snapshot.upDepth.length;
+		widths[DOWN_DEPTH] = snapshot.downDepth.length;
+		widths[UP_STAGE] = snapshot.upStage.length;
+		widths[DOWN_STAGE] = snapshot.downStage.length;
+		widths[UP_AREA] = snapshot.upArea.length;
+		widths[DOWN_AREA] = snapshot.downArea.length;
+		widths[RESERVOIR_VOLUME] = snapshot.reservoirVolume.length;
+		widths[RESERVOIR_DEPTH] = snapshot.reservoirDepth.length;
+		widths[RESERVOIR_FLOW] = snapshot.reservoirFlow.length * snapshot.reservoirFlow[0].length;
+		widths[STAGE_BOUNDARY_FLOW] = snapshot.stageBoundaryFlow.length;
+		widths[BOUNDARY_FLOW] = snapshot.boundaryFlow.length;
+		widths[CONVEYOR_FLOW] = snapshot.conveyorFlow.length;
+		return widths;
+	}
+
+	// Byte offset of each field; the last entry is the size of the file
+	private static long[] getOffsets(int[] widths, int numberOfRecords) {
+		long[] offsets = new long[NUMBER_OF_FIELDS + 1];
+
+		offsets[0] = HEADER_SIZE;
+		for (int f = 0; f < NUMBER_OF_FIELDS; f++) {
+			offsets[f + 1] = offsets[f] + 4L * widths[f] * numberOfRecords;
+		}
+		return offsets;
+	}
+
+	// Each field is mapped on its own, which keeps every mapping under the 2 GB limit of a buffer
+	private static MappedByteBuffer map(FileChannel channel, FileChannel.MapMode mode, long start, long end) throws IOException {
+		MappedByteBuffer buffer;
+
+		if (end - start > Integer.MAX_VALUE) {
+			throw new IOException("A hydro cache field would be larger than 2 GB; use a shorter tidefile");
+		}
+		buffer = channel.map(mode, start, end - start);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		return buffer;
+	}
+
+	private static void exit(String message) {
+		System.out.println(message);
+		System.out.println("Aborting execution");
+		System.exit(-1);
+	}
+}
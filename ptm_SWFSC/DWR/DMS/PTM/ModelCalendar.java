@@ -0,0 +1,104 @@
+package DWR.DMS.PTM;
+
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.Locale;
+
+// Converts DSM2 Julian minutes (minutes since 31DEC1899 0000) to the model date and time strings
+// the DSM2 library produces, ddMMMyyyy (e.g. 01JAN1990) and HHmm (e.g. 0915), without a native
+// call. Like jmin2cdt (HEC convention), midnight is 2400 of the day that ends rather than 0000 of
+// the day that starts. The time strings of all 1440 minutes of a day are built once and the date string is
+// cached for the day last asked for, so formatting a time in the time loop doesn't allocate.
+//
+// Daylight is kept as the minutes of the day of sunrise and sunset, so whether it's daytime is
+// one comparison of the minute of the day.
+public class ModelCalendar {
+
+	public static final int MINUTES_PER_DAY = 1440;
+
+	// Day 0 of the DSM2 Julian day count
+	private static final LocalDate BASE_DATE = LocalDate.of(1899, 12, 31);
+
+	private static final String[] MONTHS = { "JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP", "OCT", "NOV", "DEC" };
+
+	// HHmm string of each minute of the day; midnight is 2400
+	private static final String[] TIMES = new String[MINUTES_PER_DAY];
+
+	static {
+		TIMES[0] = "2400";
+		for (int minute = 1; minute < MINUTES_PER_DAY; minute++) {
+			TIMES[minute] = String.format(Locale.US, "%02d%02d", minute / 60, minute % 60);
+		}
+	}
+
+	// Date of the day last formatted; replaced as a whole, so it can be shared by threads
+	private static volatile Day lastDay = new Day(0);
+
+	// Sunrise and sunset in minutes of the day (defaults of MainPTM)
+	private static int sunrise = 7 * 60 + 27, sunset = 17 * 60;
+
+	// Date as ddMMMyyyy; midnight belongs to the day that ends
+	public static String getModelDate(int julianMin) {
+		int day = Math.floorDiv(julianMin - 1, MINUTES_PER_DAY);
+		Day d = lastDay;
+
+		if (d.day != day) {
+			d = new Day(day);
+			lastDay = d;
+		}
+		return d.date;
+	}
+
+	// Time as HHmm, 0001 to 2400
+	public static String getModelTime(int julianMin) {
+		return TIMES[getMinuteOfDay(julianMin)];
+	}
+
+	public static int getMinuteOfDay(int julianMin) {
+		return Math.floorMod(julianMin, MINUTES_PER_DAY);
+	}
+
+	// Julian minutes of a date given as ddMMMyyyy (any case) and a time given as HHmm; 2400 is
+	// midnight at the end of the day
+	public static int getTimeInJulianMins(String modelDate, String modelTime) {
+		String date = modelDate.trim().toUpperCase(Locale.US), time = modelTime.trim();
+		int month = -1;
+
+		for (int m = 0; m < MONTHS.length; m++) {
+			if (date.length() == 9 && date.startsWith(MONTHS[m], 2)) {
+				month = m + 1;
+			}
+		}
+		if (month < 0 || time.length() != 4) {
+			throw new IllegalArgumentException("Could not read the model date and time " + modelDate + " " + modelTime);
+		}
+		return (int) ChronoUnit.DAYS.between(BASE_DATE,
+				LocalDate.of(Integer.parseInt(date.substring(5)), month, Integer.parseInt(date.substring(0, 2)))) * MINUTES_PER_DAY
+				+ Integer.parseInt(time.substring(0, 2)) * 60 + Integer.parseInt(time.substring(2));
+	}
+
+	// Set sunrise and sunset in minutes of the day
+	public static void setDaylight(int sunriseMinute, int sunsetMinute) {
+		sunrise = sunriseMinute;
+		sunset = sunsetMinute;
+	}
+
+	// True between sunrise and sunset, both excluded
+	public static boolean isDaytime(int julianMin) {
+		int minute = getMinuteOfDay(julianMin);
+
+		return minute > sunrise && minute < sunset;
+	}
+
+	private static final class Day {
+		final int day;
+		final String date;
+
+		Day(int day) {
+			LocalDate d = BASE_DATE.plusDays(day);
+
+			this.day = day;
+			date = String.format(Locale.US, "%02d%s%04d", d.getDayOfMonth(), MONTHS[d.getMonthValue() - 1], d.getYear());
+		}
+	}
+}
@@ -20,8 +20,6 @@ C!    along with DSM2.  If not, see <http://www.gnu.org/!<licenses/>.
 package DWR.DMS.PTM;
 
 import java.io.IOException;
-import edu.cornell.RngPack.*;
-import java.util.HashMap;
 
 /**
  * 
@@ -36,8 +34,6 @@ import java.util.HashMap;
  */
 
 public class Node {
-	private RandomElement randomNumberGenerator;
-	private static int INITIAL_SEED = 10000;
 	private int numChannels;
 
 	/**
@@ -60,8 +56,6 @@ public class Node {
 			wbIndexArray[i] = wbIdArray[i];
 		}
 		boundaryType = bdType;
-		randomNumberGenerator = new Ranecu(INITIAL_SEED);
-		filterArr = new HashMap<String, Filter>();
 
 		// -999 indicates that numChannels hasn't been calculated yet
 		numChannels = -999;
@@ -80,13 +74,6 @@ public class Node {
 	 * Clean up only if initialized
 	 */
 
-	/**
-	 * Returns the next random number using drand48
-	 */
-	public final float getRandomNumber() {
-		return (float) randomNumberGenerator.uniform(0, 1);
-	}
-
 	/**
 	 * Returns number of waterbodies node connected
 	 */
@@ -96,14 +83,16 @@ public class Node {
 
 	public int getNumChannels() {
 		// Calculate the number of channels if it hasn't been done yet
+		// (count into a local so concurrent callers never see a partial count)
 		if (numChannels == -999) {
-			numChannels = 0;
+			int count = 0;
 			for (int i = 0; i < numberOfWaterbodies; i++) {
-				// Increment numChannels if this waterbody is a channel
+				// Increment count if this waterbody is a channel
 				if (wbArray[i].getType() == 100) {
-					numChannels++;
+					count++;
 				}
 			}
+			numChannels = count;
 		}
 
 		return numChannels;
@@ -173,39 +162,65 @@ public class Node {
 	 * get the operation for the specified filter at current timestamp used to modify the outflows' weights for particle decision making
 	 */
 	public float getFilterOp(int localChannelId) {
-		float filterOp = 1.0f;
-		int wbEnvIndex = this.getWaterbodyEnvIndex(localChannelId);
-		String key = "" + getEnvIndex() + "," + "" + wbEnvIndex;
-
-		if (filterArr.containsKey(key)) {
-			filterOp = getFilter(wbEnvIndex).getFilterOp();
+		if (filterOps == null) {
+			return 1.0f;
 		}
-		return filterOp;
+		return filterOps[localChannelId];
 	}
 
 	/**
 	 * existence of particle filter for node inflows called by Particle x-position calculation when entering a node
 	 */
 	public boolean inFilter(Waterbody wb) {
-		boolean filterIn = false;
-		int wbEnvIndex = wb.getEnvIndex();
-		String key = "" + EnvIndex + "," + "" + wbEnvIndex;
-
-		if (filterArr.containsKey(key)) {
-			float filterOp = getFilter(wbEnvIndex).getFilterOp();
-			if (filterOp == 0) {
-				filterIn = true;
+		int wbEnvIndex;
+
+		if (filters == null) {
+			return false;
+		}
+		wbEnvIndex = wb.getEnvIndex();
+		for (int i = 0; i < numberOfWaterbodies; i++) {
+			if (wbIndexArray[i] == wbEnvIndex && filters[i] != null) {
+				return filterOps[i] == 0;
 			}
 		}
-		return filterIn;
+		return false;
 	}
 
 	/**
-	 * Returns the filter with the specified node and wb (exist judgment first)
+	 * Returns the filter with the specified node and wb, or null if there is none
 	 */
 	public Filter getFilter(int wbEnvIndex) {
-		String key = "" + EnvIndex + "," + "" + wbEnvIndex;
-		return filterArr.get(key);
+		if (filters == null) {
+			return null;
+		}
+		for (int i = 0; i < numberOfWaterbodies; i++) {
+			if (wbIndexArray[i] == wbEnvIndex && filters[i] != null) {
+				return filters[i];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Copies the operations of this Node's filters at the current timestamp from the operations of all filters. Called whenever the filter
+	 * operations change.
+	 */
+	public final void updateFilterOps(float[] allFilterOps) {
+		if (filters == null || allFilterOps == null) {
+			return;
+		}
+		for (int i = 0; i < numberOfWaterbodies; i++) {
+			if (filters[i] != null) {
+				filterOps[i] = allFilterOps[filters[i].getFilterIndex()];
+			}
+		}
+	}
+
+	/**
+	 * true if a filter is attached to this Node
+	 */
+	public final boolean hasFilters() {
+		return filters != null;
 	}
 
 	/**
@@ -242,17 +257,55 @@ public class Node {
 	 * Fills the wbArray with pointer information and cleans up the index array
 	 */
 	public final void setWbArray(Waterbody[] wbPtrArray) {
+		int numberOfOptions = 0;
+
 		for (int i = 0; i < numberOfWaterbodies; i++) {
 			wbArray[i] = wbPtrArray[i];
 		}
+
+		// Waterbodies a particle can choose at this node: all but the boundaries, except the
+		// boundaries at 901 and 915
+		decisionOptions = new int[numberOfWaterbodies];
+		for (int i = 0; i < numberOfWaterbodies; i++) {
+			if (!(wbArray[i] instanceof Boundary) || wbIndexArray[i] == 901 || wbIndexArray[i] == 915) {
+				decisionOptions[numberOfOptions++] = i;
+			}
+		}
+		decisionOptions = java.util.Arrays.copyOf(decisionOptions, numberOfOptions);
+		synchronized (Node.class) {
+			maxNumberOfWaterbodies = Math.max(maxNumberOfWaterbodies, numberOfWaterbodies);
+		}
 		cleanUp();
 	}
 
 	/**
-	 * Fills the node with filters' array
+	 * Local indices of the waterbodies a particle can choose at this Node. The array is shared and must not be changed.
 	 */
-	public final void setFilterArr(String key, Filter filter) {
-		this.filterArr.put(key, filter);
+	public final int[] getDecisionOptions() {
+		return decisionOptions;
+	}
+
+	/**
+	 * Largest number of waterbodies at any Node
+	 */
+	public static int getMaxNumberOfWaterbodies() {
+		return maxNumberOfWaterbodies;
+	}
+
+	/**
+	 * Attaches a filter to the waterbody it resides on. Filters on waterbodies not connected to this Node are ignored.
+	 */
+	public final void setFilter(Filter filter) {
+		for (int i = 0; i < numberOfWaterbodies; i++) {
+			if (wbIndexArray[i] == filter.getFilterWb()) {
+				if (filters == null) {
+					filters = new Filter[numberOfWaterbodies];
+					filterOps = new float[numberOfWaterbodies];
+					java.util.Arrays.fill(filterOps, 1.0f);
+				}
+				filters[i] = filter;
+			}
+		}
 	}
 
 	/**
@@ -324,6 +377,16 @@ public class Node {
 	 */
 	private int[] wbIndexArray;
 
+	/**
+	 * Local indices of the waterbodies a particle can choose, see getDecisionOptions
+	 */
+	private int[] decisionOptions = new int[0];
+
+	/**
+	 * Largest number of waterbodies at any Node
+	 */
+	private static int maxNumberOfWaterbodies = 0;
+
 	/**
 	 * Boundary array as defined from fixed input. This is not needed for boundary Waterbody information as only waterbodies can be boundaries.
 	 */
@@ -342,8 +405,12 @@ public class Node {
 	}
 
 	/**
-	 * filters' array on the specified node
+	 * filters indexed by the local index of the waterbody they reside on, null if the Node has no filters
+	 */
+	private Filter[] filters;
+	/**
+	 * operation of each filter in filters at the current timestamp, 1 where there is no filter
 	 */
-	private HashMap<String, Filter> filterArr;
+	private float[] filterOps;
 
 };
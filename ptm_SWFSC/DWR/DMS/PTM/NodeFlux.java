@@ -70,74 +70,33 @@ public class NodeFlux extends Flux {
 	}
 
 	/**
-	 * Calculates total Flux and fills up array of Flux over time as well
+	 * A particle adds to the Flux when it moves from an incoming to an outgoing waterbody through the node, and subtracts from it when it moves
+	 * the other way
 	 */
-	public void calculateFlux(ParticleTrace[] traceArray, int numberOfTraceParticles, int sTime, int eTime, int tStep, int nParticles) {
-		if (initialized == false) {
-			super.calculateFlux(traceArray, numberOfTraceParticles, sTime, eTime, tStep, nParticles);
-			numberOfParticleCircleFlux = 0;
-			circleFlux = new int[numberOfTimeSteps];
-			for (int i = 0; i < numberOfTimeSteps; i++)
-				circleFlux[i] = 0;
+	@Override
+	protected int transferFlux(int nodeId, Waterbody wbIn, Waterbody wbOut) {
+		if (nodeId == info.getNodeId()) {
+			if (isIncoming(wbIn) && isOutgoing(wbOut)) {
+				return 1;
+			} else if (isOutgoing(wbIn) && isIncoming(wbOut)) {
+				return -1;
+			}
 		}
+		return 0;
+	}
+
+	@Override
+	protected void indexGroups(PTMEnv environment) {
+		info.getInGroup().indexWaterbodies(environment);
+		info.getOutGroup().indexWaterbodies(environment);
+	}
 
-		numberOfParticles = numberOfTraceParticles;
-
-		int particleFlux = 0;
-		// int previousIndex; @todo remove?
-		boolean contributedToFlux = false;
-		int index;
-		// do for each particle...
-		for (int pNum = 0; pNum < numberOfParticles; pNum++) {
-			contributedToFlux = false;
-			particleFlux = 0;
-			// previousIndex = 0;
-			int traceNum = 1;
-			int maxTraces = traceArray[pNum].getNumberOfTraces();
-			// System.out.println(pNum+" maxTraces = "+maxTraces);
-			// System.out.println("number of timesteps = "+numberOfTimeSteps+" @ "+timeStep);
-			try {
-				for (index = 0; index < numberOfTimeSteps; index++) {
-					if (!doFluxCumulative())
-						particleFlux = 0; // instantaneous values
-
-					while (traceNum <= maxTraces && traceArray[pNum].getTime(traceNum) == index * timeStep + startTime) {
-						if (traceArray[pNum].getNodeId(traceNum) == info.getNodeId()) {
-							Waterbody wbIn = Globals.Environment.getWaterbody(traceArray[pNum].getWaterbodyId(traceNum - 1));
-							Waterbody wbOut = Globals.Environment.getWaterbody(traceArray[pNum].getWaterbodyId(traceNum));
-
-							if (isIncoming(wbIn) && isOutgoing(wbOut)) {
-								particleFlux++;
-								contributedToFlux = true;
-								// System.out.println("Particle #: " + pNum + " Flux = " + particleFlux);
-							} else if (isOutgoing(wbIn) && isIncoming(wbOut)) {
-								particleFlux--;
-								contributedToFlux = true;
-								// System.out.println("Particle #: " + pNum + " Flux = " + particleFlux);
-							}
-						} // end if (traceArray)
-						traceNum++;
-					} // end while
-
-					// if (traceArray[pNum].getTime(traceNum) == index*
-					// System.out.println("Flux["+index+"]= "+ Flux[index]);
-					// Flux[index] += particleFlux;
-					flux[index] += particleFlux;
-					// System.out.println("Flux["+index+"] = "+Flux[index]);
-					if (particleFlux > 0)
-						circleFlux[index] += particleFlux - 1;
-					else if (particleFlux < 0)
-						circleFlux[index] += particleFlux + 1;
-					else if (particleFlux == 0)
-						circleFlux[index] += 0;
-				} // end for(index)
-
-			} catch (java.lang.ArrayIndexOutOfBoundsException e) {
-				// continue; //@todo Eli: why Do they really happen?
-				System.out.println("Node flux out of bounds: " + traceArray[pNum]);
-				e.printStackTrace();
-			} // end try
-		} // end for(pNum)
+	/**
+	 * The Flux is instantaneous unless cumulative output was requested
+	 */
+	@Override
+	protected boolean isCumulative() {
+		return doFluxCumulative();
 	}
 
 	/**
@@ -187,12 +146,6 @@ public class NodeFlux extends Flux {
 	 * Flux information is contained in info
 	 */
 	protected FluxFixedData info;
-	/**
-	 * An array of Flux over time indexed from starttime to endtime using timestep which counts only repeated contributions to Flux from the same
-	 * particle.
-	 */
-	protected int[] circleFlux;
-
 	/**
 	 * # of particles contributing to circle Flux and storage
 	 */
@@ -202,7 +155,6 @@ public class NodeFlux extends Flux {
 	 * Checks to see if the Waterbody Id matches any of the specified incoming groups.
 	 */
 	protected final boolean isIncoming(Waterbody wb) {
-		System.out.println("Testing outgoing: " + wb);
 		return info.getInGroup().containsWaterbody(wb);
 	}
 
@@ -210,7 +162,6 @@ public class NodeFlux extends Flux {
 	 * Checks to see if the Waterbody Id matches any of the specified outgoing groups.
 	 */
 	protected final boolean isOutgoing(Waterbody wb) {
-		System.out.println("Testing outgoing: " + wb);
 		return info.getOutGroup().containsWaterbody(wb);
 	}
 
@@ -51,6 +51,7 @@ import java.io.*;
 /**
  * This class outputs information for animation. At any given instant of time the Particle Id and the normalized x,y and z location are output. of the
  * Particle.<br>
+ * The locations are collected on the simulation thread and written on a writer thread.<br>
  * 
  * @author Nicky Sandhu
  * @version $Id: PTMAnimationOutput.java,v 1.7 2000/08/07 17:00:27 miller Exp $
@@ -69,6 +70,33 @@ public class PTMAnimationOutput extends PTMOutput {
 		super(filename, type);
 		outputInterval = interval;
 		setOutputParameters(numberOfParticles, requestedNumberOfParticles, particleArray);
+
+		frames = new AsyncOutput<Frame>("animation", 16, new AsyncOutput.Sink<Frame>() {
+			@Override
+			public void write(Frame frame) throws IOException {
+				int outputType = getOutputType();
+				if (outputType == Globals.ASCII) {
+					// write out into ascii file
+					writeOutputAscii(frame.modelDate, frame.modelTime, frame.outputData);
+				} else if (outputType == Globals.BINARY) {
+					// write out into binary file
+					writeBinary(frame.modelDate, frame.modelTime, frame.outputData);
+				}
+			}
+
+			@Override
+			public void flush() throws IOException {
+				if (getOutputType() == Globals.ASCII)
+					outputWriter.flush();
+				else
+					outputStream.flush();
+			}
+
+			@Override
+			public void close() throws IOException {
+				writeEndOfFile();
+			}
+		});
 	}
 
 	/**
@@ -91,27 +119,16 @@ public class PTMAnimationOutput extends PTMOutput {
 	 * output function
 	 */
 	public void output() throws IOException {
-		InstantaneousOutput[] outputData = new InstantaneousOutput[MAX_NUMBER_OF_PARTICLES];
 		int julianMin = Globals.currentModelTime;
 		if (Globals.currentModelTime >= previousOutputTime + outputInterval) {
 			previousOutputTime = Globals.currentModelTime;
+			InstantaneousOutput[] outputData = new InstantaneousOutput[numberOfParticles];
 			updateOutputStructure(outputData);
-			int outputType = getOutputType();
-			if (outputType == Globals.ASCII) {
-				// write out into ascii file
-				writeOutputAscii(outputData);
-			} else if (outputType == Globals.BINARY) {
-				// write out into binary file
-				writeBinary(outputData);
-			}
+			frames.publish(new Frame(Globals.getModelDate(julianMin), Globals.getModelTime(julianMin), outputData));
 		}
 	}
 
-	public void writeBinary(InstantaneousOutput[] outputData) throws IOException {
-		int julianMin = Globals.currentModelTime;
-		String modelDate, modelTime;
-		modelDate = Globals.getModelDate(julianMin);
-		modelTime = Globals.getModelTime(julianMin);
+	public void writeBinary(String modelDate, String modelTime, InstantaneousOutput[] outputData) throws IOException {
 		String line = modelDate;
 		outputStream.writeUTF(line);
 		outputStream.writeShort(new Short(modelTime).shortValue());
@@ -129,12 +146,7 @@ public class PTMAnimationOutput extends PTMOutput {
 	/**
 	 * output ascii
 	 */
-	private final void writeOutputAscii(InstantaneousOutput[] outputData) throws IOException {
-		int julianMin = Globals.currentModelTime;
-		String modelDate, modelTime;
-		modelDate = Globals.getModelDate(julianMin);
-		modelTime = Globals.getModelTime(julianMin);
-
+	private final void writeOutputAscii(String modelDate, String modelTime, InstantaneousOutput[] outputData) throws IOException {
 		String line = modelDate + " " + modelTime;
 		outputWriter.write(line, 0, line.length());
 		outputWriter.newLine();
@@ -192,7 +204,14 @@ public class PTMAnimationOutput extends PTMOutput {
 		}
 	}
 
+	/**
+	 * writes the queued locations and closes the file
+	 */
 	public void FlushAndClose() {
+		frames.close();
+	}
+
+	private final void writeEndOfFile() {
 
 		int outputType = getOutputType();
 		try {
@@ -240,4 +259,23 @@ public class PTMAnimationOutput extends PTMOutput {
 	 */
 	private String endOfFile = "EOF";
 
+	/**
+	 * locations at one output time
+	 */
+	private static final class Frame {
+		final String modelDate, modelTime;
+		final InstantaneousOutput[] outputData;
+
+		Frame(String modelDate, String modelTime, InstantaneousOutput[] outputData) {
+			this.modelDate = modelDate;
+			this.modelTime = modelTime;
+			this.outputData = outputData;
+		}
+	}
+
+	/**
+	 * locations waiting to be written
+	 */
+	private final AsyncOutput<Frame> frames;
+
 }
@@ -20,6 +20,7 @@ C!    along with DSM2.  If not, see <http://www.gnu.org/!<licenses/>.
 package DWR.DMS.PTM;
 
 import java.io.*;
+import java.util.ArrayList;
 import java.util.HashMap;
 
 /**
@@ -521,9 +522,18 @@ public class PTMEnv {
 
 			Filter filter = new Filter(filterIndex, filterName, nodeIndex, wbIndex, wbType);
 			String key = "" + nodeIndex + "," + "" + wbIndex;
-			nodeArray[nodeIndex].setFilterArr(key, filter);
+			nodeArray[nodeIndex].setFilter(filter);
 			filterArr.put(key, filter);
 		}
+
+		// The nodes whose filter operations are refreshed with the hydro data
+		ArrayList<Node> nodes = new ArrayList<Node>();
+		for (int i = 0; i < nodeArray.length; i++) {
+			if (nodeArray[i] != null && nodeArray[i].hasFilters()) {
+				nodes.add(nodeArray[i]);
+			}
+		}
+		filterNodes = nodes.toArray(new Node[nodes.size()]);
 		if (DEBUG)
 			System.out.println("Done with setNodeFilter");
 	}
@@ -540,7 +550,7 @@ public class PTMEnv {
 	 */
 	public final void getHydroInfo(int currentTime) {
 		// Indicates whether the current (0) or next (1) time step is being read
-		int timeStepIndex;
+		int timeStepIndex, nextReadTime;
 		boolean readHydro = false;
 
 		// If the currentModelTime is after the nextHydroReadTime, read the hydro data.
@@ -558,6 +568,10 @@ public class PTMEnv {
 		}
 
 		if (readHydro) {
+			// From here on the tidefile is only read through the prefetcher's reader thread
+			if (hydroPrefetcher == null) {
+				hydroPrefetcher = new HydroPrefetcher(hydroInput, wbArray);
+			}
 
 			// Read the hydro data twice in the first time step: once at the current time step, and
 			// once hydroTimeStep minutes in the future. This will allow for
@@ -566,57 +580,123 @@ public class PTMEnv {
 			// data from the previous timeStepIndex=1 can be used again for this timeStepIndex=0.
 			timeStepIndex = 0;
 			if (!readHydroChunk) {
-				hydroInput.getNextChunk(currentTime);
+				currentHydro = hydroPrefetcher.get(currentTime);
 				readHydroChunk = true;
 			}
-			hydroInput.updateWaterbodiesHydroInfo(wbArray, fixedInput.getLimitsFixedData(), timeStepIndex);
+			hydroInput.applySnapshot(currentHydro, wbArray, timeStepIndex);
 
-			// Read the next time step
+			// Read the next time step. This has usually been read in the background already.
 			timeStepIndex = 1;
-			hydroInput.getNextChunk(currentTime + hydroStepSize);
-			hydroInput.updateWaterbodiesHydroInfo(wbArray, fixedInput.getLimitsFixedData(), timeStepIndex);
+			hydroPrefetcher.recycle(currentHydro);
+			currentHydro = hydroPrefetcher.get(currentTime + hydroStepSize);
+			hydroInput.applySnapshot(currentHydro, wbArray, timeStepIndex);
+
+			filterOps = currentHydro.filterOps.clone();
+			for (Node node : filterNodes) {
+				node.updateFilterOps(filterOps);
+			}
+
+			// Start reading the record the next read will need while the particles are updated
+			nextReadTime = getNextHydroReadModelTime(currentTime);
+			if (nextReadTime <= getStartTime() + getRunLength()) {
+				hydroPrefetcher.prefetch(nextReadTime + hydroStepSize);
+			}
 		}
 
-		hydroInput.updateFilterOps();
-		filterOps = hydroInput.getFiltersOps();
+		Waterbody.setHydroInterpolation(Globals.currentModelTime, lastHydroReadTime, getHydroStepSize());
+	}
 
+	/**
+	 * The first model time after currentTime at which getHydroInfo will read hydro data, assuming the model time advances by
+	 * the PTM time step
+	 */
+	private int getNextHydroReadModelTime(int currentTime) {
+		int ptmTimeStep = getPTMTimeStep();
+		int time = currentTime + ptmTimeStep;
+
+		while (nextHydroReadTime >= (time + (ptmTimeStep / 2))) {
+			time += ptmTimeStep;
+		}
+		return time;
 	}
 
 	/**
-	 * Infer the hydro time step and phase (when the flow changes). It would probably be better to be able to read this directly from the
-	 * configuration files, but since there's no native method available and it would be too complicated to read both the hydro start time and the
-	 * tidefile output interval, it'll be easier to infer the time step and phase directly from the flow data itself.
+	 * Read the hydro data from a memory mapped hydro cache, writing the cache from the HDF5 tidefile first if it doesn't exist
+	 */
+	public void useHydroCache(String cacheName, String tidefileName) throws IOException {
+		HDF5HydroSource tidefile;
+
+		if (!new File(cacheName).exists()) {
+			if (tidefileName == null) {
+				System.out.println("Hydro cache " + cacheName + " does not exist and there is no tidefile to create it from");
+				System.exit(-1);
+			}
+			System.out.println("Writing hydro cache " + cacheName + " from " + tidefileName);
+			tidefile = new HDF5HydroSource(tidefileName);
+			MappedHydroCache.write(tidefile, hydroInput, wbArray, cacheName);
+			tidefile.close();
+		}
+		hydroInput.setHydroSource(new MappedHydroCache(cacheName));
+	}
+
+	/**
+	 * Makes the next getHydroInfo read the hydro data at both ends of its hydro step again. Used when the model time skips ahead,
+	 * since the record kept from the last read is then out of date.
+	 */
+	public final void restartHydroInfo() {
+		if (hydroPrefetcher != null && currentHydro != null) {
+			hydroPrefetcher.recycle(currentHydro);
+			currentHydro = null;
+		}
+		readHydroChunk = false;
+	}
+
+	/**
+	 * Stop reading hydro data in the background
+	 */
+	public void closeHydroInput() {
+		if (hydroPrefetcher != null) {
+			hydroPrefetcher.shutdown();
+		}
+		hydroInput.close();
+	}
+
+	/**
+	 * Infer the hydro time step and phase (when the flow changes). A HydroSource gives the record interval and the time of its first
+	 * record directly. The native library has no call for this, so the step and phase are inferred from the flow data itself:
+	 * the flow at the up node of one tidally influenced channel is probed minute by minute until it has changed twice. The native
+	 * reader only moves forward in time, which rules out a binary search, but each probe reads a single value instead of updating
+	 * the whole network.
 	 */
 	public void inferHydroTimeStep() {
 
-		// Once a tidefile is read for a particular time, it's not possible to
-		// go back to an earlier time. Therefore, use flows before the PTM starts
-		// when inferring the hydro time step. 4 hours before should be sufficient.
 		int startTime = getStartTime();
 		int endTime = startTime + getRunLength();
 		float previousFlow, thisFlow;
+		HydroSource source = hydroInput.getHydroSource();
+
+		if (source != null) {
+			// The hydro step starts at the last record at or before the PTM start time
+			hydroStepSize = source.getInterval();
+			hydroStartTime = source.getStartTime() + Math.floorDiv(startTime - source.getStartTime(), hydroStepSize) * hydroStepSize;
+			System.out.println("hydroStartTime:" + hydroStartTime + ", hydroStepSize:" + hydroStepSize);
+			return;
+		}
 
-		// Initialize hydroStartTime so getHydroInfo() has a valid input
+		// Initialize hydroStartTime in case the flow never changes
 		hydroStartTime = getStartTime();
 
 		// Monitor flow in channel 400, which is tidally influenced
 		int channelNum = 400;
-		Waterbody thisWaterbody = getWaterbody(channelNum);
 
 		// Step through time until a change in the flow is detected, Then,
 		// count the number of time steps (minutes) until the next change; this
 		// is the time step size
-		hydroInput.getNextChunk(startTime);
-		hydroInput.updateWaterbodiesHydroInfo(wbArray, fixedInput.getLimitsFixedData(), 0);
-		hydroInput.updateWaterbodiesHydroInfo(wbArray, fixedInput.getLimitsFixedData(), 1);
-		previousFlow = ((SmartChannel) thisWaterbody).getFlow(0f);
+		previousFlow = hydroInput.probeUpNodeFlow(channelNum, startTime);
 
 		hydroStepSize = 0;
 		for (int time = startTime; time <= endTime; time++) {
-			hydroInput.getNextChunk(time);
-			hydroInput.updateWaterbodiesHydroInfo(wbArray, fixedInput.getLimitsFixedData(), 0);
-			hydroInput.updateWaterbodiesHydroInfo(wbArray, fixedInput.getLimitsFixedData(), 1);
-			thisFlow = ((SmartChannel) thisWaterbody).getFlow(0f);
+			thisFlow = hydroInput.probeUpNodeFlow(channelNum, time);
 			// The first time the flow changes, start counting the step size
 			if (thisFlow != previousFlow && hydroStepSize == 0) {
 				hydroStartTime = time;
@@ -631,7 +711,6 @@ public class PTMEnv {
 			else if (hydroStepSize > 0) {
 				hydroStepSize++;
 			}
-			;
 		}
 
 		// Set hydroStartTime to before the PTM start time
@@ -720,6 +799,14 @@ public class PTMEnv {
 	 * hydrodynamic input from tide file
 	 */
 	private PTMHydroInput hydroInput;
+	/**
+	 * reads the tidefile ahead on a background thread once the run starts
+	 */
+	private HydroPrefetcher hydroPrefetcher;
+	/**
+	 * hydro record applied at timeStepIndex 1
+	 */
+	private HydroSnapshot currentHydro;
 	/**
 	 * array of waterbodies
 	 */
@@ -761,6 +848,10 @@ public class PTMEnv {
 	 * filters' operation for the current timestamp
 	 */
 	private float[] filterOps; // 1-pass;0-block.
+	/**
+	 * nodes with filters attached
+	 */
+	private Node[] filterNodes = new Node[0];
 
 	private int maxNumberOfWaterbodies;
 	private int maxNumberOfNodes;
@@ -45,6 +45,10 @@ public class PTMFixedInput {
 		pFD = _fixedData.getParticleFixedData();
 		fFD = _fixedData.getFluxFixedData();
 		fD = _fixedData.getFiltersFixedData();
+		// read once, as the particles and the time loop ask for these while the tidefile is read in the background
+		startTime = _fixedData.getModelStartTime();
+		endTime = _fixedData.getModelEndTime();
+		PTMTimeStep = _fixedData.getPTMTimeStep();
 	}
 
 	/**
@@ -388,14 +392,14 @@ public class PTMFixedInput {
 	 * Gets the start run time in julian minutes
 	 */
 	public final int getStartTime() {
-		return _fixedData.getModelStartTime();
+		return startTime;
 	}
 
 	/**
 	 * Gets the end run time in julian minutes
 	 */
 	public final int getEndTime() {
-		return _fixedData.getModelEndTime();
+		return endTime;
 	}
 
 	/**
@@ -409,7 +413,7 @@ public class PTMFixedInput {
 	 * Gets the time step in minutes
 	 */
 	public final int getPTMTimeStep() {
-		return _fixedData.getPTMTimeStep();
+		return PTMTimeStep;
 	}
 
 	/**
@@ -526,6 +530,10 @@ public class PTMFixedInput {
 	 * filters fixed data
 	 */
 	private FiltersFixedData fD;
+	/**
+	 * run start and end times in julian minutes, and the time step in minutes
+	 */
+	private final int startTime, endTime, PTMTimeStep;
 	/**
 	 *
 	 */
@@ -56,7 +56,9 @@ public class PTMFluxOutput extends PTMOutput {
 	 */
 	public PTMFluxOutput(int startTime) {
 		super();
-		initializeFluxOutput(startTime);
+		synchronized (Globals.NATIVE_LOCK) {
+			initializeFluxOutput(startTime);
+		}
 	}
 
 	/**
@@ -105,38 +107,43 @@ public class PTMFluxOutput extends PTMOutput {
 		if (genericFlux[0] == null)
 			return;
 
-		float fluxOut;
-		//
-		for (int cTime = genericFlux[0].getStartTime(); cTime < genericFlux[0].getEndTime(); cTime += genericFlux[0].getPTMTimeStep()) {
-
-			// Node
-			for (int i = 0; i < nFlux; i++) {
-				if (fluxPercent) {
-					fluxOut = (fluxAtNode[i].getFlux(cTime) * 100.0f) / fluxAtNode[i].getNumberOfParticles();
-				} else {
-					fluxOut = (fluxAtNode[i].getFlux(cTime));
+		// the native library is shared with the tidefile reader
+		synchronized (Globals.NATIVE_LOCK) {
+			float fluxOut;
+			//
+			for (int cTime = genericFlux[0].getStartTime(); cTime < genericFlux[0].getEndTime(); cTime += genericFlux[0].getPTMTimeStep()) {
+
+				// Node
+				for (int i = 0; i < nFlux; i++) {
+					if (fluxPercent) {
+						fluxOut = (fluxAtNode[i].getFlux(cTime) * 100.0f) / fluxAtNode[i].getNumberOfParticles();
+					} else {
+						fluxOut = (fluxAtNode[i].getFlux(cTime));
+					}
+					setFlux(i + 1, fluxOut);
 				}
-				setFlux(i + 1, fluxOut);
-			}
-			// Group
-			for (int i = 0; i < nGroup; i++) {
-				if (groupPercent) {
-					fluxOut = (groupAtNode[i].getFlux(cTime) * 100.0f) / groupAtNode[i].getNumberOfParticles();
-				} else {
-					fluxOut = (groupAtNode[i].getFlux(cTime));
+				// Group
+				for (int i = 0; i < nGroup; i++) {
+					if (groupPercent) {
+						fluxOut = (groupAtNode[i].getFlux(cTime) * 100.0f) / groupAtNode[i].getNumberOfParticles();
+					} else {
+						fluxOut = (groupAtNode[i].getFlux(cTime));
+					}
+					setGroup(i + 1, fluxOut);
 				}
-				setGroup(i + 1, fluxOut);
-			}
 
-			writeFluxOutput();
-		} // end for(cTime)
+				writeFluxOutput();
+			} // end for(cTime)
+		}
 	}
 
 	/**
 	 * 
 	 */
 	public void closeFile() {
-		closeFluxOutput();
+		synchronized (Globals.NATIVE_LOCK) {
+			closeFluxOutput();
+		}
 	}
 
 	protected native void initializeFluxOutput(int startTime);
@@ -52,6 +52,8 @@ package DWR.DMS.PTM;
  * <p>
  * This information is then used to update the Waterbody object array.
  * <p>
+ * A HydroSource, such as HDF5HydroSource, can be set to read the hydro values from the tidefile instead of the fortran functions.
+ * <p>
  * 
  * @author Nicky Sandhu
  * @version $Id: PTMHydroInput.java,v 1.3.6.1 2006/04/04 18:16:24 eli2 Exp $
@@ -62,72 +64,152 @@ public class PTMHydroInput {
 	 */
 	private final static boolean DEBUG = false;
 
+	/**
+	 * channels in the waterbody array and the waterbody indices of the reservoirs, stage boundaries,
+	 * boundaries and conveyors
+	 */
+	private int[] channelNumbers, reservoirEnvIndices, stageBoundaryEnvIndices, boundaryEnvIndices, conveyorEnvIndices;
+	/**
+	 * local node index of each connection of each reservoir, indexed by reservoir number and connection - 1
+	 */
+	private int[][] reservoirConnectionNodes;
+	private int numberOfFilters;
+	/**
+	 * source of the hydro values; null to read them through the native library
+	 */
+	private HydroSource hydroSource;
+	/**
+	 * time of the record last asked for with getNextChunk
+	 */
+	private int chunkTime;
+	/**
+	 * whether the native reader has to be kept at the current time for the filter operations
+	 */
+	private boolean nativeFilterOps = true;
+
+	/**
+	 * reads the hydro values from the given source instead of the native library. Filter operations still come from the
+	 * native library, which is only asked to read the tidefile when the run has filters.
+	 */
+	public final void setHydroSource(HydroSource source) {
+		hydroSource = source;
+		synchronized (Globals.NATIVE_LOCK) {
+			nativeFilterOps = source == null || PTMFixedData.getNumberOfFilters() > 0;
+		}
+	}
+
+	/**
+	 * the source of the hydro values, or null if they are read through the native library
+	 */
+	public final HydroSource getHydroSource() {
+		return hydroSource;
+	}
+
+	/**
+	 * reads the record for the given time through the native library and returns the flow at the up node of one channel,
+	 * without copying the rest of the record
+	 */
+	public final float probeUpNodeFlow(int channelNumber, int currentModelTime) {
+		synchronized (Globals.NATIVE_LOCK) {
+			readMultTide(currentModelTime);
+			return getUpNodeFlow(channelNumber);
+		}
+	}
+
+	/**
+	 * releases the hydro source
+	 */
+	public final void close() {
+		if (hydroSource != null) {
+			hydroSource.close();
+		}
+	}
+
 	/**
 	 * the next chunk of data till the next time step
 	 */
-	public final void getNextChunk(int currentModelTime) {
-		readMultTide(currentModelTime);
+	private void getNextChunk(int currentModelTime) {
+		chunkTime = currentModelTime;
+		if (hydroSource == null || nativeFilterOps) {
+			readMultTide(currentModelTime);
+		}
 	}
 
 	/**
-	 * the information in the Waterbody array in PTMEnv
+	 * an empty snapshot sized for this hydro input. Call from the thread that owns the fixed input.
 	 */
-	public final void updateWaterbodiesHydroInfo(Waterbody[] wbArray, LimitsFixedData lFD, int timeStepIndex) {
-		// update Channel depths, flows and area of flow
-		float[] depthArray = new float[2];
-		float[] flowArray = new float[2];
-		float[] stageArray = new float[2];
-		float[] areaArray = new float[2];
-		int numConst = PTMFixedData.getQualConstituentNames().length;
-		float[][] qualityArray = new float[2][numConst];
+	public final HydroSnapshot newSnapshot(Waterbody[] wbArray) {
+		synchronized (Globals.NATIVE_LOCK) {
+			if (channelNumbers == null) {
+				initializeIndices(wbArray);
+			}
+			return new HydroSnapshot(PTMFixedData.getMaximumNumberOfChannels(), reservoirEnvIndices.length - 1,
+					PTMFixedData.getMaximumNumberOfReservoirNodes(), stageBoundaryEnvIndices.length, boundaryEnvIndices.length,
+					conveyorEnvIndices.length, numberOfFilters);
+		}
+	}
 
-		// @todo: external/internal numbers?
-		for (int channelNumber = 1; channelNumber <= PTMFixedData.getMaximumNumberOfChannels(); channelNumber++) {
+	/**
+	 * reads the record for the given time into the snapshot. The native library is held for the whole read, so this
+	 * can run on a thread of its own.
+	 */
+	public final void readSnapshot(HydroSnapshot snapshot, Waterbody[] wbArray, int currentModelTime) {
+		synchronized (Globals.NATIVE_LOCK) {
+			getNextChunk(currentModelTime);
+			captureSnapshot(snapshot, wbArray);
+		}
+		snapshot.time = currentModelTime;
+	}
 
-			if (wbArray[channelNumber] != null) {
-				depthArray[Channel.UPNODE] = getUpNodeDepth(channelNumber);
-				depthArray[Channel.DOWNNODE] = getDownNodeDepth(channelNumber);
+	/**
+	 * copies the values of the record last read into the snapshot
+	 */
+	private void captureSnapshot(HydroSnapshot snapshot, Waterbody[] wbArray) {
+		if (hydroSource != null) {
+			hydroSource.read(this, snapshot, wbArray, chunkTime);
+		} else {
+			captureNativeHydro(snapshot, wbArray);
+		}
+		// filters' operations for this record
+		if (nativeFilterOps) {
+			updateOpsOfFilters();
+			for (int filterNumber = 0; filterNumber < numberOfFilters; filterNumber++) {
+				snapshot.filterOps[filterNumber] = getOpOfFilter(filterNumber);
+			}
+		} else {
+			java.util.Arrays.fill(snapshot.filterOps, 1.0f);
+		}
+	}
 
-				stageArray[Channel.UPNODE] = getUpNodeStage(channelNumber);
-				stageArray[Channel.DOWNNODE] = getDownNodeStage(channelNumber);
+	/**
+	 * copies the hydro values of the record last read by the native library into the snapshot
+	 */
+	private void captureNativeHydro(HydroSnapshot snapshot, Waterbody[] wbArray) {
+		// Reservoir flows of connections that aren't set keep the previous reservoir's values
+		float[] flowArray = new float[PTMFixedData.getMaximumNumberOfReservoirNodes() + 1];
 
-				flowArray[Channel.UPNODE] = getUpNodeFlow(channelNumber);
-				flowArray[Channel.DOWNNODE] = getDownNodeFlow(channelNumber);
+		// update Channel depths, flows and area of flow
+		for (int i = 0; i < channelNumbers.length; i++) {
+			int channelNumber = channelNumbers[i];
+			snapshot.upDepth[channelNumber] = getUpNodeDepth(channelNumber);
+			snapshot.downDepth[channelNumber] = getDownNodeDepth(channelNumber);
 
-				areaArray[Channel.UPNODE] = getUpNodeArea(channelNumber);
-				areaArray[Channel.DOWNNODE] = getDownNodeArea(channelNumber);
+			snapshot.upStage[channelNumber] = getUpNodeStage(channelNumber);
+			snapshot.downStage[channelNumber] = getDownNodeStage(channelNumber);
 
-				for (int indx = 0; indx < qualityArray[0].length; indx++) {
-					// fixme: got rid of quality temporarily
-					qualityArray[Channel.UPNODE][0] = 0.f; // getUpNodeQuality(channelNumber,indx+1);
-					qualityArray[Channel.DOWNNODE][0] = 0.f; // getDownNodeQuality(channelNumber,indx+1);
-				}
+			snapshot.upFlow[channelNumber] = getUpNodeFlow(channelNumber);
+			snapshot.downFlow[channelNumber] = getDownNodeFlow(channelNumber);
 
-				// if(channelNumber == 54 || dsmNumber == 54)
-				// System.out.println("Channel:"+dsmNumber+"upnode:"+qualityArray[0][0]);
-				// if(channelNumber == 7)
-				// System.out.println("Channel:"+dsmNumber+"flow:"+flowArray[1]);
-				// if(dsmNumber == 8 || dsmNumber == 54)
-				// System.out.println("Channel:"+channelNumber+"flow:"+flowArray[0]);
-				((Channel) wbArray[channelNumber]).setDepth(depthArray, timeStepIndex);
-				((Channel) wbArray[channelNumber]).setStage(stageArray, timeStepIndex);
-				((Channel) wbArray[channelNumber]).setFlow(flowArray, timeStepIndex);
-				((Channel) wbArray[channelNumber]).setArea(areaArray, timeStepIndex);
-				// todo: disabled quality here
-				// ((Channel) wbArray[dsmNumber]).setQuality(qualityArray);
-			}
+			snapshot.upArea[channelNumber] = getUpNodeArea(channelNumber);
+			snapshot.downArea[channelNumber] = getDownNodeArea(channelNumber);
+			// todo: disabled quality here
 		}
 		// update Reservoir dynamic information
-		flowArray = new float[PTMFixedData.getMaximumNumberOfReservoirNodes() + 1];
-		depthArray = new float[1];
-		for (int reservoirNumber = 1; reservoirNumber <= PTMFixedData.getMaximumNumberOfReservoirs(); reservoirNumber++) {
-			int envIndex = PTMFixedData.getUniqueIdForReservoir(reservoirNumber);
+		for (int reservoirNumber = 1; reservoirNumber < reservoirEnvIndices.length; reservoirNumber++) {
+			int envIndex = reservoirEnvIndices[reservoirNumber];
 
 			if (wbArray[envIndex] != null) {
-				float volume = getReservoirVolume(reservoirNumber);
-				((Reservoir) wbArray[envIndex]).setVolume(volume);
-				if (DEBUG)
-					System.out.println(wbArray[envIndex]);
+				snapshot.reservoirVolume[reservoirNumber] = getReservoirVolume(reservoirNumber);
 				// update Reservoir flows except for pumping flow which is set later
 				for (int connection = 1; connection <= wbArray[envIndex].getNumberOfNodes(); connection++) {
 					int nodeNumber = getNodeNumberForConnection(reservoirNumber, connection);
@@ -142,36 +224,112 @@ public class PTMHydroInput {
 					flowArray[nodeLocalIndex] = getReservoirFlowForConnection(reservoirNumber, connection);
 					if (DEBUG) {
 						System.out.println("Resrvoir # " + reservoirNumber + " Connection #: " + connection + " flow= "
-								+ getReservoirFlowForConnection(reservoirNumber, connection));
+								+ flowArray[nodeLocalIndex]);
 					}
 				}
-				if (DEBUG) {
-					System.out.print("Wb EnvIndex: " + envIndex + "Reservoir local index: " + reservoirNumber);
-					for (int j = 0; j < wbArray[envIndex].getNumberOfNodes(); j++)
-						System.out.println(", flow = " + flowArray[j]);
-				}
-				wbArray[envIndex].setFlow(flowArray, timeStepIndex);
+				System.arraycopy(flowArray, 0, snapshot.reservoirFlow[reservoirNumber], 0, flowArray.length);
+				//
+				snapshot.reservoirDepth[reservoirNumber] = getReservoirDepth(reservoirNumber);
+			}
+		}
+		// update stage boundary flows
+		for (int stgId = 0; stgId < stageBoundaryEnvIndices.length; stgId++) {
+			if (wbArray[stageBoundaryEnvIndices[stgId]] != null) {
+				snapshot.stageBoundaryFlow[stgId] = getStageBoundaryFlow(stgId);
+			}
+		}
+		// update boundary flows
+		for (int extId = 0; extId < boundaryEnvIndices.length; extId++) {
+			snapshot.boundaryFlow[extId] = getBoundaryFlow(extId);
+		}
+		// update internal or conveyor flows
+		for (int intId = 0; intId < conveyorEnvIndices.length; intId++) {
+			snapshot.conveyorFlow[intId] = getConveyorFlow(intId);
+		}
+	}
+
+	/**
+	 * channels present in the waterbody array
+	 */
+	final int[] getChannelNumbers() {
+		return channelNumbers;
+	}
+
+	/**
+	 * waterbody indices of the reservoirs, indexed by reservoir number
+	 */
+	final int[] getReservoirEnvIndices() {
+		return reservoirEnvIndices;
+	}
+
+	/**
+	 * local node index of each reservoir connection, indexed by reservoir number and connection - 1; null for reservoirs
+	 * not in the waterbody array
+	 */
+	final int[][] getReservoirConnectionNodes() {
+		return reservoirConnectionNodes;
+	}
+
+	/**
+	 * updates the information in the Waterbody array from a snapshot
+	 */
+	public final void applySnapshot(HydroSnapshot snapshot, Waterbody[] wbArray, int timeStepIndex) {
+		// update Channel depths, flows and area of flow
+		float[] depthArray = new float[2];
+		float[] flowArray = new float[2];
+		float[] stageArray = new float[2];
+		float[] areaArray = new float[2];
+
+		for (int i = 0; i < channelNumbers.length; i++) {
+			int channelNumber = channelNumbers[i];
+			depthArray[Channel.UPNODE] = snapshot.upDepth[channelNumber];
+			depthArray[Channel.DOWNNODE] = snapshot.downDepth[channelNumber];
+
+			stageArray[Channel.UPNODE] = snapshot.upStage[channelNumber];
+			stageArray[Channel.DOWNNODE] = snapshot.downStage[channelNumber];
+
+			flowArray[Channel.UPNODE] = snapshot.upFlow[channelNumber];
+			flowArray[Channel.DOWNNODE] = snapshot.downFlow[channelNumber];
+
+			areaArray[Channel.UPNODE] = snapshot.upArea[channelNumber];
+			areaArray[Channel.DOWNNODE] = snapshot.downArea[channelNumber];
+
+			((Channel) wbArray[channelNumber]).setDepth(depthArray, timeStepIndex);
+			((Channel) wbArray[channelNumber]).setStage(stageArray, timeStepIndex);
+			((Channel) wbArray[channelNumber]).setFlow(flowArray, timeStepIndex);
+			((Channel) wbArray[channelNumber]).setArea(areaArray, timeStepIndex);
+			((Channel) wbArray[channelNumber]).updateHydroState();
+		}
+		// update Reservoir dynamic information
+		depthArray = new float[1];
+		for (int reservoirNumber = 1; reservoirNumber < reservoirEnvIndices.length; reservoirNumber++) {
+			int envIndex = reservoirEnvIndices[reservoirNumber];
+
+			if (wbArray[envIndex] != null) {
+				((Reservoir) wbArray[envIndex]).setVolume(snapshot.reservoirVolume[reservoirNumber]);
+				if (DEBUG)
+					System.out.println(wbArray[envIndex]);
+				wbArray[envIndex].setFlow(snapshot.reservoirFlow[reservoirNumber], timeStepIndex);
 				//
-				depthArray[0] = getReservoirDepth(reservoirNumber);
+				depthArray[0] = snapshot.reservoirDepth[reservoirNumber];
 				((Reservoir) wbArray[envIndex]).setDepth(depthArray, timeStepIndex);
 			}
 		}
 		// update stage boundary flows
 		flowArray = new float[1];
-		for (int stgId = 0; stgId < PTMFixedData.getMaximumNumberOfStageBoundaries(); stgId++) {
-			int envIndex = PTMFixedData.getUniqueIdForStageBoundary(stgId);
+		for (int stgId = 0; stgId < stageBoundaryEnvIndices.length; stgId++) {
+			int envIndex = stageBoundaryEnvIndices[stgId];
 			if (wbArray[envIndex] != null) {
-				flowArray[0] = getStageBoundaryFlow(stgId);
+				flowArray[0] = snapshot.stageBoundaryFlow[stgId];
 				wbArray[envIndex].setFlow(flowArray, timeStepIndex);
 			}
 		}
 		// update boundary flows
 		if (DEBUG)
 			System.out.println("Updating external flows");
-		flowArray = new float[1];
-		for (int extId = 0; extId < PTMFixedData.getMaximumNumberOfBoundaryWaterbodies(); extId++) {
-			flowArray[0] = getBoundaryFlow(extId);
-			int envIndex = PTMFixedData.getUniqueIdForBoundary(extId);
+		for (int extId = 0; extId < boundaryEnvIndices.length; extId++) {
+			flowArray[0] = snapshot.boundaryFlow[extId];
+			int envIndex = boundaryEnvIndices[extId];
 			if (DEBUG) {
 				System.out.println("Wb EnvIndex: " + envIndex + "extId: " + extId + ", flow = " + flowArray[0]);
 			}
@@ -182,10 +340,10 @@ public class PTMHydroInput {
 		if (DEBUG)
 			System.out.println("Updating internal flows");
 		flowArray = new float[2];
-		for (int intId = 0; intId < PTMFixedData.getMaximumNumberOfConveyors(); intId++) {
-			flowArray[0] = getConveyorFlow(intId);
-			flowArray[1] = -getConveyorFlow(intId);
-			int envIndex = PTMFixedData.getUniqueIdForConveyor(intId);
+		for (int intId = 0; intId < conveyorEnvIndices.length; intId++) {
+			flowArray[0] = snapshot.conveyorFlow[intId];
+			flowArray[1] = -snapshot.conveyorFlow[intId];
+			int envIndex = conveyorEnvIndices[intId];
 			if (DEBUG) {
 				System.out.println("Wb EnvIndex: " + envIndex + "Id: " + intId + ", flow = " + flowArray[0] + ", " + flowArray[1]);
 			}
@@ -199,24 +357,57 @@ public class PTMHydroInput {
 	}
 
 	/**
-	 * update filters' operations to the current timestamp
+	 * looks up the channels present in the waterbody array and the waterbody indices of the reservoirs,
+	 * boundaries and conveyors once, so the snapshots can be filled without going back to the fixed data
 	 */
-	public void updateFilterOps() {
-		updateOpsOfFilters();
-	}
+	private void initializeIndices(Waterbody[] wbArray) {
+		int count = 0;
+		int maxChannels = PTMFixedData.getMaximumNumberOfChannels();
+		int[] channels = new int[maxChannels];
 
-	/**
-	 * get filters' operations at the current timestamp
-	 */
-	public float[] getFiltersOps() {
-		int numberFilters = PTMFixedData.getNumberOfFilters();
-		float[] filterOps = new float[numberFilters];
+		// @todo: external/internal numbers?
+		for (int channelNumber = 1; channelNumber <= maxChannels; channelNumber++) {
+			if (wbArray[channelNumber] != null) {
+				channels[count++] = channelNumber;
+			}
+		}
+		channelNumbers = java.util.Arrays.copyOf(channels, count);
 
-		for (int filterNumber = 0; filterNumber < numberFilters; filterNumber++) {
-			filterOps[filterNumber] = getOpOfFilter(filterNumber);
+		reservoirEnvIndices = new int[PTMFixedData.getMaximumNumberOfReservoirs() + 1];
+		for (int reservoirNumber = 1; reservoirNumber < reservoirEnvIndices.length; reservoirNumber++) {
+			reservoirEnvIndices[reservoirNumber] = PTMFixedData.getUniqueIdForReservoir(reservoirNumber);
 		}
+		reservoirConnectionNodes = new int[reservoirEnvIndices.length][];
+		for (int reservoirNumber = 1; reservoirNumber < reservoirEnvIndices.length; reservoirNumber++) {
+			Waterbody reservoir = wbArray[reservoirEnvIndices[reservoirNumber]];
 
-		return filterOps;
+			if (reservoir == null) {
+				continue;
+			}
+			reservoirConnectionNodes[reservoirNumber] = new int[reservoir.getNumberOfNodes()];
+			for (int connection = 1; connection <= reservoir.getNumberOfNodes(); connection++) {
+				int nodeNumber = getNodeNumberForConnection(reservoirNumber, connection);
+				int nodeLocalIndex = reservoir.getNodeLocalIndex(nodeNumber);
+				if (nodeLocalIndex == -1) {
+					System.out.println("PTMHydroInput.java: Node " + nodeNumber + " not found in waterbody " + reservoirEnvIndices[reservoirNumber]);
+					System.exit(-1);
+				}
+				reservoirConnectionNodes[reservoirNumber][connection - 1] = nodeLocalIndex;
+			}
+		}
+		stageBoundaryEnvIndices = new int[PTMFixedData.getMaximumNumberOfStageBoundaries()];
+		for (int stgId = 0; stgId < stageBoundaryEnvIndices.length; stgId++) {
+			stageBoundaryEnvIndices[stgId] = PTMFixedData.getUniqueIdForStageBoundary(stgId);
+		}
+		boundaryEnvIndices = new int[PTMFixedData.getMaximumNumberOfBoundaryWaterbodies()];
+		for (int extId = 0; extId < boundaryEnvIndices.length; extId++) {
+			boundaryEnvIndices[extId] = PTMFixedData.getUniqueIdForBoundary(extId);
+		}
+		conveyorEnvIndices = new int[PTMFixedData.getMaximumNumberOfConveyors()];
+		for (int intId = 0; intId < conveyorEnvIndices.length; intId++) {
+			conveyorEnvIndices[intId] = PTMFixedData.getUniqueIdForConveyor(intId);
+		}
+		numberOfFilters = PTMFixedData.getNumberOfFilters();
 	}
 
 	private native void readMultTide(int currentModelTime);
@@ -103,7 +103,7 @@ public class PTMRestartInput extends PTMInput {
 			line = inputReader.readLine();
 			particles[pNum].fromString(line);
 			if (insertUninserted == true) {
-				if (particles[pNum].inserted == false) {
+				if (particles[pNum].isInserted() == false) {
 					Node nd = particles[pNum].getRecentNode();
 					particles[pNum].setInsertionInfo(Globals.currentModelTime, nd);
 				}
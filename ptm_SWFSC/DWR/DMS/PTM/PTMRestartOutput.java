@@ -66,44 +66,69 @@ public class PTMRestartOutput extends PTMOutput {
 		outputInterval = outInterval;
 		previousOutputTime = Globals.currentModelTime - outputInterval;
 		this.particles = particles;
+		final int outputType = getOutputType();
+		restarts = new AsyncOutput<Restart>("restart", 2, new AsyncOutput.Sink<Restart>() {
+			@Override
+			public void write(Restart restart) throws IOException {
+				if (outputType == Globals.BINARY) {
+					initialize(outputFilename, outputType);
+					outputBinary(restart);
+					outputStream.close();
+				} else if (outputType == Globals.ASCII) {
+					initialize(outputFilename, outputType);
+					outputAscii(restart);
+					outputWriter.close();
+				}
+			}
+
+			@Override
+			public void flush() {
+			}
+
+			@Override
+			public void close() {
+			}
+		});
 		this.output();
 	}
 
 	/**
-	 * output function
+	 * output function; the particle states are taken here and written on the writer thread
 	 */
 	public void output() throws IOException {
 		if (Globals.currentModelTime >= previousOutputTime + outputInterval) {
 			previousOutputTime = Globals.currentModelTime;
-			int outputType = getOutputType();
-			if (outputType == Globals.BINARY) {
-				initialize(outputFilename, outputType);
-				outputBinary();
-				outputStream.close();
-			} else if (outputType == Globals.ASCII) {
-				initialize(outputFilename, outputType);
-				outputAscii();
-				outputWriter.close();
+			String[] lines = new String[particles.length];
+			for (int i = 0; i < particles.length; i++) {
+				if (particles[i] != null)
+					lines[i] = particles[i].toString();
 			}
+			restarts.publish(new Restart(Globals.currentModelTime, Globals.getModelDate(Globals.currentModelTime),
+					Globals.getModelTime(Globals.currentModelTime), lines));
 		}
 	}
 
+	/**
+	 * writes the queued restart output and stops the writer thread
+	 */
+	public void close() {
+		restarts.close();
+	}
+
 	/**
 	 * output ascii
 	 */
-	private final void outputAscii() throws IOException {
-		String modelDate = Globals.getModelDate(Globals.currentModelTime);
-		String modelTime = Globals.getModelTime(Globals.currentModelTime);
-		String line = modelDate + " " + modelTime;
+	private final void outputAscii(Restart restart) throws IOException {
+		String line = restart.modelDate + " " + restart.modelTime;
 		outputWriter.write(line, 0, line.length());
 		outputWriter.newLine();
-		line = particles.length + " ";
+		line = restart.lines.length + " ";
 		outputWriter.write(line, 0, line.length());
 		outputWriter.newLine();
 
-		for (int i = 0; i < particles.length; i++) {
-			if (particles[i] != null) {
-				line = particles[i] + " ";
+		for (int i = 0; i < restart.lines.length; i++) {
+			if (restart.lines[i] != null) {
+				line = restart.lines[i] + " ";
 				outputWriter.write(line, 0, line.length());
 				outputWriter.newLine();
 			}
@@ -113,18 +138,38 @@ public class PTMRestartOutput extends PTMOutput {
 	/**
 	 * output binary
 	 */
-	private final void outputBinary() throws IOException {
-		int nParticles = particles.length;
-		outputStream.writeInt(Globals.currentModelTime);
+	private final void outputBinary(Restart restart) throws IOException {
+		int nParticles = restart.lines.length;
+		outputStream.writeInt(restart.julianMin);
 		outputStream.writeInt(nParticles);
-		for (int i = 0; i < particles.length; i++) {
-			if (particles[i] != null) {
-				String line = particles[i].toString();
-				outputStream.writeUTF(line);
+		for (int i = 0; i < restart.lines.length; i++) {
+			if (restart.lines[i] != null) {
+				outputStream.writeUTF(restart.lines[i]);
 			}
 		}
 	}
 
+	/**
+	 * particle states at one output time
+	 */
+	private static final class Restart {
+		final int julianMin;
+		final String modelDate, modelTime;
+		final String[] lines;
+
+		Restart(int julianMin, String modelDate, String modelTime, String[] lines) {
+			this.julianMin = julianMin;
+			this.modelDate = modelDate;
+			this.modelTime = modelTime;
+			this.lines = lines;
+		}
+	}
+
 	protected int outputInterval, previousOutputTime;
 	protected Particle[] particles;
+
+	/**
+	 * restart output waiting to be written
+	 */
+	private final AsyncOutput<Restart> restarts;
 }
@@ -100,6 +100,16 @@ public class PTMTraceInput extends PTMInput {
 		wbNum[0] = (trace.waterbodyNumber);
 	}
 
+	/**
+	 * closes the trace file
+	 */
+	public final void close() throws IOException {
+		if (inputReader != null)
+			inputReader.close();
+		else if (inputStream != null)
+			inputStream.close();
+	}
+
 	/**
 	 * trace input structure
 	 */
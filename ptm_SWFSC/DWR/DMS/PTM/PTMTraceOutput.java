@@ -52,7 +52,8 @@ import java.io.*;
 import java.lang.*;
 
 /**
- * Outputs trace information to a file in binary or ascii mode.
+ * Outputs trace information to a file in binary or ascii mode. The events are
+ * written on a writer thread.
  * <p>
  */
 public class PTMTraceOutput extends PTMOutput {
@@ -66,16 +67,46 @@ public class PTMTraceOutput extends PTMOutput {
 			writeHeaderAscii(startTime, endTime, PTMTimeStep, nParticles);
 		else if (getOutputType() == Globals.BINARY)
 			writeHeaderBinary(startTime, endTime, PTMTimeStep, nParticles);
+
+		events = new AsyncOutput<TraceEvent>("trace", AsyncOutput.DEFAULT_CAPACITY, new AsyncOutput.Sink<TraceEvent>() {
+			@Override
+			public void write(TraceEvent event) {
+				if (getOutputType() == Globals.ASCII)
+					writeOutputAscii(event.tmStamp, event.particleNum, event.nodeNum, event.wbNum);
+				else if (getOutputType() == Globals.BINARY)
+					writeOutputBinary(event.tmStamp, event.particleNum, event.nodeNum, event.wbNum);
+			}
+
+			@Override
+			public void flush() throws IOException {
+				if (getOutputType() == Globals.ASCII)
+					outputWriter.flush();
+				else
+					outputStream.flush();
+			}
+
+			@Override
+			public void close() throws IOException {
+				if (getOutputType() == Globals.ASCII)
+					outputWriter.close();
+				else
+					outputStream.close();
+			}
+		});
 	}
 
 	/**
-	 * output function
+	 * output function; particles report their events concurrently and the events are queued for the writer thread
 	 */
 	public void output(int tmStamp, int particleNum, int nodeNum, int wbNum) {
-		if (getOutputType() == Globals.ASCII)
-			writeOutputAscii(tmStamp, particleNum, nodeNum, wbNum);
-		else if (getOutputType() == Globals.BINARY)
-			writeOutputBinary(tmStamp, particleNum, nodeNum, wbNum);
+		events.publish(new TraceEvent(tmStamp, particleNum, nodeNum, wbNum));
+	}
+
+	/**
+	 * writes the queued events and closes the file
+	 */
+	public void close() {
+		events.close();
 	}
 
 	/**
@@ -87,7 +118,6 @@ public class PTMTraceOutput extends PTMOutput {
 
 			outputWriter.write(line, 0, line.length());
 			outputWriter.newLine();
-			outputWriter.flush();
 		} catch (IOException ioe) {
 			System.out.println("Exception occurred in PTMTraceOutput.writeOutputAscii");
 			System.out.println("IOException : " + ioe);
@@ -103,7 +133,6 @@ public class PTMTraceOutput extends PTMOutput {
 			outputStream.writeInt(particleNum);
 			outputStream.writeShort(nodeNum);
 			outputStream.writeShort(wbNum);
-			outputStream.flush();
 		} catch (IOException ioe) {
 			System.out.println("Exception occurred in PTMTraceOutput.writeOutputBinary");
 			System.out.println("IOException : " + ioe);
@@ -141,4 +170,22 @@ public class PTMTraceOutput extends PTMOutput {
 		}
 	}
 
+	/**
+	 * one trace event
+	 */
+	private static final class TraceEvent {
+		final int tmStamp, particleNum, nodeNum, wbNum;
+
+		TraceEvent(int tmStamp, int particleNum, int nodeNum, int wbNum) {
+			this.tmStamp = tmStamp;
+			this.particleNum = particleNum;
+			this.nodeNum = nodeNum;
+			this.wbNum = wbNum;
+		}
+	}
+
+	/**
+	 * events waiting to be written
+	 */
+	private final AsyncOutput<TraceEvent> events;
 }
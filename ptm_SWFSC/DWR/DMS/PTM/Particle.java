@@ -19,9 +19,6 @@ C!    along with DSM2.  If not, see <http://www.gnu.org/!<licenses/>.
 package DWR.DMS.PTM;
 
 import java.util.*;
-import edu.cornell.RngPack.*;
-import java.util.HashMap;
-import java.util.Random;
 
 /**
  * 
@@ -67,6 +64,11 @@ import java.util.Random;
  * the Reservoir or some other method. Any other solutions can be mailed to use folks.
  * <p>
  * 
+ * CODING NOTES: STORAGE The state a Particle keeps between time steps lives in the columns of a ParticleStore, so that a large population is
+ * held in a few primitive arrays; a Particle is a view of one slot of the store. State needed only while a Particle is being updated is kept in
+ * the ParticleWorkspace of the updating thread.
+ * <p>
+ * 
  * @author Nicky Sandhu
  * @version $Id: Particle.java,v 1.6.6.1 2006/04/04 18:16:25 eli2 Exp $
  * 
@@ -78,29 +80,17 @@ public class Particle {
 	 */
 	public int Id;
 	/**
-	 * x position is the distance along the length of the Channel. direction being from upnode to downnode direction
-	 */
-	public float x;
-	/**
-	 * y position is the distance from the center line. direction being to the right side if one is facing the +ve x direction.
-	 */
-	public float y;
-	/**
-	 * z position is the distance from the bottom of the Channel. direction being the direction from the bottom to the top.
-	 */
-	public float z;
-	/**
-	 * age of Particle in minutes since insertion
+	 * Storage of the state kept between time steps; this Particle's entries are at index slot of the store columns. x position is the distance
+	 * along the length of the Channel. direction being from upnode to downnode direction. y position is the distance from the center line.
+	 * direction being to the right side if one is facing the +ve x direction. z position is the distance from the bottom of the Channel. direction
+	 * being the direction from the bottom to the top. age is the age of Particle in minutes since insertion.
 	 */
-	public float age;
+	protected final ParticleStore store;
+	protected final int slot;
 	/**
-	 * keeps track of if Particle alive or dead
+	 * Workspace of the thread updating this Particle; only set while the Particle is being updated
 	 */
-	public boolean isDead;
-	/**
-	 * inserted or not inserted
-	 */
-	public boolean inserted;
+	protected ParticleWorkspace ws;
 	/**
 	 *
 	 */
@@ -112,34 +102,35 @@ public class Particle {
 	public static int mixCase;
 	public static float minTimeStepMax = 10.0f;
 
-	// Keep track of distance and time traveled
-	public HashMap<Integer, double[]> movementTimeDistance = new HashMap<Integer, double[]>();
-	public double totalDistance = 0.0;
-	public double totalTime = 0.0;
-
-	Random generator = new Random(); // VKS: RNG
-
 	/**
-	 * Creates a default Particle The random number generator is initialized to random_seed The vertical/transverse profiles are set to true
+	 * Creates a default Particle backed by its own single slot store
 	 */
 	public Particle(ParticleFixedInfo pFI) {
+		this(pFI, new ParticleStore(1));
+	}
+
+	/**
+	 * Creates a default Particle in the next free slot of store. The random number stream is keyed by random_seed and the Particle Id. The
+	 * vertical/transverse profiles are set to true
+	 */
+	public Particle(ParticleFixedInfo pFI, ParticleStore store) {
 		totalNumberOfParticles++;
 		Id = totalNumberOfParticles;
+		this.store = store;
+		slot = store.add();
 		if (DEBUG)
 			System.out.println("Initializing particle " + Id);
 		if (Id == 1)
 			Particle.setFixedInfo(pFI);
 		if (DEBUG)
 			System.out.println("Initializing static info for particle ");
-		first = true;
-		inserted = false;// particle not in the system yet
+		// each particle owns its random stream so that its trajectory doesn't depend on the update order;
+		// a new slot starts the stream at its beginning, not inserted, not dead, at age 0 and with no waterbody or node
+		store.setFlag(slot, ParticleStore.FIRST, true);
 		Particle.dfac = 0.1f;
-		age = 0;
-		wb = null;
+		store.repositionFactor[slot] = INITIAL_REPOSITION_FACTOR;
 		// todo: eli did this work?
 		// wb = NullWaterbody.getInstance();
-		nd = null;
-		isDead = false;
 		// if (DEBUG) System.out.println("Fall velocity");
 		// fallvel = pFI.getFallVelocity();
 		// behaviorData = pFI.getBehavior();
@@ -149,17 +140,17 @@ public class Particle {
 	 * Sets the location of Particle by identifying the Waterbody it is in and the co-ordinate position w.r.t the Waterbody
 	 */
 	public final void setLocation(Waterbody w, float xPos, float yPos, float zPos) {
-		wb = w;
-		x = xPos;
-		y = yPos;
-		z = zPos;
+		store.setWaterbody(slot, w);
+		store.x[slot] = xPos;
+		store.y[slot] = yPos;
+		store.z[slot] = zPos;
 	}
 
 	/**
 	 * Sets the location of Particle by Node Id # and random positioning of Particle within the Waterbody it enters thereupon.
 	 */
 	public final void setLocation(Node n) {
-		nd = n;
+		store.setNode(slot, n);
 	}
 
 	/**
@@ -191,22 +182,22 @@ public class Particle {
 		Channel.constructProfile();
 		Channel.constructProfile();
 		// if (DEBUG) System.out.println("set random seed");
-		if (randomNumberGenerator == null)
-			randomNumberGenerator = new Ranecu(pFI.getRandomSeed());
+		Particle.randomSeed = pFI.getRandomSeed();
 	}
 
 	/**
 	 * Installs observer. This observer observes events such as change from one Waterbody to another and sends a message to other objects from there.
+	 * The observer is shared by all of the particles in the store.
 	 */
 	public final void installObserver(ParticleObserver ob) {
-		observer = ob;
+		store.observer = ob;
 	}
 
 	/**
 	 * uninstalls observer, ie. sets it to null. This may save some runtime, however no flux information can be gleaned from the run.
 	 */
 	public final void uninstallObserver() {
-		observer = null;
+		store.observer = null;
 	}
 
 	/**
@@ -214,12 +205,12 @@ public class Particle {
 	 */
 	public final Waterbody getLocation(float[] px, float[] py, float[] pz) {
 		Waterbody w;
-		w = wb;
-		if (inserted) {
-			if (wb.getPTMType() == Waterbody.CHANNEL) {
-				px[0] = x;
-				py[0] = y;
-				pz[0] = z;
+		w = getCurrentWaterbody();
+		if (isInserted()) {
+			if (w.getPTMType() == Waterbody.CHANNEL) {
+				px[0] = store.x[slot];
+				py[0] = store.y[slot];
+				pz[0] = store.z[slot];
 			} else {
 				px[0] = -1;// -1 for animation output use
 				py[0] = -1;
@@ -249,41 +240,95 @@ public class Particle {
 	}
 
 	/**
-	 * updates the position and parameters of Particle.
+	 * true once the Particle has been inserted in the system
+	 */
+	public final boolean isInserted() {
+		return store.isSet(slot, ParticleStore.INSERTED);
+	}
+
+	/**
+	 * true if the Particle is dead
+	 */
+	public final boolean isDead() {
+		return store.isSet(slot, ParticleStore.DEAD);
+	}
+
+	/**
+	 * marks the Particle as dead
+	 */
+	protected final void setDead() {
+		store.setFlag(slot, ParticleStore.DEAD, true);
+	}
+
+	/**
+	 * updates the position and parameters of Particle using the workspace of the calling thread.
+	 */
+	public final void updatePosition(float delT) {
+		bindWorkspace();
+		stepPosition(delT);
+		unbindWorkspace();
+	}
+
+	/**
+	 * updates the position and parameters of Particle; the workspace is bound.
 	 */
-	public void updatePosition(float delT) {
+	protected void stepPosition(float delT) {
 		// Initialize tmLeft, since it's now used to interpolate between hydro time steps
-		tmLeft = delT;
+		ws.tmLeft = delT;
 
-		particleWait = false; // set or reset particle wait variable
+		ws.particleWait = false; // set or reset particle wait variable
 		if (DEBUG)
 			System.out.println("In updating position for particle " + this);
 
-		if (inserted) {// after initial insertion
-			recursionCounter = 0;
+		if (isInserted()) {// after initial insertion
+			ws.recursionCounter = 0;
 			updateXYZPosition(delT);
 			updateOtherParameters(delT);
 			// System.out.println("update "+Id);
-			if (!isDead)
+			if (!isDead())
 				checkHealth();
 			// if (Id == 1) System.out.println(Id+" "+age+" "+getFallVel());
-		} else if (!inserted && Globals.currentModelTime >= insertionTime) {// when current time reach insertion time
-			if ((Globals.currentModelTime - insertionTime) / 60.0 > delT)
+		} else if (Globals.currentModelTime >= store.insertionTime[slot]) {// when current time reach insertion time
+			if ((Globals.currentModelTime - store.insertionTime[slot]) / 60.0 > delT)
 				// insertion time may set as way before PTM start time
 				warning("Particle insertion time specification may be incorrect");
 			// may include particles 1 time step before the 1st insertion
 			insert();
-			recursionCounter = 0;
+			ws.recursionCounter = 0;
 			updateXYZPosition(delT);
 			updateOtherParameters(delT);
 		}
 	}
 
+	/**
+	 * Borrows the workspace of the calling thread and loads this Particle's random number stream into it
+	 */
+	protected final void bindWorkspace() {
+		ws = ParticleWorkspace.get();
+		ws.clear();
+		ws.random.setStream(randomSeed, Id, store.randomCounter[slot]);
+	}
+
+	/**
+	 * Saves the state of the random number stream and gives the workspace back
+	 */
+	protected final void unbindWorkspace() {
+		store.randomCounter[slot] = ws.random.getCounter();
+		ws = null;
+	}
+
+	/**
+	 * Insertion time in Julian minutes
+	 */
+	public final int getInsertionTime() {
+		return store.insertionTime[slot];
+	}
+
 	/**
 	 * Insertion time and insertion Node
 	 */
 	public final void setInsertionInfo(int particleInsertionTime, Node injectionNode) {
-		this.insertionTime = particleInsertionTime;
+		store.insertionTime[slot] = particleInsertionTime;
 		setLocation(injectionNode);
 	}
 
@@ -291,21 +336,16 @@ public class Particle {
 	 * Get the recent Node which particle just passed or was inserted in
 	 */
 	public final Node getRecentNode() {
-		return nd;
+		return store.getNode(slot);
 	}
 
 	/**
 	 * Get current Waterbody
 	 */
 	public final Waterbody getCurrentWaterbody() {
-		return wb;
+		return store.getWaterbody(slot);
 	}
 
-	/**
-	 * Channel parameters
-	 */
-	protected float channelLength, channelWidth, channelDepth, channelVave, channelArea, channelStage;
-
 	/**
 	 * a flag to see if vertical movement is to be allowed, in other words if vertical mixing is to be allowed
 	 */
@@ -343,94 +383,55 @@ public class Particle {
 	protected static int totalNumberOfParticles;
 
 	/**
-	 * true if it is the first update of position after insertion
-	 */
-	protected boolean first;
-
-	/**
-	 * the Waterbody which the particle currently stays in
-	 */
-	protected Waterbody wb;
-
-	/**
-	 * the Node which the particle was inserted or just passed
-	 */
-	protected Node nd;
-
-	/**
-	 * Time left for completing the current PTM input time step
-	 */
-	protected float tmLeft;
-
-	/**
-	 * Mixing co-efficients
-	 */
-	protected float Ev, dEvdz, Evdt, dEvdzdt, Et, dEtdy, Etdt, dEtdydt;
-	// VKS: Adding correct diffusivity profile
-
-	/**
-	 * Falling velocity of Particle through water
-	 */
-	protected float fallvel;
-
-	/**
-	 * A Particle may be asked to wait instead of move with the velocity An example is when seep flows control at a Node and Particle to seep has been
-	 * turned off. The Particle is asked to remain at its current position.
-	 */
-	protected boolean particleWait;
-
-	/**
-	 * Gaussian random number generator for y and z dispersive movements
-	 */
-	protected static RandomElement randomNumberGenerator;
-
-	/**
-	 * Particle observer
+	 * Seed from the fixed input; combined with the Particle Id to key each Particle's stream
 	 */
-	protected ParticleObserver observer;
+	private static int randomSeed;
 
 	/**
 	 * updates the Particle position for the given time step; input time step is usually divided into small sub-time step to complete the calculation;
-	 * The Particle is moved for the time step given; The new position of the Particle is available as Particle.x, Particle.y and Particle.z
+	 * The Particle is moved for the time step given; The new position of the Particle is available from the store x, y and z columns
 	 */
 	protected final void updateXYZPosition(float delT) {
+		Waterbody wb = getCurrentWaterbody();
 		if (wb.getPTMType() == Waterbody.CHANNEL) {
 			if (DEBUG)
 				System.out.println("Particle " + this + " in channel " + wb.getEnvIndex());
-			tmLeft = delT;
+			ws.tmLeft = delT;
 
 			// update sub-time step due to y & z mixing
 			int numOfSubTimeSteps = getSubTimeSteps(delT);
 			float tmstep = delT / numOfSubTimeSteps;
+			// draw the y & z mixing deviates of all sub-time steps at once
+			ws.fillGaussians(2 * numOfSubTimeSteps);
 			// PTM internal calculation time step
 			float tmToAdv = 0;
 
 			// y, z set up for particles which are just out of reservoir and conveyor
-			if (Macro.APPROX_EQ(y, MISSING) || Macro.APPROX_EQ(z, MISSING)) {
+			if (Macro.APPROX_EQ(store.y[slot], MISSING) || Macro.APPROX_EQ(store.z[slot], MISSING)) {
 				setYZLocationInChannel();
 			}
 
 			// update particle's x,y,z position every sub-time step
-			while (tmLeft > 0 && isDead == false) {
-				if (tmLeft >= tmstep) {// for all sub-time steps except the last
+			while (ws.tmLeft > 0 && isDead() == false) {
+				if (ws.tmLeft >= tmstep) {// for all sub-time steps except the last
 					tmToAdv = tmstep;
 				} else {// for the last sub-time step; deal with division precision & truncation
-					tmToAdv = tmLeft;
+					tmToAdv = ws.tmLeft;
 				}
 
-				age += tmToAdv;
+				store.age[slot] += tmToAdv;
 				updateAllParameters(tmToAdv);
-				if (particleWait == false) {
-					x = calcXPosition(tmToAdv);
+				if (ws.particleWait == false) {
+					store.x[slot] = calcXPosition(tmToAdv);
 					// particle into reservoir/conveyor, out of the whole function
-					if (wb.getPTMType() != Waterbody.CHANNEL)
+					if (getCurrentWaterbody().getPTMType() != Waterbody.CHANNEL)
 						return;
-					if (isDead == false) {// save time if particle's dead
-						y = calcYPosition(tmToAdv);
-						z = calcZPosition(tmToAdv);
+					if (isDead() == false) {// save time if particle's dead
+						store.y[slot] = calcYPosition(tmToAdv);
+						store.z[slot] = calcZPosition(tmToAdv);
 					}
 				} // end if(particleWait)
-				tmLeft -= tmToAdv;
+				ws.tmLeft -= tmToAdv;
 			} // end while
 		} // end if(CHANNEL)
 
@@ -451,7 +452,7 @@ public class Particle {
 		else if (wb.getPTMType() == Waterbody.BOUNDARY) {
 			if (DEBUG)
 				System.out.println("Particle " + this + " in boundary " + wb.getEnvIndex());
-			isDead = true;
+			setDead();
 		}
 	}
 
@@ -459,15 +460,15 @@ public class Particle {
 	 * x,y,z positioning called after Particle insertion or returned from Reservoir/Conveyor
 	 */
 	protected final void setXYZLocationInChannel() {
-		if (wb.getPTMType() == Waterbody.CHANNEL) {
-			x = getXLocationInChannel();
-			if (first)
+		if (getCurrentWaterbody().getPTMType() == Waterbody.CHANNEL) {
+			store.x[slot] = getXLocationInChannel();
+			if (store.isSet(slot, ParticleStore.FIRST))
 				updateChannelParameters();
 			setYZLocationInChannel();
 		} else {
-			x = MISSING;
-			y = MISSING;
-			z = MISSING;
+			store.x[slot] = MISSING;
+			store.y[slot] = MISSING;
+			store.z[slot] = MISSING;
 		}
 	}
 
@@ -475,8 +476,10 @@ public class Particle {
 	 * y, z positioning for particle just out of reservoir/conveyor w random numbers generation
 	 */
 	protected final void setYZLocationInChannel() {
-		y = ((Channel) wb).getWidth(x, tmLeft) * (wb.getRandomNumber() - 0.5f);
-		z = ((Channel) wb).getDepth(x, tmLeft) * wb.getRandomNumber();
+		Channel c = (Channel) getCurrentWaterbody();
+		float x = store.x[slot];
+		store.y[slot] = c.getWidth(x, ws.tmLeft) * (getRandomNumber() - 0.5f);
+		store.z[slot] = c.getDepth(x, ws.tmLeft) * getRandomNumber();
 	}
 
 	/**
@@ -484,7 +487,7 @@ public class Particle {
 	 */
 	protected final float calcXPosition(float timeStep) {
 		// get current position
-		float xPos = this.x;
+		float xPos = store.x[slot];
 
 		// calculate position after timeStep
 		xPos = xPos + calcXDisplacementExtDeterministic(timeStep) + calcXDisplacementExtRandom(timeStep) + calcXDisplacementIntDeterministic(timeStep)
@@ -493,32 +496,32 @@ public class Particle {
 		// when particle crossing the coming node, into next wb
 		if (isNodeReached(xPos) == true) {
 			float timeToReachNode = calcTimeToNode(xPos);
-			tmLeft -= timeToReachNode;
-			age = age - timeStep + timeToReachNode;
+			ws.tmLeft -= timeToReachNode;
+			store.age[slot] = store.age[slot] - timeStep + timeToReachNode;
 
 			// update time spent and distance moved in this waterbody
 			recordMovement(xPos, true, timeToReachNode);
 
 			// block particle before it enters a node, with filter operation 0
-			if (nd.inFilter(wb)) {
-				tmLeft = 0;
-				age = age - timeToReachNode + timeStep;// Kijin: should this be 2*timeStep
+			if (getRecentNode().inFilter(getCurrentWaterbody())) {
+				ws.tmLeft = 0;
+				store.age[slot] = store.age[slot] - timeToReachNode + timeStep;// Kijin: should this be 2*timeStep
 				if (xPos <= 0.0f) {// upstream
 					xPos = 0;
-				} else if (xPos >= channelLength) {// downstream
-					xPos = channelLength;
+				} else if (xPos >= store.channelLength[slot]) {// downstream
+					xPos = store.channelLength[slot];
 				}
 			} else {
 				// make decision on what wb to be entered
-				y = calcYPosition(timeToReachNode);
-				z = calcZPosition(timeToReachNode);
+				store.y[slot] = calcYPosition(timeToReachNode);
+				store.z[slot] = calcZPosition(timeToReachNode);
 				makeNodeDecision();
 			}
 
 			// if (recursionCounter++ > 5) error("Too many recursions in calcXPosition(float)");
-			if (recursionCounter++ > 5) {
-				if (repositionFactor < MAX_R_F) {
-					repositionFactor += RFIncrement;
+			if (ws.recursionCounter++ > 5) {
+				if (store.repositionFactor[slot] < MAX_R_F) {
+					store.repositionFactor[slot] += RFIncrement;
 					//					if (wb instanceof Channel)
 					//					{
 					//						System.out.println("Reposition Factor set to "
@@ -537,15 +540,15 @@ public class Particle {
 					//										+ " at node connected to a non-channel waterbody");
 					//					}
 				}
-				recursionCounter = 0;
+				ws.recursionCounter = 0;
 			}
 
 			// update XYZ for the rest of 1 PTM input time step
-			if (tmLeft > 1.0e-3f) {
-				updateXYZPosition(tmLeft);
+			if (ws.tmLeft > 1.0e-3f) {
+				updateXYZPosition(ws.tmLeft);
 			}
 
-			return x;
+			return store.x[slot];
 		} // end if (nodeReached)
 		else {
 			// update time spent and distance moved in this waterbody
@@ -559,27 +562,15 @@ public class Particle {
 	 */
 	protected final float calcYPosition(float timeStep) {
 		// get current position
-		float yPos = this.y;
+		float yPos = store.y[slot];
 
 		// calculate position after timeStep
 		yPos = yPos + calcYDisplacementExtDeterministic(timeStep) + calcYDisplacementExtRandom(timeStep) + calcYDisplacementIntDeterministic(timeStep)
 		+ calcYDisplacementIntRandom(timeStep);
 
 		// reflection from banks of Channel
-		int k = 0;
-		int MAX_BOUNCING = 100; // max num of iterations to do reflection
-		float halfWidth = channelWidth / 2.0f;
-		while ((yPos < -halfWidth || yPos > halfWidth) && (k <= MAX_BOUNCING)) {
-			if (yPos < -halfWidth)
-				yPos = -halfWidth + (-halfWidth - yPos);
-			if (yPos > halfWidth)
-				yPos = halfWidth - (yPos - halfWidth);
-			k++;
-		}
-
-		if (k > MAX_BOUNCING)
-			error("Too many iterations in calcYPosition()");
-		return (yPos);
+		float halfWidth = store.channelWidth[slot] / 2.0f;
+		return reflect(yPos, -halfWidth, halfWidth);
 	}
 
 	/**
@@ -587,26 +578,37 @@ public class Particle {
 	 */
 	protected final float calcZPosition(float timeStep) {
 		// get current position
-		float zPos = this.z;
+		float zPos = store.z[slot];
+		float channelDepth = store.channelDepth[slot];
 		// calculate position after timeStep
 
 		zPos = zPos + calcZDisplacementExtDeterministic(timeStep) + calcZDisplacementExtRandom(timeStep) + calcZDisplacementIntDeterministic(timeStep)
 		+ calcZDisplacementIntRandom(timeStep);
 
 		// reflections from bottom of Channel and water surface
-		int k = 0;
-		int MAX_BOUNCING = 100;
-		while ((zPos < 0.0 || zPos > channelDepth) && (k <= MAX_BOUNCING)) {
-			if (zPos < 0.0)
-				zPos = -zPos;
-			else if (zPos > channelDepth)
-				zPos = channelDepth - (zPos - channelDepth);
-			k++;
-		}
-		if (k > MAX_BOUNCING) {
-			error("Too many iterations in calcZPosition()");
-		}
-		return (zPos);
+		return reflect(zPos, 0.0f, channelDepth);
+	}
+
+	/**
+	 * Reflects a position off the walls lo and hi as many times as needed to bring it into [lo, hi]. Repeated reflection between two
+	 * walls folds the line with period 2 * (hi - lo), so the position is found in constant time. An empty interval, e.g. a dry channel,
+	 * returns its midpoint.
+	 */
+	static final float reflect(float pos, float lo, float hi) {
+		if (pos >= lo && pos <= hi)
+			return pos;
+
+		double length = (double) hi - lo;
+		if (!(length > 0.0))
+			return 0.5f * (lo + hi);
+
+		double t = ((double) pos - lo) % (2.0 * length);
+		if (t < 0.0)
+			t += 2.0 * length;
+		if (t > length)
+			t = 2.0 * length - t;
+
+		return Math.max(lo, Math.min(hi, (float) (lo + t)));
 	}
 
 	/**
@@ -651,7 +653,7 @@ public class Particle {
 	 */
 	protected float calcYDisplacementExtRandom(float timeStep) {
 		// get y random mixing component
-		float dy = (float) (randomNumberGenerator.gaussian() * Etdt);
+		float dy = (float) (ws.gaussian() * ws.Etdt);
 		// return the random y movement if transverse mixing allowed
 		if (transMove)
 			return (dy);
@@ -686,7 +688,7 @@ public class Particle {
 	 */
 	protected float calcZDisplacementExtRandom(float timeStep) {
 		// get z random mixing component
-		float dz = (float) ((randomNumberGenerator.gaussian() * Evdt) + dEvdzdt);
+		float dz = (float) ((ws.gaussian() * ws.Evdt) + ws.dEvdzdt);
 		// VKS: Adding derivative to get correct stochastic solution
 		// return the random z movement if vertical mixing allowed
 		if (vertMove)
@@ -714,11 +716,13 @@ public class Particle {
 	 */
 	protected float calcXVelocityExtDeterministic() {
 		float xVel;
+		Waterbody wb = getCurrentWaterbody();
 
 		if (wb instanceof SmartChannel) {
 			// return (((Channel) wb).getVelocity(x, y, z, channelVave, channelWidth, channelDepth));
 			// Getting the curvature and bend direction
-			xVel = ((SmartChannel) wb).getVel(x, y, z, channelVave, channelWidth, channelDepth);
+			xVel = ((SmartChannel) wb).getVel(store.x[slot], store.y[slot], store.z[slot], store.channelVave[slot], store.channelWidth[slot],
+					store.channelDepth[slot]);
 		} else
 			xVel = 0.0f;
 
@@ -751,30 +755,31 @@ public class Particle {
 	 * Makes Node decision on which Waterbody to enter into next; update nd, wb, x
 	 */
 	protected void makeNodeDecision() {
+		Node nd = getRecentNode();
 
 		// Node is the current Node in which particle entered
 		// get total outflow from Node and multiply it by random number
 		// send message to observer about change
-		if (observer != null)
-			observer.observeChange(ParticleObserver.NODE_CHANGE, this);
-		float outflow = nd.getTotalEffectiveOutflow(false, tmLeft);
+		if (store.observer != null)
+			store.observer.observeChange(ParticleObserver.NODE_CHANGE, this);
+		float outflow = nd.getTotalEffectiveOutflow(false, ws.tmLeft);
 
 		// if the Node is at a Node with zero flow, for example at the
 		// end of a slough, then move the pParticle into the Channel a
 		// small amount.
 		if (outflow == 0.0f && nd.getNumberOfWaterbodies() == 1) {
-			x = getPerturbedXLocation();
+			store.x[slot] = getPerturbedXLocation();
 			return;
 		}
 		// float out2 = outflow;
 
-		float rand = nd.getRandomNumber();
+		float rand = getRandomNumber();
 		outflow = rand * outflow;
 
 		float flow = 0.0f;
 
 		if (outflow == 0.0) {
-			particleWait = true;
+			ws.particleWait = true;
 			return;
 		}
 
@@ -786,17 +791,17 @@ public class Particle {
 			// this should be read in as an argument
 			// @todo: disabled this feature
 			// if(nd.getWaterbody(waterbodyId).getAccountingType() != flowTypes.evap){
-			flow += nd.getFilterOp(waterbodyId) * nd.getOutflow(waterbodyId, tmLeft);
+			flow += nd.getFilterOp(waterbodyId) * nd.getOutflow(waterbodyId, ws.tmLeft);
 			// }
 		} while (flow < outflow && waterbodyId < nd.getNumberOfWaterbodies());
 
 		// get a pointer to the waterbody in which pParticle entered.
-		wb = nd.getWaterbody(waterbodyId);
+		store.setWaterbody(slot, nd.getWaterbody(waterbodyId));
 		// send message to observer about change
-		if (observer != null)
-			observer.observeChange(ParticleObserver.WATERBODY_CHANGE, this);
+		if (store.observer != null)
+			store.observer.observeChange(ParticleObserver.WATERBODY_CHANGE, this);
 		// set x as beginning of Channel...
-		x = getXLocationInChannel();
+		store.x[slot] = getXLocationInChannel();
 		// @todo: redesign the coding structure of this feature
 	}
 
@@ -806,20 +811,21 @@ public class Particle {
 	protected final void tryCrossReservoir(float timeStep) {
 
 		// adjust time and age
-		age += timeStep;
-		tmLeft = tmLeft - timeStep;
+		store.age[slot] += timeStep;
+		ws.tmLeft = ws.tmLeft - timeStep;
 
 		// Record the amount of time spent in the reservoir
 		recordMovement(0.0f, true, timeStep);
 
 		// get a pointer to the Node into which pParticle enters from Reservoir
-		nd = makeReservoirDecision(timeStep);
+		Node nd = makeReservoirDecision(timeStep);
+		store.setNode(slot, nd);
 
 		if (nd != null) {
 			// makes decision of which Waterbody to go into
 			makeNodeDecision();
 			// set previous depth and width to current depth and width
-			first = true;
+			store.setFlag(slot, ParticleStore.FIRST, true);
 			// ? what should be new x,y,z for the pParticle in the Waterbody?
 			setXYZLocationInChannel();
 		}
@@ -829,24 +835,24 @@ public class Particle {
 	 * moves to the Node with inflow and decides where to go from there...
 	 */
 	protected void moveInConveyor(float delT) {
-		Conveyor c = (Conveyor) wb;
+		Conveyor c = (Conveyor) getCurrentWaterbody();
 		if (DEBUG)
 			System.out.println("Particle in conveyor: " + c);
-		float flow = c.getFlowInto(0, tmLeft);
+		float flow = c.getFlowInto(0, ws.tmLeft);
 		// TODO
-		if ((flow > 0) && !(c.getNode(1).inFilter(wb)))// if no filter
+		if ((flow > 0) && !(c.getNode(1).inFilter(c)))// if no filter
 			setLocation(c.getNode(1));
 		else
 			setLocation(c.getNode(0));
 		if (DEBUG)
-			System.out.println("Current node: " + nd);
+			System.out.println("Current node: " + getRecentNode());
 		makeNodeDecision();
 		if (DEBUG)
-			System.out.println("Current wb: " + wb);
+			System.out.println("Current wb: " + getCurrentWaterbody());
 		if (DEBUG)
-			System.out.println(" wb type: " + wb.getPTMType() + ", waterbody.CHANNEL=" + Waterbody.CHANNEL);
-		if (wb.getPTMType() == Waterbody.CHANNEL) {
-			first = true;
+			System.out.println(" wb type: " + getCurrentWaterbody().getPTMType() + ", waterbody.CHANNEL=" + Waterbody.CHANNEL);
+		if (getCurrentWaterbody().getPTMType() == Waterbody.CHANNEL) {
+			store.setFlag(slot, ParticleStore.FIRST, true);
 			setXYZLocationInChannel();
 		}
 	}
@@ -855,10 +861,12 @@ public class Particle {
 	 * returns Node to which pParticle transitions or null
 	 */
 	protected Node makeReservoirDecision(float timeStep) {
+		Reservoir wb = (Reservoir) getCurrentWaterbody();
+		Node nd;
 
 		// Get total volume of Reservoir and multiply by random number
-		float totvol = ((Reservoir) wb).getTotalVolume(timeStep);
-		float rand = wb.getRandomNumber();
+		float totvol = wb.getTotalVolume(timeStep);
+		float rand = getRandomNumber();
 		totvol = totvol * rand;
 
 		// Get flow volume out first Node
@@ -871,7 +879,7 @@ public class Particle {
 			if (nd.inFilter(wb)) {
 				continue;
 			} // skip the node if it has a res->nd filter
-			flowvol += Math.max(0.0f, ((Reservoir) wb).getVolumeOutflow(nodeId, timeStep, tmLeft));
+			flowvol += Math.max(0.0f, wb.getVolumeOutflow(nodeId, timeStep, ws.tmLeft));
 		} while (flowvol < totvol && nodeId < wb.getNumberOfNodes() - 1);
 
 		if (flowvol > totvol) {
@@ -882,6 +890,13 @@ public class Particle {
 		}
 	}
 
+	/**
+	 * Generate a uniform random real number in (0,1) from this Particle's stream
+	 */
+	protected final float getRandomNumber() {
+		return ((float) ws.random.uniform());
+	}
+
 	/**
 	 * generates error
 	 */
@@ -913,15 +928,15 @@ public class Particle {
 	 * insert particle in the system
 	 */
 	protected void insert() {
-		if (observer != null)
-			observer.observeChange(ParticleObserver.INSERT, this);
-		inserted = true;
+		if (store.observer != null)
+			store.observer.observeChange(ParticleObserver.INSERT, this);
+		store.setFlag(slot, ParticleStore.INSERTED, true);
 		makeNodeDecision();
 		setXYZLocationInChannel();
 	}
 
 	/**
-	 *  
+	 *
 	 */
 	private final void updateAllParameters(float tmstep) {
 		// updates length,width,depth, previousdepth, previouswidth
@@ -934,23 +949,23 @@ public class Particle {
 	 * updates channel length, width, depth, average velocity, area and previous depth, width
 	 */
 	private final void updateChannelParameters() {
-		((Channel) wb).updateChannelParameters(x, cL, cW, cD, cV, cA, cS, tmLeft);
-		channelLength = cL[0];
-		channelWidth = cW[0];
-		channelDepth = cD[0];
-		channelVave = cV[0];
-		channelArea = cA[0];
-		if (first) {
+		((Channel) getCurrentWaterbody()).updateChannelParameters(store.x[slot], ws.cL, ws.cW, ws.cD, ws.cV, ws.cA, ws.cS, ws.tmLeft);
+		store.channelLength[slot] = ws.cL[0];
+		store.channelWidth[slot] = ws.cW[0];
+		store.channelDepth[slot] = ws.cD[0];
+		store.channelVave[slot] = ws.cV[0];
+		store.channelArea[slot] = ws.cA[0];
+		if (store.isSet(slot, ParticleStore.FIRST)) {
 			// previous=current, if transfer from reservoir/conveyor to channel
-			previousChannelDepth = channelDepth;
-			previousChannelWidth = channelWidth;
-			first = false;
+			store.previousChannelDepth[slot] = ws.cD[0];
+			store.previousChannelWidth[slot] = ws.cW[0];
+			store.setFlag(slot, ParticleStore.FIRST, false);
 		}
-		channelStage = cS[0];
+		store.channelStage[slot] = ws.cS[0];
 	}
 
 	/**
-	 *  
+	 *
 	 */
 	protected void updateOtherParameters(float delT) {
 	}
@@ -962,123 +977,124 @@ public class Particle {
 		// VKS: Variables needed for profile use
 		float zP, yP;
 		float yfrac, zfrac;
-		String curvHead;
+		int curvIdx;
 		int bendDir;
-		float channelVaveAbs = Math.abs(channelVave);
+		float channelDepth = store.channelDepth[slot];
+		float channelWidth = store.channelWidth[slot];
+		float channelVaveAbs = Math.abs(store.channelVave[slot]);
+		float y, z;
+		Waterbody wb = getCurrentWaterbody();
+		ParticleWorkspace ws = this.ws;
 
 		// map y & z in new xsection over the node
-		z = z * channelDepth / previousChannelDepth;
-		y = y * channelWidth / previousChannelWidth;
+		z = store.z[slot] * channelDepth / store.previousChannelDepth[slot];
+		y = store.y[slot] * channelWidth / store.previousChannelWidth[slot];
+		store.z[slot] = z;
+		store.y[slot] = y;
 
 		// set previouses to the news..
-		previousChannelDepth = channelDepth;
-		previousChannelWidth = channelWidth;
+		store.previousChannelDepth[slot] = channelDepth;
+		store.previousChannelWidth[slot] = channelWidth;
 
 		switch (mixCase) {
 		case 0: // No mixing
 
 			// Vertical diffusion
-			Evdt = 0.0f;
-			dEvdzdt = 0.0f;
+			ws.Evdt = 0.0f;
+			ws.dEvdzdt = 0.0f;
 
 			// Lateral diffusion
-			Etdt = 0.0f;
-			dEtdydt = 0.0f;
+			ws.Etdt = 0.0f;
+			ws.dEtdydt = 0.0f;
 
 			break;
 
 		case 1: // Constant mixing
 
 			// Vertical diffusion
-			Ev = 0.07f * (0.05f * channelVaveAbs) * channelDepth;
-			Evdt = (float) Math.sqrt(2.0f * Ev * timeStep);
-			dEvdzdt = 0.0f;
+			ws.Ev = 0.07f * (0.05f * channelVaveAbs) * channelDepth;
+			ws.Evdt = (float) Math.sqrt(2.0f * ws.Ev * timeStep);
+			ws.dEvdzdt = 0.0f;
 
 			// Lateral diffusion
-			Et = CtCv * Ev;
-			Etdt = (float) Math.sqrt(2.0f * Et * timeStep);
-			dEtdydt = 0.0f;
+			ws.Et = CtCv * ws.Ev;
+			ws.Etdt = (float) Math.sqrt(2.0f * ws.Et * timeStep);
+			ws.dEtdydt = 0.0f;
 
 			break;
 
 		case 2: // Naive vertical mixing
 
 			// Vertical diffusion
-			Ev = 0.05f * 0.41f * channelVaveAbs * z * (1 - z / channelDepth); // VKS: Parabolic profile
-			Ev = Math.max(Ev, Emin);
-			Evdt = (float) Math.sqrt(2.0f * Ev * timeStep);
-			dEvdzdt = 0.0f;
+			ws.Ev = 0.05f * 0.41f * channelVaveAbs * z * (1 - z / channelDepth); // VKS: Parabolic profile
+			ws.Ev = Math.max(ws.Ev, Emin);
+			ws.Evdt = (float) Math.sqrt(2.0f * ws.Ev * timeStep);
+			ws.dEvdzdt = 0.0f;
 
 			// Lateral diffusion
-			Et = 0.6f * (0.05f * channelVaveAbs) * channelWidth;
-			Etdt = (float) Math.sqrt(2.0f * Et * timeStep);
-			dEtdydt = 0.0f;
+			ws.Et = 0.6f * (0.05f * channelVaveAbs) * channelWidth;
+			ws.Etdt = (float) Math.sqrt(2.0f * ws.Et * timeStep);
+			ws.dEtdydt = 0.0f;
 
 			break;
 
 		case 3: // With Visser (1997) correction
 
 			// Vertical diffusion
-			dEvdz = 0.05f * 0.41f * channelVaveAbs * (1 - 2 * (z / channelDepth)); // VKS: Linear profile
+			ws.dEvdz = 0.05f * 0.41f * channelVaveAbs * (1 - 2 * (z / channelDepth)); // VKS: Linear profile
 
-			zP = z + 0.5f * dEvdz * timeStep;
-			if (zP > channelDepth) // Left water surface
-				zP = Math.max(2*channelDepth - zP, 0);
-			else if (zP < 0.0f) // Left channel bottom
-				zP = Math.min(-zP, channelDepth);
+			// Reflect off the water surface and channel bottom
+			zP = reflect(z + 0.5f * ws.dEvdz * timeStep, 0.0f, channelDepth);
 
-			Ev = 0.05f * 0.41f * channelVaveAbs * zP * (1 - zP / channelDepth);
-			Ev = Math.max(Ev, Emin);
-			dEvdz = Math.max(dEvdz, Emin); // VKS: To account for very small value
-			Evdt = (float) Math.sqrt(2.0f * Ev * timeStep);
-			dEvdzdt = (float) (dEvdz * timeStep); // VKS: deterministic addition to trajectory
+			ws.Ev = 0.05f * 0.41f * channelVaveAbs * zP * (1 - zP / channelDepth);
+			ws.Ev = Math.max(ws.Ev, Emin);
+			ws.dEvdz = Math.max(ws.dEvdz, Emin); // VKS: To account for very small value
+			ws.Evdt = (float) Math.sqrt(2.0f * ws.Ev * timeStep);
+			ws.dEvdzdt = (float) (ws.dEvdz * timeStep); // VKS: deterministic addition to trajectory
 
 			// Lateral diffusion
-			Et = 0.6f * (0.05f * channelVaveAbs) * channelWidth;
-			Etdt = (float) Math.sqrt(2.0f * Et * timeStep);
+			ws.Et = 0.6f * (0.05f * channelVaveAbs) * channelWidth;
+			ws.Etdt = (float) Math.sqrt(2.0f * ws.Et * timeStep);
 
-			dEtdydt = 0.0f;
+			ws.dEtdydt = 0.0f;
 
 			break;
 
 		case 4: // Correct diffusion without cognizance of fish scales of motion
 			// Note: Fix timestep at 10s and see how it changes vs what it is now.
 			// Vertical diffusion
-			zfrac = z / channelDepth; 
+			zfrac = z / channelDepth;
 
-			dEvdz = channelVaveAbs * RiverBendsInput.getVertPosVal(zfrac,2); //VKS: Linear profile with
+			ws.dEvdz = channelVaveAbs * RiverBendsInput.getVertPosVal(zfrac,2); //VKS: Linear profile with
 			//Ross and Sharples (2005) approximations
 
-			Ev = 0.07f * (0.05f * channelVaveAbs) * channelDepth;
-			Evdt = (float) Math.sqrt(2.0f * Ev * timeStep);
-			dEvdzdt = 0.0f;
+			ws.Ev = 0.07f * (0.05f * channelVaveAbs) * channelDepth;
+			ws.Evdt = (float) Math.sqrt(2.0f * ws.Ev * timeStep);
+			ws.dEvdzdt = 0.0f;
 
 			// Lateral diffusion
 			if (wb instanceof SmartChannel) {
 				// Getting the curvature and bend direction
-				curvHead = ((SmartChannel)wb).curvHead;
+				curvIdx = ((SmartChannel)wb).curvIdx;
 				bendDir = ((SmartChannel)wb).bendDir;
 
 				yfrac = 2.0f * y / channelWidth;
-				dEtdy = channelVaveAbs * RiverBendsInput.getLatPosVal(yfrac, curvHead, bendDir, 2);
+				ws.dEtdy = channelVaveAbs * RiverBendsInput.getLatPosVal(yfrac, curvIdx, bendDir, 2);
 
-				yP = y + 0.5f * dEtdy * timeStep;
-				if (yP > (channelWidth/2.0f)) // Left right bank
-					yP = Math.max(channelWidth - yP, -channelWidth/2.0f);
-				else if (yP < -(channelWidth/2.0f)) // Left left bank
-					yP = Math.min(-channelWidth - yP, channelWidth/2.0f);
+				// Reflect off the banks
+				yP = reflect(y + 0.5f * ws.dEtdy * timeStep, -channelWidth/2.0f, channelWidth/2.0f);
 
 				yfrac = 2.0f * yP / channelWidth;
-				Et = channelVaveAbs * channelWidth * RiverBendsInput.getLatPosVal(yfrac, curvHead, bendDir, 1);
-				Et = Math.max(Et, Emin);
-				dEtdy = channelVaveAbs * RiverBendsInput.getLatPosVal(yfrac, curvHead, bendDir, 2);
-				Etdt = (float) Math.sqrt(2.0f * Et * timeStep);
-				dEtdydt = (float) (dEtdy * timeStep); // VKS: deterministic addition to trajectory
+				ws.Et = channelVaveAbs * channelWidth * RiverBendsInput.getLatPosVal(yfrac, curvIdx, bendDir, 1);
+				ws.Et = Math.max(ws.Et, Emin);
+				ws.dEtdy = channelVaveAbs * RiverBendsInput.getLatPosVal(yfrac, curvIdx, bendDir, 2);
+				ws.Etdt = (float) Math.sqrt(2.0f * ws.Et * timeStep);
+				ws.dEtdydt = (float) (ws.dEtdy * timeStep); // VKS: deterministic addition to trajectory
 			} else {
-				Etdt = 0.0f;
-				dEtdydt = 0.0f;
+				ws.Etdt = 0.0f;
+				ws.dEtdydt = 0.0f;
 			}
-			break;			
+			break;
 		}
 	}
 
@@ -1087,13 +1103,13 @@ public class Particle {
 	 */
 	private final boolean isNodeReached(float xpos) {
 		if (xpos < 0.0f) {// crossed starting Node of Channel
-			nd = wb.getNode(Channel.UPNODE);
-		} else if (xpos > channelLength) {// crossed ending Node of Channel
-			nd = wb.getNode(Channel.DOWNNODE);
+			store.setNode(slot, getCurrentWaterbody().getNode(Channel.UPNODE));
+		} else if (xpos > store.channelLength[slot]) {// crossed ending Node of Channel
+			store.setNode(slot, getCurrentWaterbody().getNode(Channel.DOWNNODE));
 		} else
 			return false;
 
-		if (particleWait)
+		if (ws.particleWait)
 			return false; // false if the particle is asked to wait
 
 		return true;
@@ -1108,28 +1124,28 @@ public class Particle {
 		// get velocity sum in X direction
 		float xVel = (calcXVelocityExtDeterministic() + calcXVelocityIntDeterministic() + calcXVelocityExtRandom() + calcXVelocityIntRandom());
 
-		float xStart = x;
+		float xStart = store.x[slot];
 
 		// calculate time taken to reach Node
 		if (xpos < 0.0f) {// if starting node
 			dT = -xStart / xVel;
-		} else if (xpos > channelLength) {// if ending node
-			dT = (channelLength - xStart) / xVel;
+		} else if (xpos > store.channelLength[slot]) {// if ending node
+			dT = (store.channelLength[slot] - xStart) / xVel;
 		}
 
 		return dT;
 	}
 
 	/**
-	 * get the sub-time step used for PTM calculation it is always <= input time step
+	 * get the number of sub-time steps used for PTM calculation in the current Channel; the sub-time step is always <= input time step
 	 */
 	private final int getSubTimeSteps(float timeStep) {
-		float minTimeStep = timeStep;
+		Channel channel = (Channel) getCurrentWaterbody();
+		int currentModelTime = Globals.currentModelTime;
 
-		if ((vertMove != true) && (transMove != true))
-			minTimeStep = timeStep;
-		else
-			minTimeStep = getMinTimeStep();
+		if (!channel.isSizedFor(currentModelTime))
+			updateSubTimeSteps(channel, currentModelTime, ws.hydroBounds);
+		float minTimeStep = channel.getMinTimeStep();
 
 		int numOfSubTimeSteps = 1;
 		if (minTimeStep < timeStep)
@@ -1138,26 +1154,68 @@ public class Particle {
 			numOfSubTimeSteps = 1;
 
 		if (numOfSubTimeSteps > MAX_NUM_OF_SUB_TIME_STEPS) {
-			warning("Number Of Sub Time Steps exceeds a maximum of " + MAX_NUM_OF_SUB_TIME_STEPS);
+			// reported at the end of the run by reportCappedSubTimeSteps
+			channel.countCappedTimeStep(currentModelTime);
 			return MAX_NUM_OF_SUB_TIME_STEPS;
 		} else
 			return numOfSubTimeSteps;
 	}
 
+	/**
+	 * Sets the sub-time step of a Channel for the current PTM time step from the hydro at the start and end of the step. The minimum time
+	 * step is bounded over the whole Channel and the whole step, so the particles in it don't need a parameter update of their own to size
+	 * their sub-time steps.
+	 * Called by the first Particle to move in the Channel during the step, so Channels without particles are never sized.
+	 */
+	private static final void updateSubTimeSteps(Channel channel, int currentModelTime, float[] hydroBounds) {
+		float minTimeStep = Float.MAX_VALUE;
+
+		if ((vertMove == true) || (transMove == true)) {
+			channel.getHydroBounds(hydroBounds);
+			minTimeStep = getMinTimeStep(hydroBounds[0], hydroBounds[1], hydroBounds[2], hydroBounds[3]);
+		}
+
+		channel.setMinTimeStep(minTimeStep, currentModelTime);
+	}
+
+	/**
+	 * Reports the Channels that needed more than the maximum number of sub-time steps
+	 */
+	public static final void reportCappedSubTimeSteps(Channel channel) {
+		if (channel.getNumberOfCappedTimeSteps() > 0)
+			System.out.println("WARNING: Number Of Sub Time Steps exceeded a maximum of " + MAX_NUM_OF_SUB_TIME_STEPS + " in Channel "
+					+ channel.getEnvIndex() + " in " + channel.getNumberOfCappedTimeSteps() + " time steps !");
+	}
+
 	/**
 	 * Minimum time step with vertical or transverse mixing turned on with consider of terminal fall velocity & particle's travel distance <10%
-	 * width/depth in 1 sub-time step
+	 * width/depth in 1 sub-time step. Ev is bounded from above over the Channel: Vave * depth is flow / width, Vave is at least 0.001 and
+	 * the parabolic profiles peak at mid-depth.
 	 */
-	private final float getMinTimeStep() {
+	private static final float getMinTimeStep(float minDepth, float maxDepth, float minWidth, float maxFlow) {
 		// fallvel -. input behavior
 		// float terminalVelocity=Math.max(getFallVel(),1.0e-10f);
 		float terminalVelocity = getTerminalVelocity();
+		float vaveDepth = Math.max(maxFlow / minWidth, 0.001f * maxDepth);
+		float Ev;
+
+		switch (mixCase) {
+		case 1:
+		case 4:
+			Ev = 0.07f * (0.05f * vaveDepth);
+			break;
+		case 2:
+		case 3:
+			Ev = Math.max(0.05f * 0.41f * vaveDepth * 0.25f, Emin);
+			break;
+		default: // No mixing
+			Ev = Emin;
+			break;
+		}
 
-		// get a factor of the Channel
 		// the maximum distance a pParticlecan travel in a time step
-		updateAllParameters(0.0f); // time step not really a factor here.
-		float dzmax = dfac * channelDepth;
-		float dymax = dfac * channelWidth;
+		float dzmax = dfac * minDepth;
+		float dymax = dfac * minWidth;
 		float dtz = Math.min(dzmax / terminalVelocity, dzmax * dzmax / Ev);
 		float dty = (dymax * dymax) / (CtCv * CtCv * Ev);
 
@@ -1176,50 +1234,36 @@ public class Particle {
 	/**
 	 * factor used for calculating minimum time step set outside of method to allow overwriting to include fall velocity
 	 */
-	private float getTerminalVelocity() {
+	private static float getTerminalVelocity() {
 		return 1.0e-10f;
 	}
 
 	/**
-	 * Counts number of recursions done to calculate X position avoid too much small time-step recursion at dead-end channel or it may crash the
-	 * computer
+	 * Initial factor used in repositioning when a no outflow condition is encountered
 	 */
-	private static int recursionCounter;
-
-	/**
-	 * Factor used in repositioning when a no outflow condition is encountered
-	 */
-	private float repositionFactor = 0.00001f;
+	private static final float INITIAL_REPOSITION_FACTOR = 0.00001f;
 
 	/**
 	 * Reposition Factor increment
 	 */
-	private float RFIncrement = 0.0001f;
+	private static final float RFIncrement = 0.0001f;
 
 	/**
 	 * Maximum Repositioning Factor
 	 */
-	private float MAX_R_F = 0.01f;
-
-	/**
-	 * Location state variables to map y,z from previous xsec to new
-	 */
-	private float previousChannelDepth, previousChannelWidth;
-
-	/**
-	 * Insertion time for particle
-	 */
-	private int insertionTime;
+	private static final float MAX_R_F = 0.01f;
 
 	/**
 	 * gets x location in Channel corresponding to upnode and downnode.
 	 */
 	protected final float getXLocationInChannel() {
 		float newXPosition = 0.0f;
+		Waterbody wb = getCurrentWaterbody();
+		int ndIndex = store.nodeIndex[slot];
 		if (wb.getPTMType() == Waterbody.CHANNEL) {
-			if (((Channel) wb).getUpNodeId() == nd.getEnvIndex())
+			if (((Channel) wb).getUpNodeId() == ndIndex)
 				newXPosition = 0;
-			if (((Channel) wb).getDownNodeId() == nd.getEnvIndex())
+			if (((Channel) wb).getDownNodeId() == ndIndex)
 				newXPosition = ((Channel) wb).getLength();
 		}
 		return newXPosition;
@@ -1230,11 +1274,15 @@ public class Particle {
 	 */
 	protected float getPerturbedXLocation() {
 		float newXPosition = 0.0f;
+		Waterbody wb = getCurrentWaterbody();
+		int ndIndex = store.nodeIndex[slot];
+		float channelLength = store.channelLength[slot];
+		float repositionFactor = store.repositionFactor[slot];
 		if (wb.getPTMType() == Waterbody.CHANNEL) {
-			if (((Channel) wb).getUpNodeId() == nd.getEnvIndex())
+			if (((Channel) wb).getUpNodeId() == ndIndex)
 				newXPosition = channelLength * repositionFactor;
 
-			if (((Channel) wb).getDownNodeId() == nd.getEnvIndex())
+			if (((Channel) wb).getDownNodeId() == ndIndex)
 				newXPosition = ((Channel) wb).getLength() - (channelLength * repositionFactor);
 		}
 		return newXPosition;
@@ -1249,20 +1297,14 @@ public class Particle {
 	 */
 	public String toString() {
 		String rep = Id + " ";
-		if (this.wb != null)
-			rep += this.wb.getEnvIndex() + " ";
-		else
-			rep += -1 + " ";
-		if (this.inserted) {
-			rep += this.x + " " + this.y + " " + this.z + " ";
+		rep += store.wbIndex[slot] + " ";
+		if (isInserted()) {
+			rep += store.x[slot] + " " + store.y[slot] + " " + store.z[slot] + " ";
 		} else {
 			rep += -1.0f + " " + -1.0f + " " + -1.0f + " ";
 		}
-		rep += this.insertionTime + " ";
-		if (this.nd != null)
-			rep += this.nd.getEnvIndex() + " ";
-		else
-			rep += -1 + " ";
+		rep += store.insertionTime[slot] + " ";
+		rep += store.nodeIndex[slot] + " ";
 		return rep;
 	}
 
@@ -1275,55 +1317,52 @@ public class Particle {
 			int wbNum = (new Integer(token)).intValue();
 
 			if (wbNum != -1) {
-				this.wb = Globals.Environment.getWaterbody(wbNum);
-				this.inserted = true;
+				store.setWaterbody(slot, Globals.Environment.getWaterbody(wbNum));
+				store.setFlag(slot, ParticleStore.INSERTED, true);
 			} else {
-				this.wb = null;
-				this.inserted = false;
+				store.setWaterbody(slot, null);
+				store.setFlag(slot, ParticleStore.INSERTED, false);
 			}
 
 			token = sToken.nextToken();
-			x = (new Float(token)).floatValue();
+			store.x[slot] = (new Float(token)).floatValue();
 			token = sToken.nextToken();
-			y = (new Float(token)).floatValue();
+			store.y[slot] = (new Float(token)).floatValue();
 			token = sToken.nextToken();
-			z = (new Float(token)).floatValue();
+			store.z[slot] = (new Float(token)).floatValue();
 			token = sToken.nextToken();
-			insertionTime = (new Integer(token)).intValue();
+			store.insertionTime[slot] = (new Integer(token)).intValue();
 			token = sToken.nextToken();
 			int nodeNum = (new Integer(token)).intValue();
 			if (nodeNum != -1)
-				this.nd = Globals.Environment.getNode(nodeNum);
+				store.setNode(slot, Globals.Environment.getNode(nodeNum));
 		} catch (NoSuchElementException e) {
 			System.out.println("Exception while parsing particle string representation");
 		}
 	}
 
-	// array applied for the convenience of vars transfer
-	private float[] cL = new float[1];
-	private float[] cW = new float[1];
-	private float[] cD = new float[1];
-	private float[] cV = new float[1];
-	private float[] cA = new float[1];
-	private float[] cS = new float[1];
-
 	// Randomly choose an index based on a vector of weights
 	public int weightedChoice(double weights[]) {
-		int index, numWeights = weights.length;
-		double rand;
-		double[] cumulativeWeights = new double[numWeights];
+		return weightedChoice(weights, weights.length);
+	}
+
+	// Randomly choose an index based on the first numWeights weights. The cumulative weights are
+	// summed in the same order as before, so no array of them is needed.
+	public int weightedChoice(double weights[], int numWeights) {
+		int index;
+		double rand, totalWeight = weights[0], cumulativeWeight;
 
-		// Calculate the cumulative weights vector
-		cumulativeWeights[0] = weights[0];
 		for (int i = 1; i < numWeights; i++) {
-			cumulativeWeights[i] = cumulativeWeights[i - 1] + weights[i];
+			totalWeight += weights[i];
 		}
 
-		// Randomly choose a location in the cumulativeWeights vector
-		rand = (double) nd.getRandomNumber() * cumulativeWeights[numWeights - 1];
+		// Randomly choose a location in the cumulative weights
+		rand = (double) getRandomNumber() * totalWeight;
 
-		for (index = 0; index < weights.length; index++) {
-			if (rand < cumulativeWeights[index]) {
+		cumulativeWeight = 0.0;
+		for (index = 0; index < numWeights; index++) {
+			cumulativeWeight += weights[index];
+			if (rand < cumulativeWeight) {
 				break;
 			}
 		}
@@ -1332,10 +1371,10 @@ public class Particle {
 
 	}
 
-	// Keep track of time spent and distance traveled in a given channel
+	// Keep track of time spent and distance traveled in a given channel during the current time step
 	public void recordMovement(float xP, boolean reachedNode, float time) {
-		float xStart = this.x;
-		double[] timeDistance = new double[2];
+		float xStart = store.x[slot];
+		float channelLength = store.channelLength[slot];
 		double distance = 0.0f;
 
 		if (reachedNode) {
@@ -1354,19 +1393,8 @@ public class Particle {
 		// moving upstream
 		distance = (double) Math.abs(distance);
 
-		this.totalDistance += distance;
-		this.totalTime += time;
-
-		// If there's already a movementTimeDistance stored for this channel,
-		// just add to it
-		if (movementTimeDistance.containsKey(wb.getEnvIndex())) {
-			timeDistance = movementTimeDistance.get(wb.getEnvIndex());
-			time += timeDistance[0];
-			distance += timeDistance[1];
-		}
-		timeDistance[0] = time;
-		timeDistance[1] = distance;
-		movementTimeDistance.put(wb.getEnvIndex(), timeDistance);
+		// If there's already a movement stored for this channel, the workspace just adds to it
+		ws.addMovement(store.wbIndex[slot], time, distance);
 
 	}
 }
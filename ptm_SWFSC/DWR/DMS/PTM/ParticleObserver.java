@@ -48,6 +48,29 @@ class ParticleObserver {
 	 * destructor public ~ParticleObserver(){ delete output; }
 	 */
 
+	/**
+	 * Constructor for an observer that only reports the events to a FluxMonitor, without a trace file
+	 */
+	public ParticleObserver(FluxMonitor fluxMonitor) {
+		traceOn = false;
+		this.fluxMonitor = fluxMonitor;
+	}
+
+	/**
+	 * also report the events to a FluxMonitor calculating Flux as the particles move
+	 */
+	public final void setFluxMonitor(FluxMonitor fluxMonitor) {
+		this.fluxMonitor = fluxMonitor;
+	}
+
+	/**
+	 * writes the remaining trace events and closes the trace file
+	 */
+	public final void close() {
+		if (output != null)
+			output.close();
+	}
+
 	/**
 	 * Set observer to designated Particle
 	 */
@@ -84,12 +107,12 @@ class ParticleObserver {
 	 * observes the fact that the Particle has been inserted in a node
 	 */
 	public void observeInsert(Particle observed) {
-		if (traceOn) {
+		if (traceOn || fluxMonitor != null) {
 			int time = observed.getCurrentParticleTime();
 			int pId = (int) observed.getId();
 			short nodeId = -1;
 			short wbId = 0;
-			output.output(time, pId, nodeId, wbId);
+			report(time, pId, nodeId, wbId);
 		}
 	}
 
@@ -97,7 +120,7 @@ class ParticleObserver {
 	 * observes the fact that the Particle has entered a Waterbody after encountering a node
 	 */
 	public void observeWaterbodyChange(Particle observed) {
-		if (traceOn) {
+		if (traceOn || fluxMonitor != null) {
 			int time = observed.getCurrentParticleTime();
 			int pId = (int) observed.getId();
 			short nodeId = -1;
@@ -106,7 +129,7 @@ class ParticleObserver {
 			else
 				nodeId = -1;
 			short wbId = (short) observed.getCurrentWaterbody().getEnvIndex();
-			output.output(time, pId, nodeId, wbId);
+			report(time, pId, nodeId, wbId);
 		}
 	}
 
@@ -126,16 +149,26 @@ class ParticleObserver {
 	 * observes the fact that the Particle has died
 	 */
 	public void observeDeath(Particle observed) {
-		if (traceOn) {
+		if (traceOn || fluxMonitor != null) {
 			int time = observed.getCurrentParticleTime();
 			int pId = observed.getId();
 			short nodeId = -1;
 			short wbId = (short) observed.getCurrentWaterbody().getEnvIndex();
 			// short wbId = -1;
-			output.output(time, pId, nodeId, wbId);
+			report(time, pId, nodeId, wbId);
 		}
 	}
 
+	/**
+	 * sends an event to the trace file and the FluxMonitor
+	 */
+	private final void report(int time, int pId, short nodeId, short wbId) {
+		if (traceOn)
+			output.output(time, pId, nodeId, wbId);
+		if (fluxMonitor != null)
+			fluxMonitor.observe(time, pId, nodeId, wbId);
+	}
+
 	/**
 	 * changes go through this function
 	 */
@@ -201,4 +234,9 @@ class ParticleObserver {
 	 * pointer to trace output
 	 */
 	private PTMTraceOutput output;
+
+	/**
+	 * calculates Flux from the events, or null
+	 */
+	private FluxMonitor fluxMonitor;
 }
@@ -0,0 +1,89 @@
+package DWR.DMS.PTM;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Advances the particles over one PTM time step on a fork-join pool.
+// Particles don't interact, so the active particles (see ActiveParticleSet) are split into ranges
+// that are updated concurrently; MainPTM keeps the hydro update and the output serial between steps.
+public class ParticleStepper {
+
+	// Smallest range of particles worth handing to another worker
+	public static final int MIN_PARTICLES_PER_TASK = 64;
+
+	private final int numberOfThreads;
+	private final ForkJoinPool pool;
+
+	private Particle[] particles;
+	private int[] indices;
+	private float timeStep;
+	private int grainSize;
+
+	// Constructor
+	public ParticleStepper(int numberOfThreads) {
+		this.numberOfThreads = Math.max(1, numberOfThreads);
+		if (this.numberOfThreads > 1) {
+			pool = new ForkJoinPool(this.numberOfThreads);
+		} else {
+			pool = null;
+		}
+	}
+
+	public int getNumberOfThreads() {
+		return numberOfThreads;
+	}
+
+	// Worker pool, or null when the particles are updated on the calling thread
+	public ForkJoinPool getPool() {
+		return pool;
+	}
+
+	// Update the positions of the particles at the first numberOfParticles indices of particleIndices
+	// for a time step of delT seconds. Returns once every particle has been updated.
+	public void updatePositions(Particle[] particleArray, int[] particleIndices, int numberOfParticles, float delT) {
+		if (pool == null || numberOfParticles <= MIN_PARTICLES_PER_TASK) {
+			for (int i = 0; i < numberOfParticles; i++) {
+				particleArray[particleIndices[i]].updatePosition(delT);
+			}
+			return;
+		}
+
+		particles = particleArray;
+		indices = particleIndices;
+		timeStep = delT;
+		// Several ranges per thread so the pool can balance fish that cross many junctions
+		grainSize = Math.max(MIN_PARTICLES_PER_TASK, numberOfParticles / (numberOfThreads * 8));
+		pool.invoke(new StepRange(0, numberOfParticles));
+		particles = null;
+		indices = null;
+	}
+
+	// Stop the worker threads at the end of the run
+	public void shutdown() {
+		if (pool != null) {
+			pool.shutdown();
+		}
+	}
+
+	private class StepRange extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int start, end;
+
+		StepRange(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - start <= grainSize) {
+				for (int i = start; i < end; i++) {
+					particles[indices[i]].updatePosition(timeStep);
+				}
+			} else {
+				int mid = (start + end) >>> 1;
+				invokeAll(new StepRange(start, mid), new StepRange(mid, end));
+			}
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package DWR.DMS.PTM;
+
+import java.util.Arrays;
+
+// Structure-of-arrays storage for the persistent state of a population of particles.
+// Each Particle is a thin view (store + slot) onto these columns, so the state of
+// 100k+ fish is held in a handful of primitive arrays instead of one object graph
+// per fish. State that only lives for the duration of a time step is kept in the
+// per-thread ParticleWorkspace instead.
+public class ParticleStore {
+
+	// Flag bits
+	public static final int INSERTED = 1;
+	public static final int DEAD = 2;
+	public static final int FIRST = 4;
+
+	// Waterbody and Node env indices use NONE when the particle has none
+	public static final int NONE = -1;
+
+	protected final int capacity;
+	protected int size;
+
+	// Position in the current waterbody and age (see Particle for definitions)
+	public final float[] x, y, z, age;
+	// Env indices of the current waterbody and of the node last passed
+	public final int[] wbIndex, nodeIndex;
+	public final int[] insertionTime;
+	public final byte[] flags;
+
+	// Channel parameters at the particle's last sub-step
+	public final float[] channelLength, channelWidth, channelDepth, channelVave, channelArea, channelStage;
+	// Depth and width used to map y and z from the previous cross section to the current one
+	public final float[] previousChannelDepth, previousChannelWidth;
+	// Factor used in repositioning when a no outflow condition is encountered
+	public final float[] repositionFactor;
+
+	// State of each particle's random number stream
+	public final long[] randomCounter;
+
+	// Observer shared by all of the particles in the store
+	protected ParticleObserver observer;
+
+	// Constructor
+	public ParticleStore(int capacity) {
+		this.capacity = capacity;
+		size = 0;
+
+		x = new float[capacity];
+		y = new float[capacity];
+		z = new float[capacity];
+		age = new float[capacity];
+		wbIndex = new int[capacity];
+		nodeIndex = new int[capacity];
+		insertionTime = new int[capacity];
+		flags = new byte[capacity];
+
+		channelLength = new float[capacity];
+		channelWidth = new float[capacity];
+		channelDepth = new float[capacity];
+		channelVave = new float[capacity];
+		channelArea = new float[capacity];
+		channelStage = new float[capacity];
+		previousChannelDepth = new float[capacity];
+		previousChannelWidth = new float[capacity];
+		repositionFactor = new float[capacity];
+
+		randomCounter = new long[capacity];
+
+		Arrays.fill(wbIndex, NONE);
+		Arrays.fill(nodeIndex, NONE);
+	}
+
+	// Reserve the next slot for a new particle
+	public int add() {
+		if (size == capacity) {
+			throw new IllegalStateException("ParticleStore is full (capacity " + capacity + ")");
+		}
+		return size++;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public final boolean isSet(int slot, int flag) {
+		return (flags[slot] & flag) != 0;
+	}
+
+	public final void setFlag(int slot, int flag, boolean value) {
+		if (value) {
+			flags[slot] |= flag;
+		} else {
+			flags[slot] &= ~flag;
+		}
+	}
+
+	public final Waterbody getWaterbody(int slot) {
+		int index = wbIndex[slot];
+		return index == NONE ? null : Globals.Environment.getWaterbody(index);
+	}
+
+	public final Node getNode(int slot) {
+		int index = nodeIndex[slot];
+		return index == NONE ? null : Globals.Environment.getNode(index);
+	}
+
+	public final void setWaterbody(int slot, Waterbody w) {
+		wbIndex[slot] = w == null ? NONE : w.getEnvIndex();
+	}
+
+	public final void setNode(int slot, Node n) {
+		nodeIndex[slot] = n == null ? NONE : n.getEnvIndex();
+	}
+}
@@ -28,7 +28,7 @@ C!    along with DSM2.  If not, see <http://www.gnu.org/!<licenses/>.
  */
 package DWR.DMS.PTM;
 
-import java.util.Vector;
+import java.util.Arrays;
 
 public class ParticleTrace {
 
@@ -37,12 +37,9 @@ public class ParticleTrace {
 	 */
 	public ParticleTrace() {
 		traceNumber = 0;
-		channelNumber = new Vector<Integer>(INITIAL_SIZE, RESIZE_STEP);
-		nodeNumber = new Vector<Integer>(INITIAL_SIZE, RESIZE_STEP);
-		entryTime = new Vector<Integer>(INITIAL_SIZE, RESIZE_STEP);
-		channelNumber.insertElementAt(new Integer(0), traceNumber);
-		nodeNumber.insertElementAt(new Integer(0), traceNumber);
-		entryTime.insertElementAt(new Integer(0), traceNumber);
+		channelNumber = new int[INITIAL_SIZE];
+		nodeNumber = new int[INITIAL_SIZE];
+		entryTime = new int[INITIAL_SIZE];
 	}
 
 	/**
@@ -50,12 +47,15 @@ public class ParticleTrace {
 	 */
 	public final void insert(int newChannelNumber, int newNodeNumber, int newEntryTime) {
 		traceNumber++;
-		channelNumber.ensureCapacity(traceNumber + 1);
-		nodeNumber.ensureCapacity(traceNumber + 1);
-		entryTime.ensureCapacity(traceNumber + 1);
-		channelNumber.insertElementAt(new Integer(newChannelNumber), traceNumber);
-		nodeNumber.insertElementAt(new Integer(newNodeNumber), traceNumber);
-		entryTime.insertElementAt(new Integer(newEntryTime), traceNumber);
+		if (traceNumber == entryTime.length) {
+			int newSize = 2 * entryTime.length;
+			channelNumber = Arrays.copyOf(channelNumber, newSize);
+			nodeNumber = Arrays.copyOf(nodeNumber, newSize);
+			entryTime = Arrays.copyOf(entryTime, newSize);
+		}
+		channelNumber[traceNumber] = newChannelNumber;
+		nodeNumber[traceNumber] = newNodeNumber;
+		entryTime[traceNumber] = newEntryTime;
 	}
 
 	/**
@@ -77,21 +77,32 @@ public class ParticleTrace {
 	 * returns node entered from for a given trace number
 	 */
 	public final int getNodeId(int traceNum) {
-		return ((Integer) nodeNumber.elementAt(traceNum)).intValue();
+		checkTraceNumber(traceNum);
+		return nodeNumber[traceNum];
 	}
 
 	/**
 	 * returns the waterbody number for a given trace number
 	 */
 	public final int getWaterbodyId(int traceNum) {
-		return ((Integer) channelNumber.elementAt(traceNum)).intValue();
+		checkTraceNumber(traceNum);
+		return channelNumber[traceNum];
 	}
 
 	/**
 	 * returns the timestamp of the given trace
 	 */
 	public final int getTime(int traceNum) {
-		return ((Integer) entryTime.elementAt(traceNum)).intValue();
+		checkTraceNumber(traceNum);
+		return entryTime[traceNum];
+	}
+
+	/**
+	 * only the entries up to the current trace number are valid
+	 */
+	private final void checkTraceNumber(int traceNum) {
+		if (traceNum > traceNumber)
+			throw new ArrayIndexOutOfBoundsException(traceNum);
 	}
 
 	/**
@@ -103,29 +114,24 @@ public class ParticleTrace {
 	}
 
 	/**
-	 * intial guess at number of traces
-	 */
-	protected static int INITIAL_SIZE = 300;
-
-	/**
-	 * guess at what resizing to be done in case initial guess is exceeded
+	 * intial guess at number of traces; the arrays double in size when it is exceeded
 	 */
-	protected static int RESIZE_STEP = 10;
+	protected static int INITIAL_SIZE = 32;
 
 	/**
-	 * an dynamically extensible array containg waterbody numbers
+	 * an array containg waterbody numbers
 	 */
-	protected Vector<Integer> channelNumber;
+	protected int[] channelNumber;
 
 	/**
 	 * an array containg node numbers
 	 */
-	protected Vector<Integer> nodeNumber;
+	protected int[] nodeNumber;
 
 	/**
 	 * an array of time stamps
 	 */
-	protected Vector<Integer> entryTime;
+	protected int[] entryTime;
 
 	/**
 	 * an index to the current trace number
@@ -0,0 +1,131 @@
+package DWR.DMS.PTM;
+
+// Scratch state used while one particle is being updated. Each thread that updates
+// particles has its own workspace; a Particle borrows the workspace of the current
+// thread for the duration of updatePosition, so none of this is kept per fish.
+public class ParticleWorkspace {
+
+	private static final ThreadLocal<ParticleWorkspace> workspaces = new ThreadLocal<ParticleWorkspace>() {
+		@Override
+		protected ParticleWorkspace initialValue() {
+			return new ParticleWorkspace();
+		}
+	};
+
+	// Workspace of the calling thread
+	public static ParticleWorkspace get() {
+		return workspaces.get();
+	}
+
+	// Random number stream, loaded with the state of the particle being updated
+	public final RandomStream random = new RandomStream();
+
+	// Normal deviates drawn ahead from random for the mixing sub-time steps; see fillGaussians
+	private double[] gaussians = new double[0];
+	private int nextGaussian, numberOfGaussians;
+
+	// Time left for completing the current PTM input time step
+	public float tmLeft;
+	// Set when the particle is asked to wait at its current position
+	public boolean particleWait;
+	// Number of recursions done to calculate the x position
+	public int recursionCounter;
+
+	// Mixing coefficients
+	public float Ev, dEvdz, Evdt, dEvdzdt, Et, dEtdy, Etdt, dEtdydt;
+
+	// Arrays applied for the convenience of vars transfer from Channel
+	public final float[] cL = new float[1];
+	public final float[] cW = new float[1];
+	public final float[] cD = new float[1];
+	public final float[] cV = new float[1];
+	public final float[] cA = new float[1];
+	public final float[] cS = new float[1];
+	// Hydro bounds of a Channel being sized for the sub-time steps
+	public final float[] hydroBounds = new float[4];
+
+	// Time spent and distance traveled in each waterbody visited during the time step
+	public int numberOfMovements;
+	public int[] movementWaterbody = new int[8];
+	public double[] movementTime = new double[8];
+	public double[] movementDistance = new double[8];
+
+	// BehavedParticle velocity components, kept for the testing output
+	public float flowVelocity, baseParticleVel, particleVelocity, baseSwimVel, swimVelocity;
+	// Waterbody the particle was in before the current node decision
+	public Waterbody previousWB;
+	// Flows of the junction tree nodes, grown to the largest tree walked by this thread
+	public float[] junctionFlows = new float[0];
+
+	// Per-option scratch of a node decision: weights, local waterbody indices, signed outflows and
+	// waterbody env indices; see ensureDecisionCapacity
+	public double[] decisionWeights = new double[0];
+	public int[] decisionIndices = new int[0];
+	public float[] decisionFlows = new float[0];
+	public int[] decisionWbNums = new int[0];
+
+	// Prepare the workspace for the next particle
+	public void clear() {
+		numberOfMovements = 0;
+		flowVelocity = 0.0f;
+		baseParticleVel = 0.0f;
+		particleVelocity = 0.0f;
+		baseSwimVel = 0.0f;
+		swimVelocity = 0.0f;
+		previousWB = null;
+		numberOfGaussians = 0;
+	}
+
+	// Draw n normal deviates ahead from random, replacing any that are left. The stream is the
+	// particle's own, so the deviates a particle gets don't depend on the thread.
+	public void fillGaussians(int n) {
+		if (gaussians.length < n) {
+			gaussians = new double[n];
+		}
+		random.fillGaussians(gaussians, n);
+		nextGaussian = 0;
+		numberOfGaussians = n;
+	}
+
+	// Next normal deviate drawn ahead, or a new one from random once they are used up
+	public double gaussian() {
+		if (nextGaussian < numberOfGaussians) {
+			return gaussians[nextGaussian++];
+		}
+		return random.gaussian();
+	}
+
+	// Make the node decision scratch arrays hold at least numberOfOptions entries. They are sized to
+	// the largest node, so they are allocated once per thread.
+	public void ensureDecisionCapacity(int numberOfOptions) {
+		int size;
+
+		if (decisionWeights.length < numberOfOptions) {
+			size = Math.max(numberOfOptions, Node.getMaxNumberOfWaterbodies());
+			decisionWeights = new double[size];
+			decisionIndices = new int[size];
+			decisionFlows = new float[size];
+			decisionWbNums = new int[size];
+		}
+	}
+
+	// Add time and distance to the totals for a waterbody
+	public void addMovement(int wbIndex, double time, double distance) {
+		for (int i = 0; i < numberOfMovements; i++) {
+			if (movementWaterbody[i] == wbIndex) {
+				movementTime[i] += time;
+				movementDistance[i] += distance;
+				return;
+			}
+		}
+		if (numberOfMovements == movementWaterbody.length) {
+			movementWaterbody = java.util.Arrays.copyOf(movementWaterbody, 2 * numberOfMovements);
+			movementTime = java.util.Arrays.copyOf(movementTime, 2 * numberOfMovements);
+			movementDistance = java.util.Arrays.copyOf(movementDistance, 2 * numberOfMovements);
+		}
+		movementWaterbody[numberOfMovements] = wbIndex;
+		movementTime[numberOfMovements] = time;
+		movementDistance[numberOfMovements] = distance;
+		numberOfMovements++;
+	}
+}
@@ -0,0 +1,188 @@
+package DWR.DMS.PTM;
+
+// Counter-based random number stream. Every particle owns one, keyed by the run's
+// random seed and the particle Id, so the n-th draw of a particle depends only on
+// (seed, Id, n). A particle's trajectory is therefore the same no matter how many
+// threads update the particles or in what order.
+// The output function is the SplitMix64 finalizer (Steele, Lea & Flood 2014) applied
+// to key + n*GAMMA. The stream is not synchronized; it must only be used by the
+// thread that is currently updating its particle.
+// The whole state of a stream is its (seed, Id) key and the counter, so a ParticleStore
+// keeps only the counter per fish and loads it into a per-thread stream with setStream
+// while the fish is being updated.
+//
+// Normal deviates come from the ziggurat method (Marsaglia & Tsang 2000) with 128 layers,
+// which takes one 64-bit draw, one table lookup and one multiply for about 99% of the
+// deviates. The layer is taken from the low bits of the draw and the sign and position
+// from the high bits, so the two are independent (Leong et al. 2005).
+public class RandomStream {
+
+	private static final long GAMMA = 0x9E3779B97F4A7C15L;
+	private static final double DOUBLE_UNIT = 1.0 / (1L << 53);
+
+	// Ziggurat tables: x of the right edge of each layer, tail start R, layer areas V
+	private static final int LAYERS = 128;
+	private static final double R = 3.442619855899, V = 9.91256303526217e-3;
+	private static final long[] kn = new long[LAYERS];
+	private static final double[] wn = new double[LAYERS], fn = new double[LAYERS];
+
+	static {
+		final double m1 = 2147483648.0;
+		double dn = R, tn = R, q = V / Math.exp(-0.5 * R * R);
+
+		kn[0] = (long) ((dn / q) * m1);
+		kn[1] = 0;
+		wn[0] = q / m1;
+		wn[LAYERS - 1] = dn / m1;
+		fn[0] = 1.0;
+		fn[LAYERS - 1] = Math.exp(-0.5 * dn * dn);
+		for (int i = LAYERS - 2; i >= 1; i--) {
+			dn = Math.sqrt(-2.0 * Math.log(V / dn + Math.exp(-0.5 * dn * dn)));
+			kn[i + 1] = (long) ((dn / tn) * m1);
+			tn = dn;
+			fn[i] = Math.exp(-0.5 * dn * dn);
+			wn[i] = dn / m1;
+		}
+	}
+
+	private long key;
+	private long counter;
+
+	// Constructor
+	public RandomStream(long seed, long streamId) {
+		// Decorrelate neighbouring seeds and Ids before combining them
+		key = mix64(mix64(seed) + mix64(streamId ^ GAMMA));
+		counter = 0;
+	}
+
+	// Constructor for a stream that is loaded later with setStream
+	public RandomStream() {
+		this(0, 0);
+	}
+
+	// Continue the stream of (seed, streamId) after counter draws
+	public final void setStream(long seed, long streamId, long counter) {
+		key = mix64(mix64(seed) + mix64(streamId ^ GAMMA));
+		this.counter = counter;
+	}
+
+	// Number of 64-bit draws taken so far
+	public final long getCounter() {
+		return counter;
+	}
+
+	// Next 64 random bits
+	public final long nextLong() {
+		counter++;
+		return mix64(key + counter * GAMMA);
+	}
+
+	// Uniform integer in [0, bound)
+	public final int nextInt(int bound) {
+		if (bound <= 0) {
+			throw new IllegalArgumentException("bound must be positive");
+		}
+		return (int) (((nextLong() >>> 33) * bound) >>> 31);
+	}
+
+	// Uniform double in [0, 1)
+	public final double nextDouble() {
+		return (nextLong() >>> 11) * DOUBLE_UNIT;
+	}
+
+	// Uniform double in (0, 1)
+	public final double uniform() {
+		return ((nextLong() >>> 11) + 0.5) * DOUBLE_UNIT;
+	}
+
+	// Standard normal deviate (ziggurat)
+	public final double gaussian() {
+		long bits;
+		int hz, iz;
+		double x, y;
+
+		while (true) {
+			bits = nextLong();
+			hz = (int) (bits >> 32);
+			iz = (int) bits & (LAYERS - 1);
+			if (Math.abs((long) hz) < kn[iz]) {
+				// Inside the layer's rectangle
+				return hz * wn[iz];
+			}
+
+			x = hz * wn[iz];
+			if (iz == 0) {
+				// Tail beyond R (Marsaglia 1964)
+				do {
+					x = -Math.log(uniform()) / R;
+					y = -Math.log(uniform());
+				} while (y + y < x * x);
+				return hz > 0 ? R + x : -R - x;
+			}
+			if (fn[iz] + uniform() * (fn[iz - 1] - fn[iz]) < Math.exp(-0.5 * x * x)) {
+				// Under the density in the wedge
+				return x;
+			}
+		}
+	}
+
+	// Fill the first n entries of deviates with standard normal deviates
+	public final void fillGaussians(double[] deviates, int n) {
+		for (int i = 0; i < n; i++) {
+			deviates[i] = gaussian();
+		}
+	}
+
+	// Standard normal deviate truncated above at upper, by inverting the normal CDF on
+	// (0, Phi(upper)). Takes one draw, where rejecting deviates above upper takes a
+	// varying number.
+	public final double truncatedGaussian(double upper) {
+		return inverseNormalCdf(uniform() * normalCdf(upper));
+	}
+
+	// Standard normal CDF from the complementary error function, with a relative error
+	// below 1.2e-7 (Press et al., Numerical Recipes, erfcc)
+	private static double normalCdf(double x) {
+		double z = Math.abs(x) / Math.sqrt(2.0);
+		double t = 1.0 / (1.0 + 0.5 * z);
+		double erfc = t * Math.exp(-z * z - 1.26551223 + t * (1.00002368 + t * (0.37409196 + t * (0.09678418
+				+ t * (-0.18628806 + t * (0.27886807 + t * (-1.13520398 + t * (1.48851587
+				+ t * (-0.82215223 + t * 0.17087277)))))))));
+
+		return x >= 0.0 ? 1.0 - 0.5 * erfc : 0.5 * erfc;
+	}
+
+	// Inverse of the standard normal CDF for p in (0, 1), with a relative error below
+	// 1.2e-9 (P. J. Acklam's rational approximation)
+	private static double inverseNormalCdf(double p) {
+		final double pLow = 0.02425;
+		double q, r;
+
+		if (p < pLow) {
+			q = Math.sqrt(-2.0 * Math.log(p));
+			return (((((-7.784894002430293e-03 * q - 3.223964580411365e-01) * q - 2.400758277161838e+00) * q
+					- 2.549732539343734e+00) * q + 4.374664141464968e+00) * q + 2.938163982698783e+00)
+					/ ((((7.784695709041462e-03 * q + 3.224671290700398e-01) * q + 2.445134137142996e+00) * q
+							+ 3.754408661907416e+00) * q + 1.0);
+		}
+		if (p > 1.0 - pLow) {
+			q = Math.sqrt(-2.0 * Math.log(1.0 - p));
+			return -(((((-7.784894002430293e-03 * q - 3.223964580411365e-01) * q - 2.400758277161838e+00) * q
+					- 2.549732539343734e+00) * q + 4.374664141464968e+00) * q + 2.938163982698783e+00)
+					/ ((((7.784695709041462e-03 * q + 3.224671290700398e-01) * q + 2.445134137142996e+00) * q
+							+ 3.754408661907416e+00) * q + 1.0);
+		}
+		q = p - 0.5;
+		r = q * q;
+		return (((((-3.969683028665376e+01 * r + 2.209460984245205e+02) * r - 2.759285104469687e+02) * r
+				+ 1.383577518672690e+02) * r - 3.066479806614716e+01) * r + 2.506628277459239e+00) * q
+				/ (((((-5.447609879822406e+01 * r + 1.615858368580409e+02) * r - 1.556989798598866e+02) * r
+						+ 6.680131188303342e+01) * r - 1.328068155288572e+01) * r + 1.0);
+	}
+
+	private static long mix64(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
@@ -83,6 +83,20 @@ public class Reservoir extends Waterbody {
 		volume = currentVolume;
 	}
 
+	/**
+	 * Get the surface area
+	 */
+	public final float getArea() {
+		return area;
+	}
+
+	/**
+	 * Get the bottom elevation
+	 */
+	public final float getBottomElevation() {
+		return bottomElevation;
+	}
+
 	/**
 	 * Set current depth information from HYDRO input
 	 */
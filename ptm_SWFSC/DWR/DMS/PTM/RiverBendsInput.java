@@ -67,10 +67,11 @@ class RiverBendsInput {
 	}
 
 	// VKS: Function to get the value of a hydrodynamic quantity for a given point from the lateral profiles
-	public static float getLatPosVal(float yfrac, String curvHead, int bendDir, int valFlag) {
+	// curvIdx is the curvature column from LatData.convertRadToColumn
+	public static float getLatPosVal(float yfrac, int curvIdx, int bendDir, int valFlag) {
 		int yPsign;
-		Integer yFracInt;
-		float tp;
+		int yFracInt;
+		LatData profile;
 
 		// Get the sign of yfrac
 		yPsign = (int) Math.signum(yfrac);
@@ -89,34 +90,22 @@ class RiverBendsInput {
 		}
 
 		// Lateral velocity function value at the point
-		if (bendDir == -1) {
-			if (valFlag == 0)
-				tp = (float) RiverBendsInput.getLatVel(yFracInt, curvHead, true);
-			else if (valFlag == 1)
-				tp = (float) RiverBendsInput.getLatEps(yFracInt, curvHead, true);
-			else if (valFlag == 2)
-				tp = (float) RiverBendsInput.getLatdEP(yFracInt, curvHead, true);
-			else
-				tp = (float) RiverBendsInput.getLatd2EP(yFracInt, curvHead, true);
-		} else {
-			if (valFlag == 0)
-				tp = (float) RiverBendsInput.getLatVel(yFracInt, curvHead, false);
-			else if (valFlag == 1)
-				tp = (float) RiverBendsInput.getLatEps(yFracInt, curvHead, false);
-			else if (valFlag == 2)
-				tp = (float) RiverBendsInput.getLatdEP(yFracInt, curvHead, false);
-			else
-				tp = (float) RiverBendsInput.getLatd2EP(yFracInt, curvHead, false);
-		}
+		if (valFlag == 0)
+			profile = latVel;
+		else if (valFlag == 1)
+			profile = latEps;
+		else if (valFlag == 2)
+			profile = latdEP;
+		else
+			profile = latd2EP;
 
-		return (tp);
+		return profile.getValue(yFracInt, curvIdx, bendDir == -1);
 	}
 
 	// VKS: Function to get the value of a hydrodynamic quantity for a given point from the vertical profiles
 	public static float getVertPosVal(float zfrac, int valFlag) {
 
-		Integer zFracInt;
-		float tp;
+		int zFracInt;
 
 		// Convert three decimals of yfrac to an integer
 		zFracInt = Math.round(zfrac * 1000);
@@ -133,11 +122,9 @@ class RiverBendsInput {
 
 		// Lateral velocity function value at the point
 		if (valFlag == 1)
-			tp = (float) RiverBendsInput.getVertEps(zFracInt);
+			return vertEps.getValue(zFracInt);
 		else
-			tp = (float) RiverBendsInput.getVertdEP(zFracInt);
-
-		return (tp);
+			return vertdEP.getValue(zFracInt);
 
 	}
 }
@@ -34,60 +34,26 @@ public class TypeFlux extends Flux {
 	}
 
 	/**
-	 * Calculates total Flux and fills up array of Flux over time as well
+	 * A particle adds to the Flux when it moves from an incoming to an outgoing waterbody, and subtracts from it when it moves the other way
 	 */
-	public void calculateFlux(ParticleTrace[] traceArray, int numberOfTraceParticles, int sTime, int eTime, int tStep, int nParticles) {
-		if (initialized == false) {
-			super.calculateFlux(traceArray, numberOfTraceParticles, sTime, eTime, tStep, nParticles);
+	@Override
+	protected int transferFlux(int nodeId, Waterbody wbIn, Waterbody wbOut) {
+		int particleFlux = 0;
+		if (info.getInGroup().containsWaterbody(wbIn) && info.getOutGroup().containsWaterbody(wbOut)) {
+			particleFlux++;
 		}
+		if (info.getOutGroup().containsWaterbody(wbIn) && info.getInGroup().containsWaterbody(wbOut)) {
+			if (wbOut != null) {
+				particleFlux--;
+			}
+		}
+		return particleFlux;
+	}
 
-		numberOfParticles = numberOfTraceParticles;
-
-		for (int pNum = 0; pNum < numberOfParticles; pNum++) {
-			int traceNum = 1;
-			int particleFlux = 0;
-			int maxTraces = traceArray[pNum].getNumberOfTraces();
-			// System.out.println("Particle #: " + pNum);
-			try {
-				for (int index = 0; index < numberOfTimeSteps; index++) {
-					while (traceNum <= maxTraces && traceArray[pNum].getTime(traceNum) == index * timeStep + startTime) {
-
-						Waterbody wbIn = Globals.Environment.getWaterbody(traceArray[pNum].getWaterbodyId(traceNum - 1));
-						Waterbody wbOut = Globals.Environment.getWaterbody(traceArray[pNum].getWaterbodyId(traceNum));
-
-						// System.out.println("Out WB type" + wbOut.getType());
-						/*
-						 * if (wbOut.getType() !=100){ System.out.println("Index : " + index); System.out.println("In : " + wbIn);
-						 * System.out.println("Out : " + wbOut); System.out.println("Flux check"); System.out.println("Out Flux check: " +
-						 * info.getOutGroup().containsWaterbody(wbOut)); System.out.println("Out Flux check2: " +
-						 * info.getOutGroup().containsWaterbody(wbIn)); System.out.println("In Flux check: " +
-						 * info.getInGroup().containsWaterbody(wbOut)); System.out.println("In Flux check2: " +
-						 * info.getInGroup().containsWaterbody(wbIn));
-						 * 
-						 * }
-						 */
-						// System.out.println("Out : " + wbOut);
-						if (info.getInGroup().containsWaterbody(wbIn) && info.getOutGroup().containsWaterbody(wbOut)) {
-							// System.out.println("Flux recognized");
-							particleFlux++;
-						}
-						if (info.getOutGroup().containsWaterbody(wbIn) && info.getInGroup().containsWaterbody(wbOut)) {
-							// System.out.println("Reverse Flux recognized");
-							if (wbOut != null) {
-								particleFlux--;
-							}
-						}
-						traceNum++;
-					} // end while
-					// if (traceArray[pNum].getTime(traceNum) == index*
-					flux[index] += particleFlux;
-					// System.out.println("particleFlux["+index+"]="+Flux[index]);
-				} // end for(index)
-
-			} catch (java.lang.ArrayIndexOutOfBoundsException e) {
-				e.printStackTrace();
-			} // end try
-		} // end for(pNum)
+	@Override
+	protected void indexGroups(PTMEnv environment) {
+		info.getInGroup().indexWaterbodies(environment);
+		info.getOutGroup().indexWaterbodies(environment);
 	}
 
 	/**
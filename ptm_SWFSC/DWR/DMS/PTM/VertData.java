@@ -1,9 +1,52 @@
 package DWR.DMS.PTM;
 
+import java.util.Arrays;
+import java.util.Map;
+
 class VertData extends ProfileData {
 
+	// Dense copy of the first data column indexed by vertPos - minVertPos. Missing rows are NaN.
+	private float[] table;
+	private int minVertPos;
+
 	public VertData(String inputDir, String filename) {
 		super(inputDir, filename);
+		compileTable();
+	}
+
+	// Copy data into the dense table
+	private void compileTable() {
+		int maxVertPos;
+
+		minVertPos = Integer.MAX_VALUE;
+		maxVertPos = Integer.MIN_VALUE;
+		for (Integer vertPos : rowIndices.keySet()) {
+			minVertPos = Math.min(minVertPos, vertPos);
+			maxVertPos = Math.max(maxVertPos, vertPos);
+		}
+		table = new float[rowIndices.isEmpty() ? 0 : maxVertPos - minVertPos + 1];
+		Arrays.fill(table, Float.NaN);
+
+		for (Map.Entry<Integer, Integer> row : rowIndices.entrySet()) {
+			table[row.getKey() - minVertPos] = (float) data[row.getValue()][0];
+		}
+	}
+
+	// Get specific value without boxing or map lookups. vertPos is in thousandths of the depth.
+	public float getValue(int vertPos) {
+		int bin;
+		float value;
+
+		bin = vertPos - minVertPos;
+		if (bin >= 0 && bin < table.length) {
+			value = table[bin];
+			if (!Float.isNaN(value)) {
+				return value;
+			}
+		}
+
+		// Not in the table; report it the same way as getData
+		return (float) getData(vertPos);
 	}
 
 	// Get specific value from vertical distributions
@@ -20,8 +20,6 @@ C!    along with DSM2.  If not, see <http://www.gnu.org/!<licenses/>.
 //$Id: Waterbody.java,v 1.3.6.2 2006/01/27 19:52:24 eli2 Exp $
 package DWR.DMS.PTM;
 
-import edu.cornell.RngPack.*;
-
 /**
  * Waterbody is an abstract entity which is connected to other waterbodies via nodes. Each Waterbody is identified by its unique id #. Each Waterbody
  * has a type that is specified by the subtype that creates it.
@@ -70,10 +68,9 @@ public abstract class Waterbody {
 
 	public static double PTMtimeStep = 15; 
 
-	/**
-	 *
-	 */
-	public int INITIAL_SEED = 10000;
+	// Minutes between the start of the PTM time step and the last hydro time step, and the hydro
+	// time step (minutes); see setHydroInterpolation
+	private static int hydroDiffStart = 0, hydroInterpStepSize = 1;
 
 	/**
 	 * Construct an empty channel with no nodes
@@ -99,8 +96,6 @@ public abstract class Waterbody {
 			flowAt = new float[nNodes][2];
 			qualityAt = new float[nNodes][getNumConstituents()];
 		}
-		if (randomNumberGenerator == null)
-			randomNumberGenerator = new Ranecu(INITIAL_SEED);
 	}
 
 	/**
@@ -194,20 +189,6 @@ public abstract class Waterbody {
 		return (nodeIdArray[localIndex]);
 	}
 
-	/**
-	 * Generates a random number on subsequent calls which are gaussian distributed.
-	 */
-	public final float getGRandomNumber() {
-		return ((float) randomNumberGenerator.gaussian());
-	}// no use
-
-	/**
-	 * Generate a uniform random real number in (0,1)
-	 */
-	public final float getRandomNumber() {
-		return ((float) randomNumberGenerator.uniform(0, 1));
-	}
-
 	/**
 	 * Get the number of nodes connecting to this Waterbody
 	 */
@@ -232,19 +213,23 @@ public abstract class Waterbody {
 			flowAt[nodeId][timeStepIndex] = flowArray[nodeId];
 	}
 
+	// Set the times calcHydroInterpFac needs for the current PTM time step. Called once per step
+	// after the hydro data are updated, so the particles don't have to ask the environment for them.
+	public static void setHydroInterpolation(int currentModelTime, int lastHydroReadTime, int hydroStepSize) {
+		hydroDiffStart = currentModelTime - lastHydroReadTime;
+		hydroInterpStepSize = hydroStepSize;
+	}
+
 	// Calculate the hydro interpolation factor based on the current model time,
 	// the PTM time step (minutes), and the amount of time left in the current PTM time step (seconds)
 	public float calcHydroInterpFac(float tmLeft) {
 
 		float hydroInterpFac = 0.0f;
 
-		// Minutes between the start of the PTM time step and the last hydro time step
-		int diffStart = Globals.currentModelTime - Globals.Environment.getLastHydroReadTime();
-
 		// Minutes between the actual current timeand the last hydro time step
-		double diffActual = (double) diffStart + (PTMtimeStep - (double) tmLeft / 60.0);
+		double diffActual = (double) hydroDiffStart + (PTMtimeStep - (double) tmLeft / 60.0);
 
-		hydroInterpFac = (float) (diffActual / (double) Globals.Environment.getHydroStepSize());
+		hydroInterpFac = (float) (diffActual / (double) hydroInterpStepSize);
 		hydroInterpFac = Math.max(0.0f, Math.min(1.0f, hydroInterpFac));
 
 		return hydroInterpFac;
@@ -360,11 +345,6 @@ public abstract class Waterbody {
 	 * Water quality information read from Qual binary file
 	 */
 	protected float[][] qualityAt;
-	/**
-	 * Gaussian random number generator
-	 */
-	private RandomElement randomNumberGenerator;
-
 	/**
 	 * The object name
 	 */
@@ -56,6 +56,11 @@ public class WaterbodyGroup implements Group {
 
 	private String name;
 	private final WaterbodyGroupMember[] members;
+	/**
+	 * Membership of each Waterbody by env index and of a null Waterbody, set by indexWaterbodies
+	 */
+	private boolean[] memberByEnvIndex;
+	private boolean containsNull;
 
 	/**
 	 * Constructor
@@ -84,10 +89,32 @@ public class WaterbodyGroup implements Group {
 		// @todo: this isn't necessarily right -- what about "any" Group?
 		// if (wb == null) return false;
 		// if (wb == null) throw new NullPointerException("Null Waterbody");
+		if (memberByEnvIndex != null) {
+			if (wb == null)
+				return containsNull;
+			int envIndex = wb.getEnvIndex();
+			return envIndex >= 0 && envIndex < memberByEnvIndex.length && memberByEnvIndex[envIndex];
+		}
 		int contains = indexOfWaterBody(wb);
 		return contains >= 0;
 	}
 
+	/**
+	 * Looks up every Waterbody of the environment once, so containsWaterbody is an array read
+	 */
+	public void indexWaterbodies(PTMEnv environment) {
+		boolean[] member = new boolean[environment.getNumberOfWaterbodies()];
+		Waterbody wb;
+
+		for (int i = 0; i < member.length; i++) {
+			wb = environment.getWaterbody(i);
+			if (wb != null && wb.getEnvIndex() == i)
+				member[i] = indexOfWaterBody(wb) >= 0;
+		}
+		containsNull = indexOfWaterBody(null) >= 0;
+		memberByEnvIndex = member;
+	}
+
 	// boolean done=false;
 
 	/**